@@ -0,0 +1,197 @@
+package org.trebor.splink;
+
+import java.awt.FontMetrics;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JTable;
+import javax.swing.SwingWorker;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableColumn;
+import javax.swing.table.TableColumnModel;
+import javax.swing.table.TableModel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sizes table columns to fit their contents without measuring every row.
+ * The width of a column is taken from a sample of the first, last and some
+ * random rows, measured off the event dispatch thread and applied when
+ * done. Widths are cached per distinct text for as long as the same model is
+ * being sized, so growing results and repeated sizing measure each value
+ * once.
+ */
+
+public class ColumnSizer
+{
+  public static final Logger log = Logger.getLogger(ColumnSizer.class);
+
+  public static final int HEAD_ROWS = 200;
+  public static final int TAIL_ROWS = 100;
+  public static final int RANDOM_ROWS = 500;
+  public static final int CACHE_SIZE = 100000;
+
+  private final Splink mSplink;
+  private Map<String, Integer> mWidths;
+  private TableModel mCachedModel;
+  private SwingWorker<int[], Void> mPending;
+
+  public ColumnSizer(Splink splink)
+  {
+    mSplink = splink;
+  }
+
+  /** size the columns of a table, called on the event dispatch thread */
+
+  public void size(final JTable table)
+  {
+    if (null != mPending)
+      mPending.cancel(false);
+
+    // collect everything the worker needs while on the event thread
+
+    final TableModel model = table.getModel();
+    final TableColumnModel columnModel = table.getColumnModel();
+    final int rowCount = model.getRowCount();
+    final int columnCount = model.getColumnCount();
+    final boolean longUri = mSplink.showLongUri();
+    final FontMetrics metrics = table.getFontMetrics(table.getFont());
+    final int[] headerWidths = new int[columnCount];
+    for (int c = 0; c < columnCount; ++c)
+    {
+      TableColumn column = columnModel.getColumn(c);
+      TableCellRenderer header = null != column.getHeaderRenderer()
+        ? column.getHeaderRenderer()
+        : table.getTableHeader().getDefaultRenderer();
+      headerWidths[c] = width(column.getHeaderValue().toString(),
+        table.getFontMetrics(header.getTableCellRendererComponent(table, null,
+          false, false, 0, c).getFont()));
+    }
+
+    if (model != mCachedModel)
+    {
+      mWidths = new ConcurrentHashMap<String, Integer>();
+      mCachedModel = model;
+    }
+    final Map<String, Integer> widths = mWidths;
+
+    mPending = new SwingWorker<int[], Void>()
+    {
+      protected int[] doInBackground()
+      {
+        // a result replaced meanwhile may have released its files
+
+        ResultTableModel result = model instanceof ResultTableModel
+          ? (ResultTableModel)model
+          : null;
+        if (null != result && !result.acquire())
+          return null;
+
+        try
+        {
+          int[] rows = sampleRows(rowCount, new Random(rowCount));
+          int[] columnWidths = headerWidths.clone();
+
+          for (int c = 0; c < columnCount; ++c)
+            for (int r : rows)
+            {
+              if (isCancelled())
+                return null;
+
+              String text =
+                mSplink.getDisplayValue(model.getValueAt(r, c), longUri);
+              if (null == text)
+                continue;
+
+              Integer width = widths.get(text);
+              if (null == width)
+              {
+                width = width(text, metrics);
+                if (widths.size() < CACHE_SIZE)
+                  widths.put(text, width);
+              }
+              columnWidths[c] = Math.max(columnWidths[c], width);
+            }
+
+          return columnWidths;
+        }
+        finally
+        {
+          if (null != result)
+            result.release();
+        }
+      }
+
+      protected void done()
+      {
+        if (isCancelled() || table.getModel() != model)
+          return;
+
+        try
+        {
+          int[] columnWidths = get();
+          if (null == columnWidths)
+            return;
+          TableColumnModel columns = table.getColumnModel();
+          for (int c = 0; c < columnWidths.length &&
+            c < columns.getColumnCount(); ++c)
+            columns.getColumn(c).setPreferredWidth(columnWidths[c]);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+          log.error("sizing columns", e.getCause());
+        }
+      }
+    };
+    mPending.execute();
+  }
+
+  private static int width(String text, FontMetrics metrics)
+  {
+    return metrics.stringWidth(" " + text);
+  }
+
+  /**
+   * Pick the rows to measure: the head and tail of the table and random rows
+   * in between, in ascending order without repeats. A small table is
+   * measured completely.
+   */
+
+  static int[] sampleRows(int rowCount, Random random)
+  {
+    int sampleSize = HEAD_ROWS + TAIL_ROWS + RANDOM_ROWS;
+    if (rowCount <= sampleSize)
+    {
+      int[] rows = new int[rowCount];
+      for (int i = 0; i < rowCount; ++i)
+        rows[i] = i;
+      return rows;
+    }
+
+    int[] rows = new int[sampleSize];
+    int count = 0;
+    for (int i = 0; i < HEAD_ROWS; ++i)
+      rows[count++] = i;
+    for (int i = rowCount - TAIL_ROWS; i < rowCount; ++i)
+      rows[count++] = i;
+    int middle = rowCount - HEAD_ROWS - TAIL_ROWS;
+    for (int i = 0; i < RANDOM_ROWS; ++i)
+      rows[count++] = HEAD_ROWS + random.nextInt(middle);
+
+    // sort and drop repeated random picks
+
+    Arrays.sort(rows);
+    int distinct = 0;
+    for (int i = 0; i < rows.length; ++i)
+      if (0 == distinct || rows[i] != rows[distinct - 1])
+        rows[distinct++] = rows[i];
+    return Arrays.copyOf(rows, distinct);
+  }
+}
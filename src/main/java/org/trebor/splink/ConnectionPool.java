@@ -0,0 +1,298 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+
+/**
+ * A bounded pool of connections to one repository, so that queries, exports
+ * and background tasks each work on a connection of their own rather than
+ * sharing one. Connections are opened as they are first needed and kept for
+ * reuse; borrowing waits while all of them are in use, and the wait ends
+ * with an exception if the borrowing thread is interrupted, as it is when a
+ * query is canceled. Every connection which is borrowed must be released,
+ * and the pool keeps count of how many are busy, how often they were
+ * borrowed and how long borrowers waited.
+ * <p>
+ * Background work, such as exports, counts and loading metadata, borrows
+ * with {@link #borrowBackground()} and may only hold the connections which
+ * are not reserved, so that some are always left for interactive queries.
+ */
+
+public class ConnectionPool
+{
+  public static final Logger log = Logger.getLogger(ConnectionPool.class);
+
+  private final Repository mRepository;
+  private final int mSize;
+  private final int mReserved;
+  private final Semaphore mPermits;
+  private final Semaphore mBackgroundPermits;
+  private final LinkedList<RepositoryConnection> mIdle =
+    new LinkedList<RepositoryConnection>();
+  private final AtomicLong mBorrowed = new AtomicLong();
+  private final AtomicLong mWaited = new AtomicLong();
+  private final AtomicLong mTotalWait = new AtomicLong();
+  private final AtomicLong mMaxWait = new AtomicLong();
+  private final Map<RepositoryConnection, Boolean> mBackground =
+    new IdentityHashMap<RepositoryConnection, Boolean>();
+  private int mOpened;
+  private volatile boolean mClosed;
+
+  public ConnectionPool(Repository repository, int size)
+  {
+    this(repository, size, 0);
+  }
+
+  /**
+   * @param size the most connections open at once
+   * @param reserved connections background work may not hold, at least one
+   *        connection is always left for background work
+   */
+
+  public ConnectionPool(Repository repository, int size, int reserved)
+  {
+    mRepository = repository;
+    mSize = Math.max(1, size);
+    mReserved = Math.max(0, Math.min(reserved, mSize - 1));
+    mPermits = new Semaphore(mSize, true);
+    mBackgroundPermits = new Semaphore(mSize - mReserved, true);
+  }
+
+  public Repository getRepository()
+  {
+    return mRepository;
+  }
+
+  /**
+   * Borrow a connection for an interactive query, waiting until one is
+   * free. The connection must be given back with
+   * {@link #release(RepositoryConnection)}.
+   *
+   * @throws RepositoryException if the pool is closed or the wait is
+   *         interrupted
+   */
+
+  public RepositoryConnection borrow() throws RepositoryException
+  {
+    return borrow(false);
+  }
+
+  /**
+   * Borrow a connection for background work, waiting until one which is
+   * not reserved is free.
+   *
+   * @throws RepositoryException if the pool is closed or the wait is
+   *         interrupted
+   */
+
+  public RepositoryConnection borrowBackground() throws RepositoryException
+  {
+    return borrow(true);
+  }
+
+  private RepositoryConnection borrow(boolean background)
+    throws RepositoryException
+  {
+    if (mClosed)
+      throw new RepositoryException("connection pool is closed");
+
+    long start = System.currentTimeMillis();
+    boolean waited = 0 == mPermits.availablePermits() ||
+      (background && 0 == mBackgroundPermits.availablePermits());
+    try
+    {
+      if (background)
+        mBackgroundPermits.acquire();
+      try
+      {
+        mPermits.acquire();
+      }
+      catch (InterruptedException e)
+      {
+        if (background)
+          mBackgroundPermits.release();
+        throw e;
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RepositoryException("interrupted waiting for a connection",
+        e);
+    }
+    long wait = System.currentTimeMillis() - start;
+    if (waited)
+    {
+      mWaited.incrementAndGet();
+      mTotalWait.addAndGet(wait);
+      if (wait > mMaxWait.get())
+        mMaxWait.set(wait);
+    }
+
+    try
+    {
+      RepositoryConnection connection = null;
+      synchronized (mIdle)
+      {
+        if (!mIdle.isEmpty())
+          connection = mIdle.removeFirst();
+      }
+      if (null == connection)
+      {
+        connection = mRepository.getConnection();
+        synchronized (mIdle)
+        {
+          ++mOpened;
+        }
+      }
+      if (background)
+        synchronized (mIdle)
+        {
+          mBackground.put(connection, Boolean.TRUE);
+        }
+      mBorrowed.incrementAndGet();
+      return connection;
+    }
+    catch (RepositoryException e)
+    {
+      releasePermits(background);
+      throw e;
+    }
+    catch (RuntimeException e)
+    {
+      releasePermits(background);
+      throw e;
+    }
+  }
+
+  private void releasePermits(boolean background)
+  {
+    mPermits.release();
+    if (background)
+      mBackgroundPermits.release();
+  }
+
+  /**
+   * Give back a borrowed connection. It is kept for reuse unless it has been
+   * closed or the pool has.
+   */
+
+  public void release(RepositoryConnection connection)
+  {
+    if (null == connection)
+      return;
+
+    boolean keep = !mClosed;
+    try
+    {
+      keep &= connection.isOpen();
+    }
+    catch (RepositoryException e)
+    {
+      keep = false;
+    }
+
+    boolean background;
+    synchronized (mIdle)
+    {
+      background = null != mBackground.remove(connection);
+      if (keep)
+        mIdle.addFirst(connection);
+      else
+        --mOpened;
+    }
+    if (!keep)
+      close(connection);
+    releasePermits(background);
+  }
+
+  /**
+   * Close the idle connections and refuse new borrowers. Connections which
+   * are borrowed are closed as they are released.
+   */
+
+  public void close()
+  {
+    mClosed = true;
+    LinkedList<RepositoryConnection> idle;
+    synchronized (mIdle)
+    {
+      idle = new LinkedList<RepositoryConnection>(mIdle);
+      mOpened -= mIdle.size();
+      mIdle.clear();
+    }
+    for (RepositoryConnection connection : idle)
+      close(connection);
+  }
+
+  public boolean isOpen()
+  {
+    return !mClosed;
+  }
+
+  public int getSize()
+  {
+    return mSize;
+  }
+
+  /** the number of connections background work may hold at once */
+
+  public int getBackgroundSize()
+  {
+    return mSize - mReserved;
+  }
+
+  /** the number of connections which are borrowed */
+
+  public int getBusy()
+  {
+    return mSize - mPermits.availablePermits();
+  }
+
+  /** the number of connections which are open, busy or idle */
+
+  public int getOpened()
+  {
+    synchronized (mIdle)
+    {
+      return mOpened;
+    }
+  }
+
+  public long getBorrowed()
+  {
+    return mBorrowed.get();
+  }
+
+  public String getStatus()
+  {
+    long waited = mWaited.get();
+    return format("connections %d busy, %d open of %d, %,d borrowed, " +
+      "%,d waited (avg %,d ms, max %,d ms)", getBusy(), getOpened(), mSize,
+      getBorrowed(), waited, waited > 0
+        ? mTotalWait.get() / waited
+        : 0, mMaxWait.get());
+  }
+
+  private static void close(RepositoryConnection connection)
+  {
+    try
+    {
+      connection.close();
+    }
+    catch (RepositoryException e)
+    {
+      log.warn("closing pooled connection", e);
+    }
+  }
+}
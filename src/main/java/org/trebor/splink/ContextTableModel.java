@@ -0,0 +1,278 @@
+package org.trebor.splink;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.Resource;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.repository.RepositoryConnection;
+
+/**
+ * Table model of the contexts of a repository and the number of statements
+ * in each. Contexts may be added from any thread as they are read from the
+ * server; they are buffered and appended to the table on the event thread a
+ * page at a time, with at most one update waiting there. Statement counts are
+ * only asked for once a row is drawn, most recently drawn rows first, with a
+ * bounded number of count queries running at once.
+ */
+
+@SuppressWarnings("serial")
+public class ContextTableModel extends AbstractTableModel
+{
+  public static final Logger log = Logger.getLogger(ContextTableModel.class);
+
+  public static final int CONTEXT = 0;
+  public static final int STATEMENTS = 1;
+
+  /** the most rows appended to the table by one update */
+
+  public static final int PAGE_SIZE = 5000;
+
+  /** the most rows waiting to be counted, older requests are forgotten */
+
+  public static final int MAX_WAITING = 256;
+
+  private static final long UNCOUNTED = -1;
+  private static final long COUNTING = -2;
+  private static final long FAILED = -3;
+  private static final String[] COLUMNS = {"context", "statements"};
+  private static final ValueFactory FACTORY = new ValueFactoryImpl();
+
+  private final QueryExecutor mExecutor;
+  private final int mMaxCounting;
+  private final List<Resource> mContexts = new ArrayList<Resource>();
+  private final List<String> mNames = new ArrayList<String>();
+  private long[] mCounts = new long[16];
+  private final LinkedList<Integer> mWaiting = new LinkedList<Integer>();
+  private int mCounting;
+  private ConnectionPool mPool;
+
+  private final List<Object[]> mIncoming = new ArrayList<Object[]>();
+  private boolean mFlushPosted;
+  private volatile boolean mDisposed;
+
+  /**
+   * Construct a model which counts statements with at most the given number
+   * of queries on the executor at once, once it is given a connection pool.
+   */
+
+  public ContextTableModel(QueryExecutor executor, int maxCounting)
+  {
+    mExecutor = executor;
+    mMaxCounting = Math.max(1, maxCounting);
+  }
+
+  /**
+   * Add a context with the name shown for it. Safe to call from any thread,
+   * the row appears with a later update on the event thread.
+   */
+
+  public void add(Resource context, String name)
+  {
+    synchronized (mIncoming)
+    {
+      mIncoming.add(new Object[] {context, name});
+      if (mFlushPosted)
+        return;
+      mFlushPosted = true;
+    }
+
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        flush();
+      }
+    });
+  }
+
+  /**
+   * Count statements in the contexts with connections from this pool as
+   * their rows are drawn. Called on the event thread.
+   */
+
+  public void count(ConnectionPool pool)
+  {
+    mPool = pool;
+    if (getRowCount() > 0)
+      fireTableRowsUpdated(0, getRowCount() - 1);
+  }
+
+  /** stop counting, called on the event thread when the model is replaced */
+
+  public void dispose()
+  {
+    mDisposed = true;
+    mWaiting.clear();
+    mPool = null;
+  }
+
+  public Resource getContext(int row)
+  {
+    return mContexts.get(row);
+  }
+
+  /** the context of a name as written by {@link Resource#toString()} */
+
+  public static Resource parseContext(String context)
+  {
+    return context.startsWith("_:")
+      ? FACTORY.createBNode(context.substring(2))
+      : FACTORY.createURI(context);
+  }
+
+  public int getRowCount()
+  {
+    return mContexts.size();
+  }
+
+  public int getColumnCount()
+  {
+    return COLUMNS.length;
+  }
+
+  public String getColumnName(int column)
+  {
+    return COLUMNS[column];
+  }
+
+  public Object getValueAt(int row, int column)
+  {
+    if (CONTEXT == column)
+      return mNames.get(row);
+
+    // only rows which are drawn are counted
+
+    long count = mCounts[row];
+    if (UNCOUNTED == count)
+      request(row);
+    return count >= 0
+      ? String.format("%,d", count)
+      : FAILED == count
+        ? "?"
+        : null;
+  }
+
+  private void flush()
+  {
+    List<Object[]> page;
+    synchronized (mIncoming)
+    {
+      int size = Math.min(PAGE_SIZE, mIncoming.size());
+      page = new ArrayList<Object[]>(mIncoming.subList(0, size));
+      mIncoming.subList(0, size).clear();
+      mFlushPosted = !mIncoming.isEmpty();
+    }
+
+    // a large backlog is appended over several updates
+
+    if (mFlushPosted)
+      SwingUtilities.invokeLater(new Runnable()
+      {
+        public void run()
+        {
+          flush();
+        }
+      });
+
+    if (page.isEmpty())
+      return;
+
+    int first = mContexts.size();
+    if (mCounts.length < first + page.size())
+    {
+      long[] counts = new long[Math.max(first + page.size(), mCounts.length * 2)];
+      System.arraycopy(mCounts, 0, counts, 0, first);
+      mCounts = counts;
+    }
+    for (Object[] context : page)
+    {
+      mCounts[mContexts.size()] = UNCOUNTED;
+      mContexts.add((Resource)context[0]);
+      mNames.add((String)context[1]);
+    }
+    fireTableRowsInserted(first, mContexts.size() - 1);
+  }
+
+  private void request(int row)
+  {
+    if (null == mPool || mDisposed)
+      return;
+
+    mCounts[row] = COUNTING;
+    mWaiting.addFirst(row);
+    if (mWaiting.size() > MAX_WAITING)
+      mCounts[mWaiting.removeLast()] = UNCOUNTED;
+    dispatch();
+  }
+
+  private void dispatch()
+  {
+    while (mCounting < mMaxCounting && !mWaiting.isEmpty())
+    {
+      final int row = mWaiting.removeFirst();
+      final Resource context = mContexts.get(row);
+      final ConnectionPool pool = mPool;
+      try
+      {
+        mExecutor.submit("count " + context, new Callable<Object>()
+        {
+          public Object call()
+          {
+            long count = FAILED;
+            RepositoryConnection connection = null;
+            try
+            {
+              if (!mDisposed)
+              {
+                connection = pool.borrowBackground();
+                count = connection.size(context);
+              }
+            }
+            catch (Exception e)
+            {
+              log.warn("counting statements in " + context, e);
+            }
+            finally
+            {
+              pool.release(connection);
+            }
+            counted(row, count);
+            return null;
+          }
+        });
+        ++mCounting;
+      }
+      catch (RejectedExecutionException e)
+      {
+        mCounts[row] = UNCOUNTED;
+        break;
+      }
+    }
+  }
+
+  private void counted(final int row, final long count)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        --mCounting;
+        if (mDisposed)
+          return;
+
+        mCounts[row] = count;
+        fireTableCellUpdated(row, STATEMENTS);
+        dispatch();
+      }
+    });
+  }
+}
@@ -2,157 +2,313 @@ package org.trebor.splink;
 
 import static java.lang.String.format;
 import static org.trebor.splink.MessageHandler.Type.SPLASH;
+import static org.trebor.splink.MessageHandler.Type.STATUS;
+import static org.trebor.splink.Splink.Property.RESULT_SPILL_MEGABYTES;
+import static org.trebor.splink.Splink.Property.RESULT_SPILL_ROWS;
 
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Vector;
 
 import javax.swing.JTable;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.SwingUtilities;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumnModel;
+import javax.swing.table.TableModel;
+
+import info.aduna.iteration.CloseableIteration;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
 import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
 import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.TupleQueryResult;
-import org.openrdf.repository.RepositoryException;
 
 public class DefaultResultsListener implements ResultsListener
 {
   public static final Logger log = Logger.getLogger(DefaultResultsListener.class);
 
+  /** rows which fill the first screen, sent as soon as they arrive */
+  public static final int FIRST_BATCH_SIZE = 64;
+  /** longest wait for the first screen of rows */
+  public static final long FIRST_BATCH_MILLIS = 20;
+  /** interval between later batches */
+  public static final long BATCH_MILLIS = 250;
+  /** converted chunks waiting to be appended */
+  public static final int CHUNKS_IN_FLIGHT = 16;
+
   private Splink mSplink;
-  private ResourceManager mResourceManager;
   private JTable mResultTable;
+  private QueryControl mQueryControl;
   TableCellRenderer mTableHeaderRenderer;
-  
-  public DefaultResultsListener(Splink splink, JTable resultTable, TableCellRenderer tableHeaderRenderer) throws RepositoryException
+
+  public DefaultResultsListener(Splink splink, JTable resultTable, TableCellRenderer tableHeaderRenderer, QueryControl queryControl)
   {
     mSplink = splink;
-    mResourceManager = new ResourceManager(splink.getConnection());
     mResultTable = resultTable;
     mTableHeaderRenderer = tableHeaderRenderer;
+    mQueryControl = queryControl;
+  }
+
+  private boolean hasNext(CloseableIteration<?, QueryEvaluationException> result)
+    throws QueryEvaluationException
+  {
+    try
+    {
+      return !mQueryControl.isCanceled() && result.hasNext();
+    }
+    catch (QueryEvaluationException e)
+    {
+      // a canceled result is closed under us, keep the rows read so far
+
+      if (mQueryControl.isCanceled())
+        return false;
+      throw e;
+    }
+  }
+
+  private <T> T next(CloseableIteration<T, QueryEvaluationException> result)
+    throws QueryEvaluationException
+  {
+    try
+    {
+      return result.next();
+    }
+    catch (QueryEvaluationException e)
+    {
+      if (mQueryControl.isCanceled())
+        return null;
+      throw e;
+    }
   }
 
   public int onTuple(TupleQueryResult result)
     throws QueryEvaluationException
   {
-    // create the table model
+    // create the table model and the streamer which fills it
+
+    RowStreamer streamer = new RowStreamer(result.getBindingNames());
 
-    @SuppressWarnings("serial")
-    DefaultTableModel tm = new DefaultTableModel()
+    // map binding names to columns
+
+    final Map<String, Integer> columnMap = new HashMap<String, Integer>();
+    for (String binding : result.getBindingNames())
+      columnMap.put(binding, columnMap.size());
+
+    // populate the table
+
+    return ingest(result, streamer, new IngestPipeline.Converter<BindingSet>()
     {
-      public boolean isCellEditable(int row, int column)
+      public Object[] convert(BindingSet bindings)
       {
-        return false;
+        ResultCell[] row = new ResultCell[columnMap.size()];
+        Iterator<Binding> rowData = bindings.iterator();
+        while (rowData.hasNext())
+        {
+          Binding rowBinding = rowData.next();
+          row[columnMap.get(rowBinding.getName())] =
+            cell(rowBinding.getValue());
+        }
+        return row;
       }
-    };
+    });
+  }
 
-    // add columnds to table
+  public int onGraph(GraphQueryResult result) throws QueryEvaluationException
+  {
+    // create the table model and the streamer which fills it
 
-    Map<String, Integer> columnMap = new HashMap<String, Integer>();
-    for (String binding : result.getBindingNames())
-    {
-      columnMap.put(binding, tm.getColumnCount());
-      tm.addColumn(binding);
-    }
+    RowStreamer streamer =
+      new RowStreamer(Arrays.asList("subject", "predicate", "object"));
 
     // populate the table
 
-    while (result.hasNext())
+    return ingest(result, streamer, new IngestPipeline.Converter<Statement>()
     {
-      String[] row = new String[columnMap.size()];
-      Iterator<Binding> rowData = result.next().iterator();
-      while (rowData.hasNext())
+      public Object[] convert(Statement rowData)
       {
-        Binding rowBinding = rowData.next();
-        String binding = rowBinding.getName();
-        //String uri = rowBinding.getValue().toString();
-        String uri = adjustResource(rowBinding.getValue().toString());
-        row[columnMap.get(binding)] = uri;
+        return new ResultCell[]
+        {
+          cell(rowData.getSubject()),
+          cell(rowData.getPredicate()),
+          cell(rowData.getObject()),
+        };
       }
+    });
+  }
 
-      tm.addRow(row);
-    }
+  /** create a cell, hashing it here so the appender does not have to */
+
+  private static ResultCell cell(Value value)
+  {
+    ResultCell cell = ResultCell.create(value);
+    if (null != cell)
+      cell.hashCode();
+    return cell;
+  }
 
-    // update the display
+  /**
+   * Read a result on this thread, convert the items to rows in parallel and
+   * append them to the streamer in order.
+   */
 
-    mResultTable.setModel(tm);
-    TableColumnModel columnModel = mResultTable.getColumnModel();
-    for (int i = 0; i < tm.getColumnCount(); ++i)
-      columnModel.getColumn(i).setHeaderRenderer(mTableHeaderRenderer);
-    mSplink.setResultComponent(mResultTable);
+  private <T> int ingest(CloseableIteration<T, QueryEvaluationException> result,
+    RowStreamer streamer, IngestPipeline.Converter<T> converter)
+    throws QueryEvaluationException
+  {
+    IngestPipeline<T> pipeline = new IngestPipeline<T>(
+      mSplink.getConvertExecutor(), mSplink.getAppendExecutor(),
+      CHUNKS_IN_FLIGHT, converter, streamer);
+
+    boolean finished = false;
+    try
+    {
+      T item;
+      while (hasNext(result) && null != (item = next(result)))
+        pipeline.add(item);
+      pipeline.finish();
+      finished = true;
+    }
+    finally
+    {
+      if (!finished)
+        pipeline.abort();
+    }
 
     // return row count
 
-    return tm.getRowCount();
+    return streamer.finish();
   }
 
-  public String adjustResource(String resource)
+  public boolean onBoolean(boolean result)
   {
-    return mSplink.showLongUri()
-      ? resource
-      : mResourceManager.shrinkResource(resource);
+    mSplink.handleMessage(SPLASH, format("%b", result).toUpperCase());
+    return result;
   }
-  
-  public int onGraph(GraphQueryResult result) throws QueryEvaluationException
+
+  public void onUpdate()
+  {
+    mSplink.handleMessage(SPLASH, "update performed");
+  }
+
+  /**
+   * Adds rows to the result model as they are read and publishes them to
+   * the result table in batches on the event dispatch thread. The first
+   * screen of rows is published as soon as it is full, or shortly after the
+   * first row arrives, later batches at a fixed interval.
+   */
+
+  private class RowStreamer implements IngestPipeline.Sink
   {
-    // create the table model
+    private final ResultTableModel mModel;
+    private final long mStartTime = System.currentTimeMillis();
+    private long mBatchTime = mStartTime;
+    private int mBatchSize;
+    private int mRowCount;
+    private boolean mShown;
+
+    RowStreamer(List<String> columns)
+    {
+      mModel = new ResultTableModel(columns, RESULT_SPILL_ROWS.getInteger(),
+        RESULT_SPILL_MEGABYTES.getInteger() * 1024L * 1024L, ResultCell.CODEC);
+    }
 
-    @SuppressWarnings("serial")
-    DefaultTableModel tm = new DefaultTableModel()
+    public void add(Object[] row) throws QueryEvaluationException
     {
-      public boolean isCellEditable(int row, int column)
+      try
       {
-        return false;
+        mModel.addRow(row);
       }
-    };
+      catch (IOException e)
+      {
+        throw new QueryEvaluationException("spilling results to disk", e);
+      }
+      ++mBatchSize;
+      ++mRowCount;
 
-    // add columns
+      long now = System.currentTimeMillis();
+      if (mShown
+        ? now - mBatchTime >= BATCH_MILLIS
+        : mBatchSize >= FIRST_BATCH_SIZE ||
+          now - mBatchTime >= FIRST_BATCH_MILLIS)
+      {
+        SwingUtilities.invokeLater(flush(now, false));
+        mBatchTime = now;
+      }
+    }
 
-    for (String name : new String[]
+    int finish()
     {
-      "subject", "predicate", "object"
-    })
-      tm.addColumn(name);
+      // wait for the last batch so that earlier progress messages never
+      // land after the final query status, the batch is posted before the
+      // wait so an interrupt only stops the waiting
 
-    // populate the table
+      Runnable last = flush(System.currentTimeMillis(), true);
+      try
+      {
+        SwingUtilities.invokeAndWait(last);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      catch (InvocationTargetException e)
+      {
+        log.error("updating result table", e);
+      }
 
-    while (result.hasNext())
-    {
-      Vector<String> row = new Vector<String>();
-      Statement rowData = result.next();
-      row.add(adjustResource(rowData.getSubject().toString()));
-      row.add(adjustResource(rowData.getPredicate().toString()));
-      row.add(adjustResource(rowData.getObject().toString()));
-      tm.addRow(row);
+      return mRowCount;
     }
 
-    // update the display
+    private Runnable flush(long now, final boolean last)
+    {
+      final int rowCount = mRowCount;
+      final boolean first = !mShown;
+      final float seconds = (now - mStartTime) / 1000f;
+      mBatchSize = 0;
+      mShown = true;
 
-    mResultTable.setModel(tm);
-    for (int i = 0; i < tm.getColumnCount(); ++i)
-      mResultTable.getColumnModel().getColumn(i)
-        .setHeaderRenderer(mTableHeaderRenderer);
-    mSplink.setResultComponent(mResultTable);
+      return new Runnable()
+      {
+        public void run()
+        {
+          if (first)
+          {
+            TableModel previous = mResultTable.getModel();
+            if (previous instanceof ResultTableModel && previous != mModel)
+              ((ResultTableModel)previous).dispose();
 
-    // return row count
+            // the previous sorter must not see the new model
 
-    return tm.getRowCount();
-  }
+            mResultTable.setRowSorter(null);
+            mResultTable.setModel(mModel);
+            TableColumnModel columnModel = mResultTable.getColumnModel();
+            for (int i = 0; i < mModel.getColumnCount(); ++i)
+              columnModel.getColumn(i).setHeaderRenderer(mTableHeaderRenderer);
+          }
 
-  public boolean onBoolean(boolean result)
-  {
-    mSplink.handleMessage(SPLASH, format("%b", result).toUpperCase());
-    return result;
-  }
+          mModel.publishRows();
 
-  public void onUpdate()
-  {
-    mSplink.handleMessage(SPLASH, "update performed");
+          if (first)
+            mSplink.setResultComponent(mResultTable);
+          else if (last)
+            mSplink.adjustTablesColumns(mResultTable);
+
+          mSplink.handleMessage(STATUS, "rows: %,d (%,.0f rows/sec)%s",
+            rowCount, seconds > 0
+              ? rowCount / seconds
+              : 0f, mModel.isSpilled()
+              ? " [spilled to disk]"
+              : "");
+        }
+      };
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,300 @@
+package org.trebor.splink;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.Namespace;
+import org.openrdf.model.Statement;
+import org.openrdf.model.impl.NamespaceImpl;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+
+/**
+ * Where exported statements are written. The thread reading statements from
+ * the server hands them over in batches to a writer thread which serializes
+ * them with Rio, so reading from the network and writing the file overlap.
+ * The number of batches in flight is bounded, so a fast reader waits for the
+ * writer rather than filling the heap. Files are written through a large
+ * buffer and compressed with gzip when their name ends with
+ * {@link #GZIP_EXTENSION}.
+ */
+
+public class ExportSink implements RDFHandler
+{
+  public static final Logger log = Logger.getLogger(ExportSink.class);
+
+  public static final String GZIP_EXTENSION = ".gz";
+  public static final int BATCH_SIZE = 4096;
+  public static final int BATCHES_IN_FLIGHT = 32;
+  public static final int BUFFER_SIZE = 1 << 20;
+
+  private static final List<Object> END = new ArrayList<Object>();
+
+  private final OutputStream mOut;
+  private final CountingOutputStream mCounter;
+  private final RDFWriter mWriter;
+  private final BlockingQueue<List<Object>> mBatches =
+    new ArrayBlockingQueue<List<Object>>(BATCHES_IN_FLIGHT);
+  private final Thread mWriterThread;
+  private volatile Exception mFailure;
+  private List<Object> mBatch = new ArrayList<Object>(BATCH_SIZE);
+  private boolean mEnded;
+
+  /**
+   * Open a sink on a file, compressed if its name ends with
+   * {@link #GZIP_EXTENSION}.
+   */
+
+  public static ExportSink open(File file, RDFFormat format)
+    throws IOException
+  {
+    return new ExportSink(new FileOutputStream(file), format,
+      isCompressed(file));
+  }
+
+  public static boolean isCompressed(File file)
+  {
+    return file.getName().toLowerCase().endsWith(GZIP_EXTENSION);
+  }
+
+  /** a sink on a stream, which is closed with the sink */
+
+  public ExportSink(OutputStream out, RDFFormat format, boolean compress)
+    throws IOException
+  {
+    mCounter = new CountingOutputStream(out);
+    OutputStream buffered = new BufferedOutputStream(mCounter, BUFFER_SIZE);
+    mOut = compress
+      ? new GZIPOutputStream(buffered, BUFFER_SIZE / 16)
+      : buffered;
+    mWriter = Rio.createWriter(format, mOut);
+    mWriterThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        write();
+      }
+    }, "splink-export");
+    mWriterThread.setDaemon(true);
+    mWriterThread.start();
+  }
+
+  /** the number of bytes which have reached the underlying stream */
+
+  public long getBytes()
+  {
+    return mCounter.getCount();
+  }
+
+  public void startRDF()
+  {
+  }
+
+  public void handleNamespace(String prefix, String uri)
+    throws RDFHandlerException
+  {
+    add(new NamespaceImpl(prefix, uri));
+  }
+
+  public void handleStatement(Statement statement) throws RDFHandlerException
+  {
+    add(statement);
+  }
+
+  public void handleComment(String comment)
+  {
+  }
+
+  public void endRDF() throws RDFHandlerException
+  {
+    if (!mBatch.isEmpty())
+      put(mBatch);
+    mBatch = null;
+    put(END);
+    mEnded = true;
+  }
+
+  /**
+   * Wait for the writer to write everything handed to it and close the
+   * stream. Statements are only complete if {@link #endRDF()} was called.
+   */
+
+  public void close() throws IOException
+  {
+    if (!mEnded)
+      mWriterThread.interrupt();
+    join();
+    mOut.close();
+
+    Exception failure = mFailure;
+    if (failure instanceof IOException)
+      throw (IOException)failure;
+    if (null != failure)
+      throw new IOException(failure.getMessage(), failure);
+  }
+
+  /** stop the writer and close the stream, what was written is left */
+
+  public void abort()
+  {
+    mWriterThread.interrupt();
+    join();
+    try
+    {
+      mOut.close();
+    }
+    catch (IOException e)
+    {
+      log.warn("closing aborted export", e);
+    }
+  }
+
+  private void add(Object item) throws RDFHandlerException
+  {
+    mBatch.add(item);
+    if (mBatch.size() >= BATCH_SIZE)
+    {
+      put(mBatch);
+      mBatch = new ArrayList<Object>(BATCH_SIZE);
+    }
+  }
+
+  /**
+   * Queue a batch for the writer, waiting while too many are in flight. An
+   * interrupt does not stop the wait, it is passed on once the batch is
+   * queued.
+   */
+
+  private void put(List<Object> batch) throws RDFHandlerException
+  {
+    boolean interrupted = false;
+    try
+    {
+      while (true)
+      {
+        checkFailure();
+        try
+        {
+          if (mBatches.offer(batch, 100, TimeUnit.MILLISECONDS))
+            return;
+        }
+        catch (InterruptedException e)
+        {
+          interrupted = true;
+        }
+      }
+    }
+    finally
+    {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write()
+  {
+    try
+    {
+      mWriter.startRDF();
+      for (List<Object> batch; END != (batch = mBatches.take());)
+        for (Object item : batch)
+          if (item instanceof Statement)
+            mWriter.handleStatement((Statement)item);
+          else
+          {
+            Namespace namespace = (Namespace)item;
+            mWriter.handleNamespace(namespace.getPrefix(),
+              namespace.getName());
+          }
+      mWriter.endRDF();
+    }
+    catch (InterruptedException e)
+    {
+      log.debug("export writer stopped");
+    }
+    catch (RDFHandlerException e)
+    {
+      mFailure = e.getCause() instanceof IOException
+        ? (IOException)e.getCause()
+        : e;
+    }
+    catch (RuntimeException e)
+    {
+      mFailure = e;
+    }
+    finally
+    {
+      // never leave the reader blocked on a full queue
+
+      mBatches.clear();
+    }
+  }
+
+  private void join()
+  {
+    boolean interrupted = false;
+    while (mWriterThread.isAlive())
+    {
+      try
+      {
+        mWriterThread.join();
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private void checkFailure() throws RDFHandlerException
+  {
+    Exception failure = mFailure;
+    if (null != failure)
+      throw new RDFHandlerException(failure);
+  }
+
+  /** counts the bytes written through it */
+
+  static class CountingOutputStream extends FilterOutputStream
+  {
+    private volatile long mCount;
+
+    public CountingOutputStream(OutputStream out)
+    {
+      super(out);
+    }
+
+    public void write(int b) throws IOException
+    {
+      out.write(b);
+      ++mCount;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      out.write(b, off, len);
+      mCount += len;
+    }
+
+    public long getCount()
+    {
+      return mCount;
+    }
+  }
+}
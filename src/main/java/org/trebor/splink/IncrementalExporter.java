@@ -0,0 +1,597 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+
+/**
+ * Exports each context of a repository into a file of its own, and on later
+ * runs into the same place only exports the contexts which have changed. A
+ * manifest beside the files keeps a fingerprint of each context, the number
+ * of statements in it and a hash of them which does not depend on the order
+ * they are read in. A context whose statement count differs from the
+ * manifest has changed; one whose count is the same is read and hashed,
+ * which is cheaper than writing it out again. Contexts are checked and
+ * exported on a few pooled connections at once, and files of contexts
+ * which no longer exist are deleted. A context is written to a temporary
+ * file which only replaces the previous one once it is complete, so a
+ * canceled or failed export never loses a good file.
+ * <p>
+ * The check is not free: the server offers no digest of a context, so every
+ * context whose count is unchanged is downloaded in full to hash it, and
+ * with inferred statements included there is no cheap count either, so
+ * every context is downloaded. An unchanged repository therefore costs as
+ * much network traffic as a full export, only without writing it. The
+ * checks run as part of the export, on its worker threads, not ahead of it.
+ */
+
+public class IncrementalExporter
+{
+  public static final Logger log = Logger.getLogger(IncrementalExporter.class);
+
+  public static final String MANIFEST_EXTENSION = ".contexts";
+
+  /** the most contexts checked or exported at once */
+  public static final int MAX_THREADS = 4;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /** the number of statements in a context and a hash of all of them */
+
+  public static class Fingerprint
+  {
+    private long mStatements;
+    private long mHash;
+
+    public Fingerprint()
+    {
+    }
+
+    public Fingerprint(long statements, long hash)
+    {
+      mStatements = statements;
+      mHash = hash;
+    }
+
+    /** add a statement, the order they are added in does not matter */
+
+    public void add(Statement statement)
+    {
+      ++mStatements;
+      mHash += hash(statement);
+    }
+
+    public long getStatements()
+    {
+      return mStatements;
+    }
+
+    public long getHash()
+    {
+      return mHash;
+    }
+
+    public boolean equals(Object other)
+    {
+      return other instanceof Fingerprint &&
+        ((Fingerprint)other).mStatements == mStatements &&
+        ((Fingerprint)other).mHash == mHash;
+    }
+
+    public int hashCode()
+    {
+      return (int)(mHash ^ (mHash >>> 32));
+    }
+
+    public String toString()
+    {
+      return format("%,d statements #%016x", mStatements, mHash);
+    }
+  }
+
+  /** a context as it was last exported */
+
+  public static class Entry
+  {
+    private final Resource mContext;
+    private final String mFile;
+    private final Fingerprint mFingerprint;
+    private final long mBytes;
+    private final long mChecksum;
+
+    public Entry(Resource context, String file, Fingerprint fingerprint,
+      long bytes, long checksum)
+    {
+      mContext = context;
+      mFile = file;
+      mFingerprint = fingerprint;
+      mBytes = bytes;
+      mChecksum = checksum;
+    }
+
+    /** the context, null being the default graph */
+
+    public Resource getContext()
+    {
+      return mContext;
+    }
+
+    /** the name of the file the context is in */
+
+    public String getFile()
+    {
+      return mFile;
+    }
+
+    public Fingerprint getFingerprint()
+    {
+      return mFingerprint;
+    }
+
+    public long getBytes()
+    {
+      return mBytes;
+    }
+
+    /** the CRC-32 of the file as written */
+
+    public long getChecksum()
+    {
+      return mChecksum;
+    }
+  }
+
+  private final ConnectionPool mPool;
+  private final RDFFormat mFormat;
+  private final boolean mIncludeInferred;
+  private final QueryControl mControl;
+  private final RepositoryExporter.Listener mListener;
+  private final AtomicLong mStatements = new AtomicLong();
+  private final AtomicLong mBytes = new AtomicLong();
+  private final AtomicInteger mChanged = new AtomicInteger();
+  private final AtomicInteger mUnchanged = new AtomicInteger();
+  private int mRemoved;
+  private long mStart;
+
+  public IncrementalExporter(ConnectionPool pool, RDFFormat format,
+    boolean includeInferred, QueryControl control,
+    RepositoryExporter.Listener listener)
+  {
+    mPool = pool;
+    mFormat = format;
+    mIncludeInferred = includeInferred;
+    mControl = control;
+    mListener = listener;
+  }
+
+  /**
+   * Bring the files named after a file up to date with the repository,
+   * checking up to {@link #MAX_THREADS} contexts at once, fewer if the
+   * connection pool has less room for background work. The manifest is
+   * written even if the export fails or is canceled, listing only the files
+   * which are complete, so the next run picks up where this one stopped.
+   * Returns the entries in the manifest.
+   */
+
+  public Collection<Entry> export(final File file) throws Exception
+  {
+    mStart = System.currentTimeMillis();
+    File manifest = getManifestFile(file, mFormat);
+    final Map<Resource, Entry> previous = readManifest(manifest);
+    final List<Resource> contexts = getContexts();
+    final Map<Resource, Entry> current =
+      Collections.synchronizedMap(new LinkedHashMap<Resource, Entry>());
+    final Set<Resource> checked =
+      Collections.synchronizedSet(new HashSet<Resource>());
+
+    boolean complete = false;
+    int threads =
+      Math.max(1, Math.min(MAX_THREADS, mPool.getBackgroundSize()));
+    QueryExecutor executor = new QueryExecutor("export", threads, threads);
+    try
+    {
+      final AtomicInteger next = new AtomicInteger();
+      List<Future<Object>> futures = new ArrayList<Future<Object>>();
+      for (int i = 0; i < threads; ++i)
+        futures.add(executor.submit("export contexts", new Callable<Object>()
+        {
+          public Object call() throws Exception
+          {
+            for (int j; (j = next.getAndIncrement()) < contexts.size() &&
+                 !mControl.isCanceled();)
+            {
+              // a context which fails keeps its previous entry
+
+              Resource context = contexts.get(j);
+              Entry entry = update(file, context, previous.get(context));
+              if (null != entry)
+                current.put(context, entry);
+              checked.add(context);
+            }
+            return null;
+          }
+        }));
+      ShardedExporter.await(futures);
+
+      complete = !mControl.isCanceled();
+
+      // files of contexts which are gone
+
+      if (complete)
+        for (Entry entry : previous.values())
+          if (!current.containsKey(entry.getContext()))
+          {
+            new File(file.getParentFile(), entry.getFile()).delete();
+            ++mRemoved;
+          }
+    }
+    finally
+    {
+      executor.shutdown();
+
+      // contexts not reached yet keep what they had
+
+      if (!complete)
+        synchronized (current)
+        {
+          for (Entry entry : previous.values())
+            if (!checked.contains(entry.getContext()))
+              current.put(entry.getContext(), entry);
+        }
+      writeManifest(manifest, current.values());
+    }
+    return current.values();
+  }
+
+  /** the number of contexts exported by the last run */
+
+  public int getChanged()
+  {
+    return mChanged.get();
+  }
+
+  /** the number of contexts found unchanged by the last run */
+
+  public int getUnchanged()
+  {
+    return mUnchanged.get();
+  }
+
+  /** the number of files of contexts which no longer exist deleted */
+
+  public int getRemoved()
+  {
+    return mRemoved;
+  }
+
+  /** the number of statements exported by the last run */
+
+  public long getStatements()
+  {
+    return mStatements.get();
+  }
+
+  public static File getManifestFile(File file, RDFFormat format)
+  {
+    return new File(file.getParentFile(),
+      ShardedExporter.getBaseName(file, format) + MANIFEST_EXTENSION);
+  }
+
+  /** the file of a context, named after the export file and the context */
+
+  public static File getContextFile(File file, Resource context,
+    RDFFormat format)
+  {
+    String name = format("%s-%016x.%s",
+      ShardedExporter.getBaseName(file, format),
+      hash(FNV_OFFSET, ShardedExporter.getName(context)),
+      format.getDefaultFileExtension());
+    return new File(file.getParentFile(), ExportSink.isCompressed(file)
+      ? name + ExportSink.GZIP_EXTENSION
+      : name);
+  }
+
+  /**
+   * Read a manifest, returning no entries if there is none or it can not be
+   * read, which exports everything again.
+   */
+
+  static Map<Resource, Entry> readManifest(File file)
+  {
+    Map<Resource, Entry> entries = new LinkedHashMap<Resource, Entry>();
+    if (!file.exists())
+      return entries;
+
+    BufferedReader in = null;
+    try
+    {
+      in = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+        "UTF-8"));
+      for (String line; null != (line = in.readLine());)
+      {
+        if (line.startsWith("#") || line.trim().isEmpty())
+          continue;
+        String[] fields = line.split("\t", 6);
+        Resource context = ShardedExporter.getContext(fields[5]);
+        entries.put(context, new Entry(context, fields[0],
+          new Fingerprint(Long.parseLong(fields[1]),
+            parseHex(fields[2])), Long.parseLong(fields[3]),
+          parseHex(fields[4])));
+      }
+      return entries;
+    }
+    catch (Exception e)
+    {
+      log.warn("reading " + file + ", exporting every context", e);
+      return new LinkedHashMap<Resource, Entry>();
+    }
+    finally
+    {
+      try
+      {
+        if (null != in)
+          in.close();
+      }
+      catch (IOException e)
+      {
+        log.warn("closing " + file, e);
+      }
+    }
+  }
+
+  /** replace a manifest with these entries */
+
+  static void writeManifest(File file, Collection<Entry> entries)
+    throws IOException
+  {
+    File temporary = new File(file.getPath() + ".tmp");
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(temporary), "UTF-8"));
+    try
+    {
+      long statements = 0;
+      for (Entry entry : entries)
+        statements += entry.getFingerprint().getStatements();
+      out.printf("# %,d statements in %d contexts%n", statements,
+        entries.size());
+      out.println("# file\tstatements\thash\tbytes\tcrc32\tcontext");
+      for (Entry entry : entries)
+        out.printf("%s\t%d\t%016x\t%d\t%08x\t%s%n", entry.getFile(),
+          entry.getFingerprint().getStatements(),
+          entry.getFingerprint().getHash(), entry.getBytes(),
+          entry.getChecksum(), ShardedExporter.getName(entry.getContext()));
+      out.close();
+      if (out.checkError())
+        throw new IOException("writing " + temporary);
+      replace(temporary, file);
+    }
+    finally
+    {
+      out.close();
+      temporary.delete();
+    }
+  }
+
+  private static void replace(File temporary, File file) throws IOException
+  {
+    // rename fails on some platforms if the target exists
+
+    if (!temporary.renameTo(file) &&
+      !(file.delete() && temporary.renameTo(file)))
+      throw new IOException("unable to replace " + file);
+  }
+
+  /**
+   * Check a context against its previous entry and export it if it has
+   * changed. Returns the entry for the context, the previous one if the
+   * check or export was cut short by a cancel, or null if it has no
+   * statements or there is no complete file of it.
+   */
+
+  private Entry update(File file, Resource context, Entry previous)
+    throws Exception
+  {
+    File target = null != previous
+      ? new File(file.getParentFile(), previous.getFile())
+      : getContextFile(file, context, mFormat);
+    Entry kept = null != previous && target.exists()
+      ? previous
+      : null;
+    if (null != kept)
+    {
+      Fingerprint checked = fingerprint(context, previous.getFingerprint());
+      if (mControl.isCanceled())
+        return kept;
+      if (previous.getFingerprint().equals(checked))
+      {
+        mUnchanged.incrementAndGet();
+        return previous;
+      }
+    }
+
+    final Fingerprint fingerprint = new Fingerprint();
+    File temporary = new File(target.getPath() + ".tmp");
+    CheckedOutputStream out = new CheckedOutputStream(
+      new FileOutputStream(temporary), new CRC32());
+    ExportSink sink = new ExportSink(out, mFormat,
+      ExportSink.isCompressed(target))
+    {
+      public void handleStatement(Statement statement)
+        throws RDFHandlerException
+      {
+        fingerprint.add(statement);
+        super.handleStatement(statement);
+      }
+    };
+    RepositoryExporter exporter = new RepositoryExporter(mPool, mFormat,
+      mIncludeInferred, mControl, new RepositoryExporter.Listener()
+      {
+        private long mLastStatements;
+        private long mLastBytes;
+
+        public void onProgress(long statements, long bytes, long elapsed)
+        {
+          mListener.onProgress(
+            mStatements.addAndGet(statements - mLastStatements),
+            mBytes.addAndGet(bytes - mLastBytes),
+            System.currentTimeMillis() - mStart);
+          mLastStatements = statements;
+          mLastBytes = bytes;
+        }
+      });
+    try
+    {
+      exporter.export(sink, context);
+      if (!exporter.isComplete())
+        return kept;
+
+      // the default graph is checked every time but only kept if it is used
+
+      if (0 == fingerprint.getStatements() && null == context)
+      {
+        target.delete();
+        return null;
+      }
+      replace(temporary, target);
+    }
+    finally
+    {
+      temporary.delete();
+    }
+
+    mChanged.incrementAndGet();
+    return new Entry(context, target.getName(), fingerprint,
+      sink.getBytes(), out.getChecksum().getValue());
+  }
+
+  /**
+   * The fingerprint of a context, or null if its statement count alone
+   * shows it differs from an expected one.
+   */
+
+  private Fingerprint fingerprint(Resource context, Fingerprint expected)
+    throws Exception
+  {
+    RepositoryConnection connection = mPool.borrowBackground();
+    try
+    {
+      if (!mIncludeInferred &&
+        connection.size(context) != expected.getStatements())
+        return null;
+
+      Fingerprint fingerprint = new Fingerprint();
+      RepositoryResult<Statement> statements = connection.getStatements(
+        null, null, null, mIncludeInferred, context);
+      try
+      {
+        while (statements.hasNext() && !mControl.isCanceled())
+          fingerprint.add(statements.next());
+      }
+      finally
+      {
+        statements.close();
+      }
+      return fingerprint;
+    }
+    finally
+    {
+      mPool.release(connection);
+    }
+  }
+
+  /** the contexts of the repository, the default graph first */
+
+  private List<Resource> getContexts() throws Exception
+  {
+    List<Resource> contexts = new ArrayList<Resource>();
+    contexts.add(null);
+    RepositoryConnection connection = mPool.borrowBackground();
+    try
+    {
+      RepositoryResult<Resource> ids = connection.getContextIDs();
+      try
+      {
+        while (ids.hasNext())
+          contexts.add(ids.next());
+      }
+      finally
+      {
+        ids.close();
+      }
+    }
+    finally
+    {
+      mPool.release(connection);
+    }
+    return contexts;
+  }
+
+  /**
+   * The hash of a statement without its context, spread over all 64 bits so
+   * that sums of the hashes of similar statements rarely collide.
+   */
+
+  static long hash(Statement statement)
+  {
+    long hash = hash(FNV_OFFSET, statement.getSubject().toString());
+    hash = hash(hash, statement.getPredicate().toString());
+    hash = hash(hash, statement.getObject().toString());
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  private static long hash(long hash, String value)
+  {
+    for (int i = 0; i < value.length(); ++i)
+    {
+      hash ^= value.charAt(i);
+      hash *= FNV_PRIME;
+    }
+
+    // separate values so moving text between them changes the hash
+
+    hash ^= 0xff;
+    return hash * FNV_PRIME;
+  }
+
+  /** parse unsigned hex, which may not fit in a signed long */
+
+  private static long parseHex(String value)
+  {
+    return new BigInteger(value, 16).longValue();
+  }
+}
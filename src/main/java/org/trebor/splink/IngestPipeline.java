@@ -0,0 +1,261 @@
+package org.trebor.splink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openrdf.query.QueryEvaluationException;
+
+/**
+ * Three stage pipeline which turns items read from a query result into
+ * table rows. The reading thread collects items into chunks, the chunks are
+ * converted to rows in parallel on a {@link QueryExecutor}, and a single
+ * appender task on a second executor hands the rows to a {@link Sink} in the
+ * order they were read. The number of chunks in flight is bounded, so a fast
+ * reader waits for the appender rather than filling the heap.
+ */
+
+public class IngestPipeline<T>
+{
+  /** the first chunks are small so that the first rows show quickly */
+  public static final int FIRST_CHUNK_SIZE = 64;
+  public static final int MAX_CHUNK_SIZE = 4096;
+
+  /** turns one item into a row, called concurrently */
+
+  public interface Converter<T>
+  {
+    Object[] convert(T item);
+  }
+
+  /** receives rows in order on the appender task */
+
+  public interface Sink
+  {
+    void add(Object[] row) throws QueryEvaluationException;
+  }
+
+  private static final Future<Object[][]> END = new FutureTask<Object[][]>(
+    new Callable<Object[][]>()
+    {
+      public Object[][] call()
+      {
+        return null;
+      }
+    });
+
+  private final QueryExecutor mExecutor;
+  private final Converter<T> mConverter;
+  private final Sink mSink;
+  private final BlockingQueue<Future<Object[][]>> mChunks;
+  private final Future<?> mAppender;
+  private volatile Exception mFailure;
+  private List<T> mChunk = new ArrayList<T>(FIRST_CHUNK_SIZE);
+  private int mChunkSize = FIRST_CHUNK_SIZE;
+
+  /**
+   * A pipeline which converts on one executor and appends on another. The
+   * appender runs for as long as the query is read, so the append executor
+   * needs a thread for each query which may run at once.
+   */
+
+  public IngestPipeline(QueryExecutor executor, QueryExecutor appendExecutor,
+    int chunksInFlight, Converter<T> converter, Sink sink)
+  {
+    mExecutor = executor;
+    mConverter = converter;
+    mSink = sink;
+    mChunks = new ArrayBlockingQueue<Future<Object[][]>>(chunksInFlight);
+
+    // without an appender the first add or finish reports the rejection
+
+    Future<?> appender = null;
+    try
+    {
+      appender = appendExecutor.submit("append rows", new Runnable()
+      {
+        public void run()
+        {
+          append();
+        }
+      });
+    }
+    catch (RejectedExecutionException e)
+    {
+      mFailure = e;
+    }
+    mAppender = appender;
+  }
+
+  /** add an item, called only by the reading thread */
+
+  public void add(T item) throws QueryEvaluationException
+  {
+    mChunk.add(item);
+    if (mChunk.size() >= mChunkSize)
+    {
+      submitChunk();
+      mChunkSize = Math.min(mChunkSize * 2, MAX_CHUNK_SIZE);
+    }
+  }
+
+  /**
+   * Convert and append any remaining items and wait for the appender. A
+   * canceled query interrupts the reading thread, the rows read so far are
+   * still appended.
+   */
+
+  public void finish() throws QueryEvaluationException
+  {
+    checkFailure();
+    if (!mChunk.isEmpty())
+      submitChunk();
+    put(END);
+
+    boolean interrupted = false;
+    while (true)
+    {
+      try
+      {
+        mAppender.get();
+        break;
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+      catch (ExecutionException e)
+      {
+        mFailure = e;
+        break;
+      }
+      catch (CancellationException e)
+      {
+        break;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+
+    checkFailure();
+  }
+
+  /** stop the appender, when reading ends with an error */
+
+  public void abort()
+  {
+    if (null != mAppender)
+      mAppender.cancel(true);
+  }
+
+  private void submitChunk() throws QueryEvaluationException
+  {
+    checkFailure();
+
+    final List<T> chunk = mChunk;
+    mChunk = new ArrayList<T>(mChunkSize);
+    Callable<Object[][]> conversion = new Callable<Object[][]>()
+    {
+      public Object[][] call()
+      {
+        Object[][] rows = new Object[chunk.size()][];
+        for (int i = 0; i < rows.length; ++i)
+          rows[i] = mConverter.convert(chunk.get(i));
+        return rows;
+      }
+    };
+
+    // convert on the reading thread if the executor is saturated
+
+    Future<Object[][]> future;
+    try
+    {
+      future = mExecutor.submit("convert rows", conversion);
+    }
+    catch (RejectedExecutionException e)
+    {
+      FutureTask<Object[][]> task = new FutureTask<Object[][]>(conversion);
+      task.run();
+      future = task;
+    }
+
+    put(future);
+  }
+
+  /**
+   * Queue a chunk for the appender, waiting while too many are in flight.
+   * An interrupt does not stop the wait, or rows already read would be lost,
+   * it is passed on once the chunk is queued.
+   */
+
+  private void put(Future<Object[][]> future) throws QueryEvaluationException
+  {
+    boolean interrupted = false;
+    try
+    {
+      while (true)
+      {
+        try
+        {
+          if (mChunks.offer(future, 100, TimeUnit.MILLISECONDS))
+            return;
+        }
+        catch (InterruptedException e)
+        {
+          interrupted = true;
+        }
+        checkFailure();
+      }
+    }
+    finally
+    {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  private void append()
+  {
+    try
+    {
+      for (Future<Object[][]> chunk; END != (chunk = mChunks.take());)
+        for (Object[] row : chunk.get())
+          mSink.add(row);
+    }
+    catch (ExecutionException e)
+    {
+      mFailure = e.getCause() instanceof Exception
+        ? (Exception)e.getCause()
+        : e;
+    }
+    catch (Exception e)
+    {
+      mFailure = e;
+    }
+    finally
+    {
+      // never leave the reader blocked on a full queue
+
+      mChunks.clear();
+    }
+  }
+
+  private void checkFailure() throws QueryEvaluationException
+  {
+    Exception failure = mFailure;
+    if (null == failure)
+      return;
+
+    if (failure instanceof QueryEvaluationException)
+      throw (QueryEvaluationException)failure;
+    throw new QueryEvaluationException(failure);
+  }
+}
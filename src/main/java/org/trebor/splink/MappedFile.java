@@ -0,0 +1,146 @@
+package org.trebor.splink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An append only temporary file which is memory mapped in fixed size
+ * segments. Ints and longs must be appended at offsets aligned to their
+ * size so that they never straddle a segment. One thread appends, other
+ * threads may read anything which was appended before they were told about
+ * it. The file is deleted when closed, or at the latest when the virtual
+ * machine exits.
+ */
+
+public class MappedFile
+{
+  public static final Logger log = Logger.getLogger(MappedFile.class);
+
+  public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private final File mFile;
+  private final RandomAccessFile mRandomAccessFile;
+  private volatile MappedByteBuffer[] mSegments = new MappedByteBuffer[0];
+  private long mSize;
+
+  public MappedFile(String prefix) throws IOException
+  {
+    mFile = File.createTempFile(prefix, ".tmp");
+    mFile.deleteOnExit();
+    mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+  }
+
+  public long size()
+  {
+    return mSize;
+  }
+
+  public long appendInt(int value) throws IOException
+  {
+    long offset = mSize;
+    segmentFor(offset).putInt((int)(offset % SEGMENT_SIZE), value);
+    mSize += 4;
+    return offset;
+  }
+
+  public long appendLong(long value) throws IOException
+  {
+    long offset = mSize;
+    segmentFor(offset).putLong((int)(offset % SEGMENT_SIZE), value);
+    mSize += 8;
+    return offset;
+  }
+
+  public long append(byte[] bytes) throws IOException
+  {
+    long offset = mSize;
+    int written = 0;
+
+    // a record may straddle segments, copy it a piece at a time
+
+    while (written < bytes.length)
+    {
+      long position = offset + written;
+      MappedByteBuffer segment = segmentFor(position);
+      int start = (int)(position % SEGMENT_SIZE);
+      int length = Math.min(bytes.length - written, SEGMENT_SIZE - start);
+      ByteBuffer target = segment.duplicate();
+      target.position(start);
+      target.put(bytes, written, length);
+      written += length;
+    }
+
+    mSize += bytes.length;
+    return offset;
+  }
+
+  public int getInt(long offset)
+  {
+    return mSegments[(int)(offset / SEGMENT_SIZE)].getInt(
+      (int)(offset % SEGMENT_SIZE));
+  }
+
+  public long getLong(long offset)
+  {
+    return mSegments[(int)(offset / SEGMENT_SIZE)].getLong(
+      (int)(offset % SEGMENT_SIZE));
+  }
+
+  public byte[] get(long offset, int length)
+  {
+    MappedByteBuffer[] segments = mSegments;
+    byte[] bytes = new byte[length];
+    int read = 0;
+    while (read < length)
+    {
+      long position = offset + read;
+      ByteBuffer source = segments[(int)(position / SEGMENT_SIZE)].duplicate();
+      int start = (int)(position % SEGMENT_SIZE);
+      int count = Math.min(length - read, SEGMENT_SIZE - start);
+      source.position(start);
+      source.get(bytes, read, count);
+      read += count;
+    }
+    return bytes;
+  }
+
+  private MappedByteBuffer segmentFor(long offset) throws IOException
+  {
+    int index = (int)(offset / SEGMENT_SIZE);
+    MappedByteBuffer[] segments = mSegments;
+    if (index < segments.length)
+      return segments[index];
+
+    MappedByteBuffer segment = mRandomAccessFile.getChannel().map(
+      FileChannel.MapMode.READ_WRITE, (long)index * SEGMENT_SIZE, SEGMENT_SIZE);
+    segments = Arrays.copyOf(segments, index + 1);
+    segments[index] = segment;
+    mSegments = segments;
+    return segment;
+  }
+
+  public void close()
+  {
+    // mapped segments are released by the garbage collector, after which
+    // the file can be deleted on every platform
+
+    mSegments = new MappedByteBuffer[0];
+    try
+    {
+      mRandomAccessFile.close();
+    }
+    catch (IOException e)
+    {
+      log.debug("closing " + mFile, e);
+    }
+    if (!mFile.delete())
+      log.debug("deferred delete of " + mFile);
+  }
+}
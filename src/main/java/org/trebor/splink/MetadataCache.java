@@ -0,0 +1,239 @@
+package org.trebor.splink;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * On disk cache of what the user interface shows about a repository: the
+ * repositories on its server, its namespaces and its contexts. An entry is
+ * kept per host, port and repository so that a connection can show the last
+ * known metadata at once, while fresh metadata is read in the background and
+ * written back. Each entry is a small gzipped file which is replaced
+ * atomically, so a crash never leaves a half written entry behind.
+ */
+
+public class MetadataCache
+{
+  public static final Logger log = Logger.getLogger(MetadataCache.class);
+
+  private static final int MAGIC = 0x53504c4b;
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".cache";
+
+  /** the cached metadata of one repository */
+
+  public static class Entry
+  {
+    private final Map<String, String> mRepositories;
+    private final Map<String, String> mNamespaces;
+    private final List<String> mContexts;
+    private final long mTimestamp;
+
+    public Entry(Map<String, String> repositories,
+      Map<String, String> namespaces, List<String> contexts, long timestamp)
+    {
+      mRepositories = Collections.unmodifiableMap(
+        new LinkedHashMap<String, String>(repositories));
+      mNamespaces = Collections.unmodifiableMap(
+        new LinkedHashMap<String, String>(namespaces));
+      mContexts = Collections.unmodifiableList(
+        new ArrayList<String>(contexts));
+      mTimestamp = timestamp;
+    }
+
+    /** repository names and labels of the server */
+
+    public Map<String, String> getRepositories()
+    {
+      return mRepositories;
+    }
+
+    /** prefixes and namespaces, in the order the server gave them */
+
+    public Map<String, String> getNamespaces()
+    {
+      return mNamespaces;
+    }
+
+    public List<String> getContexts()
+    {
+      return mContexts;
+    }
+
+    /** when the metadata was read from the server */
+
+    public long getTimestamp()
+    {
+      return mTimestamp;
+    }
+  }
+
+  private final File mDirectory;
+
+  public MetadataCache(File directory)
+  {
+    mDirectory = directory;
+  }
+
+  /** the cached entry for a repository, or null if there is none */
+
+  public Entry load(String host, int port, String repository)
+  {
+    File file = getFile(host, port, repository);
+    if (!file.exists())
+      return null;
+
+    DataInputStream in = null;
+    try
+    {
+      in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(
+        new FileInputStream(file))));
+      if (MAGIC != in.readInt() || VERSION != in.readInt())
+        return null;
+
+      long timestamp = in.readLong();
+      Map<String, String> repositories = readMap(in);
+      Map<String, String> namespaces = readMap(in);
+      int count = in.readInt();
+      List<String> contexts = new ArrayList<String>(count);
+      for (int i = 0; i < count; ++i)
+        contexts.add(readString(in));
+      return new Entry(repositories, namespaces, contexts, timestamp);
+    }
+    catch (IOException e)
+    {
+      log.warn("ignoring unreadable metadata cache " + file, e);
+      return null;
+    }
+    finally
+    {
+      close(in);
+    }
+  }
+
+  /** replace the cached entry for a repository */
+
+  public void store(String host, int port, String repository, Entry entry)
+    throws IOException
+  {
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+      throw new IOException("unable to create " + mDirectory);
+
+    File file = getFile(host, port, repository);
+    File temporary = File.createTempFile("splink-metadata", ".tmp", mDirectory);
+    DataOutputStream out = null;
+    try
+    {
+      out = new DataOutputStream(new GZIPOutputStream(
+        new BufferedOutputStream(new FileOutputStream(temporary))));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(entry.getTimestamp());
+      writeMap(out, entry.getRepositories());
+      writeMap(out, entry.getNamespaces());
+      out.writeInt(entry.getContexts().size());
+      for (String context : entry.getContexts())
+        writeString(out, context);
+      out.close();
+      out = null;
+
+      // rename fails on some platforms if the target exists
+
+      if (!temporary.renameTo(file) &&
+        !(file.delete() && temporary.renameTo(file)))
+        throw new IOException("unable to replace " + file);
+    }
+    finally
+    {
+      close(out);
+      temporary.delete();
+    }
+  }
+
+  /** forget the cached entry for a repository */
+
+  public void remove(String host, int port, String repository)
+  {
+    getFile(host, port, repository).delete();
+  }
+
+  File getFile(String host, int port, String repository)
+  {
+    String key = host + ":" + port + "/" + repository;
+    StringBuilder name = new StringBuilder();
+    for (char c : key.toCharArray())
+      name.append(Character.isLetterOrDigit(c) || '.' == c || '-' == c
+        ? c
+        : '_');
+
+    // the hash tells apart keys which differ only in replaced characters
+
+    name.append('-').append(Integer.toHexString(key.hashCode()));
+    return new File(mDirectory, name.append(SUFFIX).toString());
+  }
+
+  private static Map<String, String> readMap(DataInputStream in)
+    throws IOException
+  {
+    int count = in.readInt();
+    Map<String, String> map = new LinkedHashMap<String, String>();
+    for (int i = 0; i < count; ++i)
+      map.put(readString(in), readString(in));
+    return map;
+  }
+
+  private static void writeMap(DataOutputStream out, Map<String, String> map)
+    throws IOException
+  {
+    out.writeInt(map.size());
+    for (Map.Entry<String, String> entry : map.entrySet())
+    {
+      writeString(out, entry.getKey());
+      writeString(out, entry.getValue());
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException
+  {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static void writeString(DataOutputStream out, String string)
+    throws IOException
+  {
+    byte[] bytes = string.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void close(Closeable closeable)
+  {
+    try
+    {
+      if (null != closeable)
+        closeable.close();
+    }
+    catch (IOException e)
+    {
+      log.warn("closing metadata cache file", e);
+    }
+  }
+}
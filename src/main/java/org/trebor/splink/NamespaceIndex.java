@@ -0,0 +1,220 @@
+package org.trebor.splink;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lookup structure for shrinking long URIs to prefixed names and growing
+ * them back. A URI is first split the way Sesame splits it, after the first
+ * '#', else the last '/', else the last ':', and the namespace part is looked
+ * up in a hash table without creating a substring. Namespaces which do not end
+ * at such a split are found by walking a character trie for the longest
+ * namespace which leaves a valid local name.
+ * <p>
+ * Both lookups take time proportional to the length of the URI and allocate
+ * nothing but the returned string.
+ */
+
+public class NamespaceIndex
+{
+  private final Map<String, String> mNamespaces = new HashMap<String, String>();
+
+  // open addressed table of namespace to "prefix:"
+
+  private final String[] mKeys;
+  private final String[] mValues;
+  private final int[] mHashes;
+
+  private final Node mRoot = new Node();
+
+  /**
+   * @param prefixes map of prefix to namespace
+   */
+
+  public NamespaceIndex(Map<String, String> prefixes)
+  {
+    int capacity = 16;
+    while (capacity < prefixes.size() * 2)
+      capacity *= 2;
+    mKeys = new String[capacity];
+    mValues = new String[capacity];
+    mHashes = new int[capacity];
+
+    for (Map.Entry<String, String> entry : prefixes.entrySet())
+    {
+      String prefix = entry.getKey();
+      String namespace = entry.getValue();
+      mNamespaces.put(prefix, namespace);
+      put(namespace, prefix + ":");
+      mRoot.add(namespace, 0, prefix + ":");
+    }
+  }
+
+  public int size()
+  {
+    return mNamespaces.size();
+  }
+
+  /** the namespace for a prefix, or null if the prefix is not known */
+
+  public String getNamespace(String prefix)
+  {
+    return mNamespaces.get(prefix);
+  }
+
+  /**
+   * Shrink a URI to a prefixed name.
+   *
+   * @return the prefixed name, or the URI itself if no namespace fits
+   */
+
+  public String shrink(String uri)
+  {
+    int length = uri.length();
+
+    // the local name is the longest tail of valid characters
+
+    int localStart = length;
+    while (localStart > 0 && isLocalChar(uri.charAt(localStart - 1)))
+      --localStart;
+
+    // try the standard split
+
+    int split = standardSplit(uri);
+    if (split >= localStart)
+    {
+      String prefix = get(uri, split);
+      if (null != prefix)
+        return join(prefix, uri, split);
+    }
+
+    // fall back to the longest namespace which leaves a valid local name
+
+    Node node = mRoot;
+    String prefix = null;
+    int end = 0;
+    for (int i = 0; i < length && null != node; ++i)
+    {
+      node = node.child(uri.charAt(i));
+      if (null != node && null != node.mPrefix && i + 1 >= localStart)
+      {
+        prefix = node.mPrefix;
+        end = i + 1;
+      }
+    }
+
+    return null == prefix
+      ? uri
+      : join(prefix, uri, end);
+  }
+
+  private static String join(String prefix, String uri, int split)
+  {
+    return new StringBuilder(prefix.length() + uri.length() - split)
+      .append(prefix).append(uri, split, uri.length()).toString();
+  }
+
+  private static int standardSplit(String uri)
+  {
+    int split = uri.indexOf('#');
+    if (split < 0)
+      split = uri.lastIndexOf('/');
+    if (split < 0)
+      split = uri.lastIndexOf(':');
+    return split + 1;
+  }
+
+  static boolean isLocalChar(char c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+      (c >= '0' && c <= '9') || c == '_' || c == '.' || c == '-';
+  }
+
+  private void put(String namespace, String prefix)
+  {
+    int hash = namespace.hashCode();
+    int mask = mKeys.length - 1;
+    int slot = spread(hash) & mask;
+    while (null != mKeys[slot] && !mKeys[slot].equals(namespace))
+      slot = (slot + 1) & mask;
+    mKeys[slot] = namespace;
+    mValues[slot] = prefix;
+    mHashes[slot] = hash;
+  }
+
+  /** look up the first length characters of a string as a namespace */
+
+  private String get(String uri, int length)
+  {
+    // same hash as String.hashCode() over the range
+
+    int hash = 0;
+    for (int i = 0; i < length; ++i)
+      hash = 31 * hash + uri.charAt(i);
+
+    int mask = mKeys.length - 1;
+    for (int slot = spread(hash) & mask; null != mKeys[slot]; slot =
+      (slot + 1) & mask)
+    {
+      String key = mKeys[slot];
+      if (mHashes[slot] == hash && key.length() == length &&
+        uri.regionMatches(0, key, 0, length))
+        return mValues[slot];
+    }
+
+    return null;
+  }
+
+  private static int spread(int hash)
+  {
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    return hash ^ (hash >>> 7) ^ (hash >>> 4);
+  }
+
+  /** trie node with children kept in sorted arrays */
+
+  private static class Node
+  {
+    private char[] mKeys = new char[0];
+    private Node[] mChildren = new Node[0];
+    private String mPrefix;
+
+    Node child(char key)
+    {
+      int index = Arrays.binarySearch(mKeys, key);
+      return index < 0
+        ? null
+        : mChildren[index];
+    }
+
+    void add(String namespace, int depth, String prefix)
+    {
+      if (depth == namespace.length())
+      {
+        mPrefix = prefix;
+        return;
+      }
+
+      char key = namespace.charAt(depth);
+      int index = Arrays.binarySearch(mKeys, key);
+      if (index < 0)
+      {
+        index = -index - 1;
+        char[] keys = new char[mKeys.length + 1];
+        Node[] children = new Node[mChildren.length + 1];
+        System.arraycopy(mKeys, 0, keys, 0, index);
+        System.arraycopy(mChildren, 0, children, 0, index);
+        System.arraycopy(mKeys, index, keys, index + 1, mKeys.length - index);
+        System.arraycopy(mChildren, index, children, index + 1,
+          mChildren.length - index);
+        keys[index] = key;
+        children[index] = new Node();
+        mKeys = keys;
+        mChildren = children;
+      }
+
+      mChildren[index].add(namespace, depth + 1, prefix);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openrdf.query.MalformedQueryException;
+
+/**
+ * A bounded, least recently used cache of parsed query operations. Entries
+ * are keyed by the full query string and the namespace set active when the
+ * query was parsed, so a change of repository never reuses a stale parse.
+ */
+
+public class OperationCache
+{
+  private final Map<Key, QueryOperation> mCache;
+  private String mNamespaces = "";
+  private long mHits;
+  private long mMisses;
+
+  public OperationCache(final int capacity)
+  {
+    mCache = new LinkedHashMap<Key, QueryOperation>(capacity, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(
+        Map.Entry<Key, QueryOperation> eldest)
+      {
+        return size() > capacity;
+      }
+    };
+  }
+
+  public synchronized void setNamespaces(String namespaces)
+  {
+    mNamespaces = null == namespaces
+      ? ""
+      : namespaces;
+  }
+
+  public QueryOperation parse(String queryString)
+    throws MalformedQueryException
+  {
+    Key key;
+    synchronized (this)
+    {
+      key = new Key(mNamespaces, queryString);
+      QueryOperation operation = mCache.get(key);
+      if (null != operation)
+      {
+        ++mHits;
+        return operation;
+      }
+      ++mMisses;
+    }
+
+    // parse outside the lock, a failed parse is not cached
+
+    QueryOperation operation = QueryOperation.parse(queryString);
+    synchronized (this)
+    {
+      mCache.put(key, operation);
+    }
+    return operation;
+  }
+
+  public synchronized void clear()
+  {
+    mCache.clear();
+  }
+
+  public synchronized long getHits()
+  {
+    return mHits;
+  }
+
+  public synchronized long getMisses()
+  {
+    return mMisses;
+  }
+
+  public synchronized int size()
+  {
+    return mCache.size();
+  }
+
+  public synchronized String getStatus()
+  {
+    return format("parse cache %,d/%,d hit", mHits, mHits + mMisses);
+  }
+
+  private static class Key
+  {
+    private final String mNamespaces;
+    private final String mQuery;
+    private final int mHash;
+
+    Key(String namespaces, String query)
+    {
+      mNamespaces = namespaces;
+      mQuery = query;
+      mHash = 31 * namespaces.hashCode() + query.hashCode();
+    }
+
+    public int hashCode()
+    {
+      return mHash;
+    }
+
+    public boolean equals(Object other)
+    {
+      if (!(other instanceof Key))
+        return false;
+      Key key = (Key)other;
+      return mHash == key.mHash && mQuery.equals(key.mQuery) &&
+        mNamespaces.equals(key.mNamespaces);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package org.trebor.splink;
+
+import static org.trebor.splink.ResourceManager.ResourceType.*;
+
+import org.trebor.splink.ResourceManager.ResourceType;
+
+/**
+ * A resource string classified and split by a single left to right scan,
+ * with no backtracking. The recognized forms are:
+ * <ul>
+ * <li>short URI: <code>prefix:local</code>, prefix not ending in '_'</li>
+ * <li>long URI: <code>scheme://body</code></li>
+ * <li>blank node: <code>_:id</code></li>
+ * <li>literal: <code>"lexical"</code> with an optional <code>@language</code>
+ * or <code>^^type</code> suffix, the type optionally in angle brackets</li>
+ * </ul>
+ * Identifiers consist of letters, digits, '_', '.' and '-'. A literal ends at
+ * its last quote, so it may contain quotes and line breaks.
+ */
+
+public class ParsedResource
+{
+  public static final String LANGUAGE_SEPARATOR = "@";
+  public static final String DATATYPE_SEPARATOR = "^^";
+
+  private final String mValue;
+  private final ResourceType mType;
+
+  // literal parts as offsets into the value
+
+  private int mLexicalEnd;
+  private int mSeparatorEnd;
+  private int mSuffixStart;
+  private int mSuffixEnd;
+
+  private ParsedResource(String value)
+  {
+    mValue = value;
+    mType = scan();
+  }
+
+  /** parse a resource, returning null if it has none of the known forms */
+
+  public static ParsedResource parse(String resource)
+  {
+    ParsedResource parsed = new ParsedResource(resource);
+    return null == parsed.mType
+      ? null
+      : parsed;
+  }
+
+  /** classify a resource, returning null if it has none of the known forms */
+
+  public static ResourceType classify(String resource)
+  {
+    return new ParsedResource(resource).mType;
+  }
+
+  private ResourceType scan()
+  {
+    String value = mValue;
+    int length = value.length();
+
+    if (length > 0 && value.charAt(0) == '"')
+      return scanLiteral()
+        ? LITERAL
+        : null;
+    if (isShortUri(value, 0, length))
+      return SHORT_URI;
+    if (isLongUri(value, 0, length))
+      return LONG_URI;
+    if (value.startsWith("_:") && isIdentifier(value, 2, length))
+      return BLANK_NODE;
+
+    return null;
+  }
+
+  private boolean scanLiteral()
+  {
+    String value = mValue;
+    int length = value.length();
+
+    // nothing after the last quote may be a quote, so it closes the literal
+
+    mLexicalEnd = value.lastIndexOf('"');
+    if (mLexicalEnd < 1)
+      return false;
+
+    int position = mLexicalEnd + 1;
+    if (value.startsWith(LANGUAGE_SEPARATOR, position))
+      position += LANGUAGE_SEPARATOR.length();
+    else if (value.startsWith(DATATYPE_SEPARATOR, position))
+      position += DATATYPE_SEPARATOR.length();
+    mSeparatorEnd = position;
+
+    // optional angle brackets around the suffix
+
+    if (position < length && value.charAt(position) == '<')
+      ++position;
+    int end = length;
+    if (end > position && value.charAt(end - 1) == '>')
+      --end;
+    mSuffixStart = position;
+    mSuffixEnd = end;
+
+    return isIdentifier(value, position, end) ||
+      isShortUri(value, position, end) || isLongUri(value, position, end);
+  }
+
+  public String getValue()
+  {
+    return mValue;
+  }
+
+  public ResourceType getType()
+  {
+    return mType;
+  }
+
+  /** the text between the quotes of a literal */
+
+  public String getLexicalForm()
+  {
+    return mValue.substring(1, mLexicalEnd);
+  }
+
+  /** {@link #LANGUAGE_SEPARATOR}, {@link #DATATYPE_SEPARATOR} or null */
+
+  public String getSeparator()
+  {
+    return mSeparatorEnd > mLexicalEnd + 1
+      ? mValue.substring(mLexicalEnd + 1, mSeparatorEnd)
+      : null;
+  }
+
+  /** the language or datatype of a literal without angle brackets */
+
+  public String getSuffix()
+  {
+    return mValue.substring(mSuffixStart, mSuffixEnd);
+  }
+
+  static boolean isIdentifier(String value, int from, int to)
+  {
+    for (int i = from; i < to; ++i)
+      if (!NamespaceIndex.isLocalChar(value.charAt(i)))
+        return false;
+    return true;
+  }
+
+  static boolean isShortUri(String value, int from, int to)
+  {
+    int colon = from;
+    while (colon < to && NamespaceIndex.isLocalChar(value.charAt(colon)))
+      ++colon;
+
+    return colon < to && value.charAt(colon) == ':' &&
+      (colon == from || value.charAt(colon - 1) != '_') &&
+      isIdentifier(value, colon + 1, to);
+  }
+
+  static boolean isLongUri(String value, int from, int to)
+  {
+    int position = from;
+    while (position < to && isWordChar(value.charAt(position)))
+      ++position;
+    if (position + 3 > to || !value.startsWith("://", position))
+      return false;
+
+    for (int i = position + 3; i < to; ++i)
+    {
+      char c = value.charAt(i);
+      if (c != '#' && c != '/' && !NamespaceIndex.isLocalChar(c))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean isWordChar(char c)
+  {
+    return c != '.' && c != '-' && NamespaceIndex.isLocalChar(c);
+  }
+}
@@ -0,0 +1,72 @@
+package org.trebor.splink;
+
+import java.util.concurrent.Future;
+
+import info.aduna.iteration.CloseableIteration;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Handle on a running query which allows it to be canceled from another
+ * thread. Canceling closes the query result, which releases the server
+ * connection, and interrupts the worker executing the query.
+ */
+
+public class QueryControl
+{
+  public static final Logger log = Logger.getLogger(QueryControl.class);
+
+  private volatile boolean mCanceled;
+  private volatile Future<?> mFuture;
+  private volatile CloseableIteration<?, ? extends Exception> mResult;
+
+  public void setFuture(Future<?> future)
+  {
+    mFuture = future;
+    if (mCanceled && null != future)
+      future.cancel(true);
+  }
+
+  public void setResult(CloseableIteration<?, ? extends Exception> result)
+  {
+    mResult = result;
+    if (mCanceled)
+      close(result);
+  }
+
+  public boolean isCanceled()
+  {
+    return mCanceled;
+  }
+
+  public void cancel()
+  {
+    mCanceled = true;
+
+    CloseableIteration<?, ? extends Exception> result = mResult;
+    if (null != result)
+      close(result);
+
+    Future<?> future = mFuture;
+    if (null != future)
+      future.cancel(true);
+  }
+
+  public void finish()
+  {
+    mResult = null;
+    mFuture = null;
+  }
+
+  private static void close(CloseableIteration<?, ? extends Exception> result)
+  {
+    try
+    {
+      result.close();
+    }
+    catch (Exception e)
+    {
+      log.debug("closing canceled result", e);
+    }
+  }
+}
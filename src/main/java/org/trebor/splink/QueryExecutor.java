@@ -0,0 +1,176 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded pool of named worker threads through which queries and other
+ * repository work are run. Each submission returns a {@link Future} handle
+ * and the executor keeps count of queue depth and time spent waiting in the
+ * queue.
+ */
+
+public class QueryExecutor
+{
+  public static final Logger log = Logger.getLogger(QueryExecutor.class);
+
+  private final String mName;
+  private final ThreadPoolExecutor mExecutor;
+  private final AtomicInteger mThreadCount = new AtomicInteger();
+  private final AtomicLong mSubmitted = new AtomicLong();
+  private final AtomicLong mStarted = new AtomicLong();
+  private final AtomicLong mCompleted = new AtomicLong();
+  private final AtomicLong mRejected = new AtomicLong();
+  private final AtomicLong mTotalWait = new AtomicLong();
+  private final AtomicLong mMaxWait = new AtomicLong();
+
+  public QueryExecutor(String name, int threads, int queueSize)
+  {
+    mName = name;
+    mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory()
+      {
+        public Thread newThread(Runnable runnable)
+        {
+          Thread thread = new Thread(runnable, format("splink-%s-%d", mName,
+            mThreadCount.incrementAndGet()));
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    mExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  public <T> Future<T> submit(final String taskName, final Callable<T> task)
+  {
+    final long queuedTime = System.currentTimeMillis();
+
+    FutureTask<T> future = new FutureTask<T>(new Callable<T>()
+    {
+      public T call() throws Exception
+      {
+        long wait = System.currentTimeMillis() - queuedTime;
+        recordStart(taskName, wait);
+
+        Thread thread = Thread.currentThread();
+        String threadName = thread.getName();
+        thread.setName(threadName + " " + taskName);
+        try
+        {
+          return task.call();
+        }
+        catch (Exception e)
+        {
+          log.error(format("%s failed", taskName), e);
+          throw e;
+        }
+        finally
+        {
+          thread.setName(threadName);
+          mCompleted.incrementAndGet();
+        }
+      }
+    });
+
+    try
+    {
+      mSubmitted.incrementAndGet();
+      mExecutor.execute(future);
+    }
+    catch (RejectedExecutionException e)
+    {
+      mRejected.incrementAndGet();
+      throw e;
+    }
+
+    return future;
+  }
+
+  public Future<?> submit(String taskName, final Runnable task)
+  {
+    return submit(taskName, new Callable<Object>()
+    {
+      public Object call() throws Exception
+      {
+        task.run();
+        return null;
+      }
+    });
+  }
+
+  private void recordStart(String taskName, long wait)
+  {
+    mStarted.incrementAndGet();
+    mTotalWait.addAndGet(wait);
+
+    long max = mMaxWait.get();
+    while (wait > max && !mMaxWait.compareAndSet(max, wait))
+      max = mMaxWait.get();
+
+    if (log.isDebugEnabled())
+      log.debug(format("%s started after %d ms, %s", taskName, wait,
+        getStatus()));
+  }
+
+  public int getQueueDepth()
+  {
+    return mExecutor.getQueue().size();
+  }
+
+  public int getActiveCount()
+  {
+    return mExecutor.getActiveCount();
+  }
+
+  public long getSubmittedCount()
+  {
+    return mSubmitted.get();
+  }
+
+  public long getCompletedCount()
+  {
+    return mCompleted.get();
+  }
+
+  public long getRejectedCount()
+  {
+    return mRejected.get();
+  }
+
+  public long getAverageWait()
+  {
+    long started = mStarted.get();
+    return started == 0
+      ? 0
+      : mTotalWait.get() / started;
+  }
+
+  public long getMaximumWait()
+  {
+    return mMaxWait.get();
+  }
+
+  public String getStatus()
+  {
+    return format("%s: active %d, queued %d, wait avg %d ms max %d ms",
+      mName, getActiveCount(), getQueueDepth(), getAverageWait(),
+      getMaximumWait());
+  }
+
+  public void shutdown()
+  {
+    mExecutor.shutdownNow();
+  }
+}
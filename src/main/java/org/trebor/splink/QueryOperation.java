@@ -0,0 +1,267 @@
+package org.trebor.splink;
+
+import org.apache.log4j.Logger;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.algebra.Slice;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.parser.ParsedBooleanQuery;
+import org.openrdf.query.parser.ParsedGraphQuery;
+import org.openrdf.query.parser.ParsedOperation;
+import org.openrdf.query.parser.ParsedTupleQuery;
+import org.openrdf.query.parser.ParsedUpdate;
+import org.openrdf.query.parser.QueryParserUtil;
+
+/**
+ * A query string parsed once into the form needed to execute it: the
+ * query language, the kind of operation and any result limit the query
+ * already carries. The language and kind are guessed from the first
+ * keyword of the query so that usually only a single parse is needed.
+ */
+
+public class QueryOperation
+{
+  public static final Logger log = Logger.getLogger(QueryOperation.class);
+
+  public static final long NO_LIMIT = -1;
+
+  public enum Kind
+  {
+    TUPLE,
+    GRAPH,
+    BOOLEAN,
+    UPDATE;
+
+    static Kind establishKind(ParsedOperation operation)
+    {
+      if (operation instanceof ParsedTupleQuery)
+        return TUPLE;
+      if (operation instanceof ParsedGraphQuery)
+        return GRAPH;
+      if (operation instanceof ParsedBooleanQuery)
+        return BOOLEAN;
+      if (operation instanceof ParsedUpdate)
+        return UPDATE;
+      return null;
+    }
+  }
+
+  /** The parse attempts to make, in order, for a given guess. */
+
+  enum Guess
+  {
+    SPARQL_QUERY,
+    SPARQL_UPDATE,
+    SERQL_QUERY;
+
+    static final Guess[][] ATTEMPTS =
+    {
+      {SPARQL_QUERY, SPARQL_UPDATE, SERQL_QUERY},
+      {SPARQL_UPDATE, SPARQL_QUERY, SERQL_QUERY},
+      {SERQL_QUERY, SPARQL_QUERY, SPARQL_UPDATE},
+    };
+
+    Guess[] attempts()
+    {
+      return ATTEMPTS[ordinal()];
+    }
+
+    QueryLanguage getLanguage()
+    {
+      return this == SERQL_QUERY
+        ? QueryLanguage.SERQL
+        : QueryLanguage.SPARQL;
+    }
+
+    ParsedOperation parse(String queryString) throws MalformedQueryException
+    {
+      return this == SPARQL_UPDATE
+        ? QueryParserUtil.parseUpdate(getLanguage(), queryString, null)
+        : QueryParserUtil.parseQuery(getLanguage(), queryString, null);
+    }
+  }
+
+  private static final String[] UPDATE_KEYWORDS =
+  {
+    "INSERT", "DELETE", "LOAD", "CLEAR", "CREATE", "DROP", "COPY", "MOVE",
+    "ADD", "WITH",
+  };
+
+  private final QueryLanguage mLanguage;
+  private final ParsedOperation mParsedOperation;
+  private final Kind mKind;
+  private boolean mHasLimit;
+  private long mLimit = NO_LIMIT;
+
+  QueryOperation(QueryLanguage language, ParsedOperation parsedOperation)
+  {
+    mLanguage = language;
+    mParsedOperation = parsedOperation;
+    mKind = Kind.establishKind(parsedOperation);
+    establishLimit();
+  }
+
+  public static QueryOperation parse(String queryString)
+    throws MalformedQueryException
+  {
+    MalformedQueryException firstFailure = null;
+
+    for (Guess attempt : guess(queryString).attempts())
+    {
+      try
+      {
+        return new QueryOperation(attempt.getLanguage(),
+          attempt.parse(queryString));
+      }
+      catch (MalformedQueryException e)
+      {
+        log.debug(attempt + " parse failed: " + e.getMessage());
+        if (null == firstFailure)
+          firstFailure = e;
+      }
+    }
+
+    throw firstFailure;
+  }
+
+  /**
+   * Guess the language and operation of a query from its prologue and
+   * first keyword without parsing it.
+   */
+
+  static Guess guess(String query)
+  {
+    int length = query.length();
+    int i = 0;
+    boolean hasPrologue = false;
+
+    while (i < length)
+    {
+      char c = query.charAt(i);
+
+      // skip white space and comments
+
+      if (Character.isWhitespace(c))
+      {
+        ++i;
+        continue;
+      }
+      if (c == '#')
+      {
+        while (i < length && query.charAt(i) != '\n' && query.charAt(i) != '\r')
+          ++i;
+        continue;
+      }
+
+      // read the next keyword
+
+      int start = i;
+      while (i < length && Character.isLetter(query.charAt(i)))
+        ++i;
+      if (start == i)
+        return Guess.SPARQL_QUERY;
+
+      // skip prefix and base declarations up to the closing '>'
+
+      if (isKeyword(query, start, i, "PREFIX") ||
+        isKeyword(query, start, i, "BASE"))
+      {
+        hasPrologue = true;
+        i = query.indexOf('>', i);
+        if (i < 0)
+          return Guess.SPARQL_QUERY;
+        ++i;
+        continue;
+      }
+
+      for (String keyword : UPDATE_KEYWORDS)
+        if (isKeyword(query, start, i, keyword))
+          return Guess.SPARQL_UPDATE;
+
+      if (!hasPrologue &&
+        (isKeyword(query, start, i, "SELECT") || isKeyword(query, start, i,
+          "CONSTRUCT")) && isSerqlFrom(query, i))
+        return Guess.SERQL_QUERY;
+
+      return Guess.SPARQL_QUERY;
+    }
+
+    return Guess.SPARQL_QUERY;
+  }
+
+  /**
+   * SeRQL path expressions follow FROM with a '{', SPARQL never does. Look
+   * at the word which precedes the first '{' of the query.
+   */
+
+  private static boolean isSerqlFrom(String query, int offset)
+  {
+    int brace = query.indexOf('{', offset);
+    if (brace < 0)
+      return false;
+
+    int end = brace;
+    while (end > offset && Character.isWhitespace(query.charAt(end - 1)))
+      --end;
+    int start = end;
+    while (start > offset && Character.isLetter(query.charAt(start - 1)))
+      --start;
+
+    return isKeyword(query, start, end, "FROM");
+  }
+
+  private static boolean isKeyword(String query, int start, int end,
+    String keyword)
+  {
+    return end - start == keyword.length() &&
+      query.regionMatches(true, start, keyword, 0, keyword.length());
+  }
+
+  private void establishLimit()
+  {
+    if (mKind != Kind.TUPLE)
+      return;
+
+    try
+    {
+      ((ParsedTupleQuery)mParsedOperation).getTupleExpr().visit(
+        new QueryModelVisitorBase<Exception>()
+        {
+          public void meet(Slice node) throws Exception
+          {
+            mLimit = node.getLimit();
+            mHasLimit = true;
+          }
+        });
+    }
+    catch (Exception e)
+    {
+      log.debug("limit search failed", e);
+    }
+  }
+
+  public QueryLanguage getLanguage()
+  {
+    return mLanguage;
+  }
+
+  public ParsedOperation getParsedOperation()
+  {
+    return mParsedOperation;
+  }
+
+  public Kind getKind()
+  {
+    return mKind;
+  }
+
+  public boolean hasLimit()
+  {
+    return mHasLimit;
+  }
+
+  public long getLimit()
+  {
+    return mLimit;
+  }
+}
@@ -0,0 +1,181 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prepends to a query the PREFIX declarations for only those repository
+ * namespaces which the query actually uses. The query is scanned once for
+ * prefixed names, skipping IRIs, string literals and comments, and prefixes
+ * the query declares itself are left alone.
+ */
+
+public class QueryPrefixer
+{
+  public static final String PREFIX_FORMAT = "PREFIX %s:<%s>\n";
+
+  private final Map<String, String> mNamespaces;
+  private final String mAllDeclarations;
+
+  public QueryPrefixer(Map<String, String> namespaces)
+  {
+    mNamespaces = new LinkedHashMap<String, String>(namespaces);
+
+    StringBuffer declarations = new StringBuffer();
+    for (Map.Entry<String, String> namespace : mNamespaces.entrySet())
+      declarations.append(format(PREFIX_FORMAT, namespace.getKey(),
+        namespace.getValue()));
+    mAllDeclarations = declarations.toString();
+  }
+
+  public String getAllDeclarations()
+  {
+    return mAllDeclarations;
+  }
+
+  public String prefix(String query)
+  {
+    return getDeclarations(query) + query;
+  }
+
+  public String getDeclarations(String query)
+  {
+    StringBuffer declarations = new StringBuffer();
+    for (String prefix : findPrefixes(query))
+    {
+      String namespace = mNamespaces.get(prefix);
+      if (null != namespace)
+        declarations.append(format(PREFIX_FORMAT, prefix, namespace));
+    }
+    return declarations.toString();
+  }
+
+  /**
+   * Find the prefixes used, but not declared, by a query in the order they
+   * first appear.
+   */
+
+  public static Set<String> findPrefixes(String query)
+  {
+    Set<String> used = new LinkedHashSet<String>();
+    Set<String> declared = new HashSet<String>();
+    boolean declaring = false;
+    int length = query.length();
+    int i = 0;
+
+    while (i < length)
+    {
+      char c = query.charAt(i);
+
+      // skip comments, strings and IRIs
+
+      if (c == '#')
+      {
+        while (i < length && query.charAt(i) != '\n' && query.charAt(i) != '\r')
+          ++i;
+      }
+      else if (c == '"' || c == '\'')
+      {
+        i = skipString(query, i);
+      }
+      else if (c == '<')
+      {
+        i = skipIri(query, i);
+      }
+
+      // a name, which may be the PREFIX keyword or a prefixed name
+
+      else if (isNameCharacter(c) || c == ':')
+      {
+        int start = i;
+        while (i < length && isNameCharacter(query.charAt(i)))
+          ++i;
+
+        if (i < length && query.charAt(i) == ':')
+        {
+          char before = start > 0
+            ? query.charAt(start - 1)
+            : ' ';
+          String prefix = query.substring(start, i);
+          if (before != '?' && before != '$' && !prefix.equals("_"))
+          {
+            if (declaring)
+              declared.add(prefix);
+            else if (!declared.contains(prefix))
+              used.add(prefix);
+          }
+          declaring = false;
+
+          // skip the local name, which may itself contain colons
+
+          ++i;
+          while (i < length &&
+            (isNameCharacter(query.charAt(i)) || query.charAt(i) == ':'))
+            ++i;
+        }
+        else
+          declaring = query.regionMatches(true, start, "PREFIX", 0, 6) &&
+            i - start == 6;
+      }
+      else
+        ++i;
+    }
+
+    return used;
+  }
+
+  private static boolean isNameCharacter(char c)
+  {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+  }
+
+  private static int skipString(String query, int start)
+  {
+    char quote = query.charAt(start);
+    boolean isLong = query.startsWith("" + quote + quote + quote, start);
+    int i = start + (isLong
+      ? 3
+      : 1);
+    int length = query.length();
+
+    while (i < length)
+    {
+      char c = query.charAt(i);
+      if (c == '\\')
+        i += 2;
+      else if (c == quote && (!isLong || query.startsWith("" + quote + quote +
+        quote, i)))
+        return i + (isLong
+          ? 3
+          : 1);
+      else if (!isLong && (c == '\n' || c == '\r'))
+        return i;
+      else
+        ++i;
+    }
+
+    return length;
+  }
+
+  private static int skipIri(String query, int start)
+  {
+    // an IRI has no white space, anything else is a comparison operator
+
+    int length = query.length();
+    for (int i = start + 1; i < length; ++i)
+    {
+      char c = query.charAt(i);
+      if (c == '>')
+        return i + 1;
+      if (Character.isWhitespace(c) || c == '<' || c == '"')
+        break;
+    }
+
+    return start + 1;
+  }
+}
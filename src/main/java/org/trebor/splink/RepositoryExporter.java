@@ -0,0 +1,198 @@
+package org.trebor.splink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+
+/**
+ * Exports the statements of a repository by streaming them from the server
+ * with {@link RepositoryConnection#exportStatements} into an
+ * {@link ExportSink}, which serializes them while more are read. The server
+ * only has to read out its statements rather than evaluate a query over all
+ * of them. Statements keep their context when the
+ * output format supports contexts, such as TriG or N-Quads. Progress is
+ * reported to a listener as statements are written, and the export stops
+ * early when its {@link QueryControl} is canceled.
+ */
+
+public class RepositoryExporter
+{
+  public static final Logger log = Logger.getLogger(RepositoryExporter.class);
+
+  /** the least time between progress reports */
+
+  public static final long PROGRESS_INTERVAL = 500;
+
+  /** told how an export is going */
+
+  public interface Listener
+  {
+    void onProgress(long statements, long bytes, long elapsed);
+  }
+
+  /** thrown through the writer to stop an export which was canceled */
+
+  public static class CanceledException extends RDFHandlerException
+  {
+    private static final long serialVersionUID = 1L;
+
+    public CanceledException()
+    {
+      super("export canceled");
+    }
+  }
+
+  private final ConnectionPool mPool;
+  private final RDFFormat mFormat;
+  private final boolean mIncludeInferred;
+  private final QueryControl mControl;
+  private final Listener mListener;
+  private long mStatements;
+  private long mStart;
+  private boolean mComplete;
+
+  public RepositoryExporter(ConnectionPool pool, RDFFormat format,
+    boolean includeInferred, QueryControl control, Listener listener)
+  {
+    mPool = pool;
+    mFormat = format;
+    mIncludeInferred = includeInferred;
+    mControl = control;
+    mListener = listener;
+  }
+
+  /**
+   * Export every statement to a stream, which is closed. Returns the number
+   * of statements written, which is less than all of them if the export was
+   * canceled.
+   */
+
+  public long export(OutputStream out) throws RepositoryException,
+    RDFHandlerException, IOException
+  {
+    return export(new ExportSink(out, mFormat, false));
+  }
+
+  /**
+   * Export the statements in the given contexts, or every statement if none
+   * are given, into a sink. The sink is closed once all of them are written,
+   * or aborted if the export fails or is canceled, leaving what was already
+   * written. Returns the number of statements handed to the sink.
+   */
+
+  public long export(final ExportSink sink, Resource... contexts)
+    throws RepositoryException, RDFHandlerException, IOException
+  {
+    mStatements = 0;
+    mComplete = false;
+    mStart = System.currentTimeMillis();
+
+    boolean complete = false;
+    RepositoryConnection connection = null;
+    try
+    {
+      connection = mPool.borrowBackground();
+      connection.exportStatements(null, null, null, mIncludeInferred,
+        new RDFHandler()
+        {
+          private long mLastReport = mStart;
+
+          public void startRDF() throws RDFHandlerException
+          {
+            sink.startRDF();
+          }
+
+          public void endRDF() throws RDFHandlerException
+          {
+            sink.endRDF();
+          }
+
+          public void handleNamespace(String prefix, String uri)
+            throws RDFHandlerException
+          {
+            sink.handleNamespace(prefix, uri);
+          }
+
+          public void handleStatement(Statement statement)
+            throws RDFHandlerException
+          {
+            sink.handleStatement(statement);
+
+            // look at the clock and the control only now and then
+
+            if (0 == (++mStatements & 0x3ff))
+            {
+              if (mControl.isCanceled())
+                throw new CanceledException();
+              long now = System.currentTimeMillis();
+              if (now - mLastReport >= PROGRESS_INTERVAL)
+              {
+                mLastReport = now;
+                mListener.onProgress(mStatements, sink.getBytes(),
+                  now - mStart);
+              }
+            }
+          }
+
+          public void handleComment(String comment)
+            throws RDFHandlerException
+          {
+            sink.handleComment(comment);
+          }
+        }, contexts);
+      complete = true;
+    }
+    catch (CanceledException e)
+    {
+      log.debug("export canceled after " + mStatements + " statements");
+    }
+    catch (RDFHandlerException e)
+    {
+      if (!(e.getCause() instanceof CanceledException))
+        throw e;
+    }
+    finally
+    {
+      mPool.release(connection);
+      if (!complete)
+        sink.abort();
+    }
+
+    if (complete)
+    {
+      sink.close();
+      mComplete = true;
+    }
+    mListener.onProgress(mStatements, sink.getBytes(),
+      System.currentTimeMillis() - mStart);
+    return mStatements;
+  }
+
+  /**
+   * True if the last export wrote every statement and closed the sink, even
+   * if it was canceled once that was done.
+   */
+
+  public boolean isComplete()
+  {
+    return mComplete;
+  }
+
+  /** a description of how far an export has got and how fast */
+
+  public static String describe(long statements, long bytes, long elapsed)
+  {
+    double seconds = Math.max(1, elapsed) / 1000d;
+    return String.format("%,d statements, %,.1f MB in %,.1f s " +
+      "(%,.0f statements/s, %,.1f MB/s)", statements, bytes / 1e6, seconds,
+      statements / seconds, bytes / 1e6 / seconds);
+  }
+}
@@ -1,89 +1,81 @@
 package org.trebor.splink;
 
-import static java.lang.String.format;
 import static org.trebor.splink.ResourceManager.ResourceType.*;
 
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Namespace;
-import org.openrdf.model.URI;
-import org.openrdf.model.ValueFactory;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
 
 public class ResourceManager
 {
   public static final Logger log = Logger.getLogger(ResourceManager.class);
 
-  public static final int LITERAL_STRING_INDEX = 1;
-  public static final int LITERAL_SEPERATOR_INDEX = 2;
-  public static final int LITERAL_TYPE_INDEX = 3;
-  public static final String URI_IDENTIFIER_RE = "[a-zA-Z_0-9\\.\\-]*";
-  public static final String URI_BODY_RE = "[#/a-zA-Z_0-9\\.\\-]*";
-  public static final String PROTOCOL_IDENTIFIER_RE = "\\w*";
-  public static final String SHORT_URI_RE = format("%s(?<!_):%s", URI_IDENTIFIER_RE, URI_IDENTIFIER_RE);
-  public static final String LONG_URI_RE = format("%s://%s", PROTOCOL_IDENTIFIER_RE, URI_BODY_RE);
-  public static final String LITERAL_RE = format("\"(\\p{ASCII}*)\"(@|\\^\\^)?<?(%s|%s|%s)?>?", LONG_URI_RE, SHORT_URI_RE, URI_IDENTIFIER_RE);
-  public static final String BLANK_NODE_RE = format("_:%s", URI_IDENTIFIER_RE);
-
-  private final List<Namespace> mNamespaces;
-
-  private final ValueFactory mValueFactory;
+  private final NamespaceIndex mNamespaces;
 
   public enum ResourceType
-  {    
-    SHORT_URI("^" + SHORT_URI_RE + "$"),
-    LONG_URI("^" + LONG_URI_RE + "$"),
-    BLANK_NODE("^" + BLANK_NODE_RE + "$"),
-    LITERAL(LITERAL_RE);
-    
-    private final Pattern mPattern;
-    
-    ResourceType(String regex)
-    {
-      mPattern = Pattern.compile(regex);
-    }
-    
+  {
+    SHORT_URI,
+    LONG_URI,
+    BLANK_NODE,
+    LITERAL;
+
     public boolean isMatch(String resource)
     {
-      return mPattern.matcher(resource).matches();
+      return this == establishType(resource);
     }
-    
+
     static ResourceType establishType(String resource)
     {
-      for (ResourceType type: values())
-        if (type.isMatch(resource))
-          return type;
-      
-      return null;
-    }
-    
-    public Matcher parse(String resource)
-    {
-      Matcher matcher = mPattern.matcher(resource);
-      matcher.matches();
-      return matcher;
+      return ParsedResource.classify(resource);
     }
   }
 
   public ResourceManager(RepositoryConnection connection) throws RepositoryException
   {
-    if (connection != null)
+    this(connection != null
+      ? createIndex(connection)
+      : null);
+  }
+
+  public ResourceManager(NamespaceIndex namespaces)
+  {
+    mNamespaces = namespaces;
+  }
+
+  public static NamespaceIndex createIndex(RepositoryConnection connection)
+    throws RepositoryException
+  {
+    Map<String, String> prefixes = new LinkedHashMap<String, String>();
+    RepositoryResult<Namespace> namespaces = connection.getNamespaces();
+    try
     {
-      mNamespaces = connection.getNamespaces().asList();
-      mValueFactory = connection.getValueFactory();
+      while (namespaces.hasNext())
+      {
+        Namespace namespace = namespaces.next();
+        prefixes.put(namespace.getPrefix(), namespace.getName());
+      }
     }
-    else
+    finally
     {
-      mNamespaces = null;
-      mValueFactory = null;
+      namespaces.close();
     }
+    return new NamespaceIndex(prefixes);
+  }
+
+  /** shrink a URI to a prefixed name if one of the namespaces fits */
+
+  public String shrinkUri(String uri)
+  {
+    return mNamespaces == null
+      ? uri
+      : mNamespaces.shrink(uri);
   }
 
-  
   public String shrinkResource(String longResource)
   {
     if (mNamespaces == null)
@@ -91,30 +83,24 @@ public class ResourceManager
       log.debug("null namespace");
       return longResource;
     }
-    
-    if (LONG_URI.isMatch(longResource))
-    {
-      URI uri = mValueFactory.createURI(longResource);
-      for (Namespace namespace : mNamespaces)
-        if (namespace.getName().equals(uri.getNamespace()))
-          return namespace.getPrefix() + ":" + uri.getLocalName();
 
-      return longResource;
-    }
-    
-    if (LITERAL.isMatch(longResource))
+    // literals are the only resources which start with a quote
+
+    if (!longResource.startsWith("\""))
+      return mNamespaces.shrink(longResource);
+
+    ParsedResource literal = ParsedResource.parse(longResource);
+    if (null != literal && literal.getType() == LITERAL)
     {
-      Matcher m = LITERAL.parse(longResource);
-      String string = m.group(LITERAL_STRING_INDEX);
-      String seperator = m.group(LITERAL_SEPERATOR_INDEX);
-      String type = m.group(LITERAL_TYPE_INDEX);
+      String seperator = literal.getSeparator();
       if (seperator == null)
         return longResource;
 
+      String type = literal.getSuffix();
       if (LONG_URI.isMatch(type))
         type = shrinkResource(type);
 
-      return "\"" + string + "\"" + seperator + type;
+      return "\"" + literal.getLexicalForm() + "\"" + seperator + type;
     }
 
     return longResource;
@@ -125,28 +111,29 @@ public class ResourceManager
     if (mNamespaces == null)
       return shortResource;
     
-    if (SHORT_URI.isMatch(shortResource))
+    ParsedResource resource = ParsedResource.parse(shortResource);
+    if (null == resource)
+      return shortResource;
+
+    if (resource.getType() == SHORT_URI)
     {
-      for (Namespace name : mNamespaces)
-      {
-        String prefix = name.getPrefix() + ":";
-        if (shortResource.startsWith(prefix))
-          return shortResource.replace(prefix, name.getName());
-      }
+      int colon = shortResource.indexOf(':');
+      String namespace =
+        mNamespaces.getNamespace(shortResource.substring(0, colon));
+      if (null != namespace)
+        return namespace + shortResource.substring(colon + 1);
     }
-    else if (LITERAL.isMatch(shortResource))
+    else if (resource.getType() == LITERAL)
     {
-      Matcher m = LITERAL.parse(shortResource);
-      String string = m.group(LITERAL_STRING_INDEX);
-      String seperator = m.group(LITERAL_SEPERATOR_INDEX);
-      String type = m.group(LITERAL_TYPE_INDEX);
+      String seperator = resource.getSeparator();
       if (seperator == null)
         return shortResource;
 
+      String type = resource.getSuffix();
       if (SHORT_URI.isMatch(type))
         type = "<" + growResource(type) + ">";
 
-      return "\"" + string + "\"" + seperator + type;
+      return "\"" + resource.getLexicalForm() + "\"" + seperator + type;
     }
 
     return shortResource;
@@ -0,0 +1,263 @@
+package org.trebor.splink;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.trebor.splink.ResourceManager.ResourceType;
+
+/**
+ * A query result value, classified once when the result is read. A cell
+ * knows its kind, its lexical value and, for literals, its language or
+ * datatype, so it never has to be parsed back from its string form. The
+ * short form is computed the first time it is asked for.
+ */
+
+public class ResultCell
+{
+  public enum Kind
+  {
+    URI(ResourceType.LONG_URI),
+    BLANK_NODE(ResourceType.BLANK_NODE),
+    LITERAL(ResourceType.LITERAL);
+
+    private final ResourceType mResourceType;
+
+    Kind(ResourceType resourceType)
+    {
+      mResourceType = resourceType;
+    }
+
+    public ResourceType getResourceType()
+    {
+      return mResourceType;
+    }
+  }
+
+  /** stores cells in a spilled {@link ValueDictionary} */
+
+  public static final ValueDictionary.Codec CODEC = new ValueDictionary.Codec()
+  {
+    public byte[] encode(Object value)
+    {
+      ResultCell cell = (ResultCell)value;
+      try
+      {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+          16 + cell.mLexical.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(cell.mKind.ordinal());
+        writeString(out, cell.mLexical);
+        writeString(out, cell.mLanguage);
+        writeString(out, cell.mDatatype);
+        out.close();
+        return bytes.toByteArray();
+      }
+      catch (IOException e)
+      {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    public Object decode(byte[] bytes)
+    {
+      try
+      {
+        DataInputStream in =
+          new DataInputStream(new ByteArrayInputStream(bytes));
+        Kind kind = Kind.values()[in.readByte()];
+        return new ResultCell(kind, readString(in), readString(in),
+          readString(in));
+      }
+      catch (IOException e)
+      {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    public long estimateSize(Object value)
+    {
+      ResultCell cell = (ResultCell)value;
+      return 96 + 2 * cell.mLexical.length();
+    }
+  };
+
+  private final Kind mKind;
+  private final String mLexical;
+  private final String mLanguage;
+  private final String mDatatype;
+  private String mShortForm;
+
+  public ResultCell(Kind kind, String lexical, String language, String datatype)
+  {
+    mKind = kind;
+    mLexical = lexical;
+    mLanguage = language;
+    mDatatype = datatype;
+  }
+
+  public static ResultCell create(Value value)
+  {
+    if (null == value)
+      return null;
+
+    if (value instanceof Literal)
+    {
+      Literal literal = (Literal)value;
+      return new ResultCell(Kind.LITERAL, literal.getLabel(),
+        literal.getLanguage(), null == literal.getDatatype()
+          ? null
+          : literal.getDatatype().stringValue());
+    }
+
+    return new ResultCell(value instanceof BNode
+      ? Kind.BLANK_NODE
+      : Kind.URI, value.stringValue(), null, null);
+  }
+
+  public Kind getKind()
+  {
+    return mKind;
+  }
+
+  /** the URI, blank node id or literal label */
+
+  public String getLexicalForm()
+  {
+    return mLexical;
+  }
+
+  public String getLanguage()
+  {
+    return mLanguage;
+  }
+
+  public String getDatatype()
+  {
+    return mDatatype;
+  }
+
+  /** the form used in a SPARQL query */
+
+  public String getCanonical()
+  {
+    switch (mKind)
+    {
+    case URI:
+      return "<" + mLexical + ">";
+    case BLANK_NODE:
+      return "_:" + mLexical;
+    default:
+      String base = mLexical.replaceAll("\"", "\\\\\"");
+      String quote = (base.contains("\n") || base.contains("\r"))
+        ? "\"\"\""
+        : "\"";
+      return quote + base + quote + suffix("<" + mDatatype + ">");
+    }
+  }
+
+  /** the short form, with URIs written as prefixed names where possible */
+
+  public String getShortForm(ResourceManager resourceManager)
+  {
+    String shortForm = mShortForm;
+    if (null == shortForm)
+    {
+      if (mKind == Kind.URI)
+        shortForm = resourceManager.shrinkUri(mLexical);
+      else if (null != mDatatype)
+      {
+        String datatype = resourceManager.shrinkUri(mDatatype);
+        shortForm = "\"" + mLexical + "\"" + suffix(datatype.equals(mDatatype)
+          ? "<" + mDatatype + ">"
+          : datatype);
+      }
+      else
+        shortForm = toString();
+      mShortForm = shortForm;
+    }
+
+    return shortForm;
+  }
+
+  private String suffix(String datatype)
+  {
+    return null != mLanguage
+      ? ParsedResource.LANGUAGE_SEPARATOR + mLanguage
+      : null != mDatatype
+        ? ParsedResource.DATATYPE_SEPARATOR + datatype
+        : "";
+  }
+
+  /** the long form, the same as the string form of the Sesame value */
+
+  public String toString()
+  {
+    switch (mKind)
+    {
+    case URI:
+      return mLexical;
+    case BLANK_NODE:
+      return "_:" + mLexical;
+    default:
+      return "\"" + mLexical + "\"" + suffix("<" + mDatatype + ">");
+    }
+  }
+
+  public boolean equals(Object other)
+  {
+    if (!(other instanceof ResultCell))
+      return false;
+
+    ResultCell cell = (ResultCell)other;
+    return mKind == cell.mKind && mLexical.equals(cell.mLexical) &&
+      equal(mLanguage, cell.mLanguage) && equal(mDatatype, cell.mDatatype);
+  }
+
+  public int hashCode()
+  {
+    int hash = 31 * mKind.ordinal() + mLexical.hashCode();
+    if (null != mLanguage)
+      hash = 31 * hash + mLanguage.hashCode();
+    if (null != mDatatype)
+      hash = 31 * hash + mDatatype.hashCode();
+    return hash;
+  }
+
+  private static boolean equal(String a, String b)
+  {
+    return null == a
+      ? null == b
+      : a.equals(b);
+  }
+
+  private static void writeString(DataOutputStream out, String string)
+    throws IOException
+  {
+    if (null == string)
+    {
+      out.writeInt(-1);
+      return;
+    }
+
+    byte[] bytes = string.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException
+  {
+    int length = in.readInt();
+    if (length < 0)
+      return null;
+
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+}
@@ -0,0 +1,331 @@
+package org.trebor.splink;
+
+import static org.trebor.splink.MessageHandler.Type.STATUS;
+
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Filter box over the result table. As the filter text changes the rows
+ * which match it are found by a {@link ResultIndex} on a background thread
+ * and shown through the table's {@link ResultRowSorter}. The index is built
+ * when the filter box gets the focus and grows as rows arrive, so typing
+ * only searches it.
+ */
+
+@SuppressWarnings("serial")
+public class ResultFilter extends JPanel
+{
+  public static final Logger log = Logger.getLogger(ResultFilter.class);
+
+  /** wait this long after the last keystroke before filtering */
+  public static final int DELAY = 150;
+
+  private static final String ALL_COLUMNS = "all columns";
+
+  private final Splink mSplink;
+  private final JTable mTable;
+  private final JTextField mText = new JTextField(30);
+  private final JComboBox mColumn = new JComboBox();
+  private final JCheckBox mRegex = new JCheckBox("regex");
+  private final Timer mTimer;
+  private final QueryExecutor mExecutor = new QueryExecutor("filter", 1, 16);
+  private final AtomicInteger mGeneration = new AtomicInteger();
+  private ResultTableModel mModel;
+
+  // used only on the filter thread
+
+  private ResultIndex mIndex;
+  private ResultTableModel mIndexedModel;
+  private boolean mIndexedLongUri;
+
+  private final TableModelListener mRowListener = new TableModelListener()
+  {
+    public void tableChanged(TableModelEvent e)
+    {
+      // rows which arrive while filtering are hidden until filtered
+
+      if (TableModelEvent.INSERT == e.getType() && isFiltering())
+        mTimer.restart();
+    }
+  };
+
+  public ResultFilter(Splink splink, JTable table)
+  {
+    super(new FlowLayout(FlowLayout.LEFT, 4, 0));
+    mSplink = splink;
+    mTable = table;
+
+    mTimer = new Timer(DELAY, new ActionListener()
+    {
+      public void actionPerformed(ActionEvent e)
+      {
+        apply();
+      }
+    });
+    mTimer.setRepeats(false);
+
+    mText.getDocument().addDocumentListener(new DocumentListener()
+    {
+      public void insertUpdate(DocumentEvent e)
+      {
+        mTimer.restart();
+      }
+
+      public void removeUpdate(DocumentEvent e)
+      {
+        mTimer.restart();
+      }
+
+      public void changedUpdate(DocumentEvent e)
+      {
+        mTimer.restart();
+      }
+    });
+    mText.addFocusListener(new FocusAdapter()
+    {
+      public void focusGained(FocusEvent e)
+      {
+        prepare();
+      }
+    });
+    ActionListener restart = new ActionListener()
+    {
+      public void actionPerformed(ActionEvent e)
+      {
+        mTimer.restart();
+      }
+    };
+    mColumn.addActionListener(restart);
+    mRegex.addActionListener(restart);
+
+    add(new JLabel("Filter:"));
+    add(mText);
+    add(new JLabel("in"));
+    add(mColumn);
+    add(mRegex);
+    reset();
+  }
+
+  /**
+   * Start filtering a newly shown result, called on the event thread after
+   * the table, or whatever replaced it, is in place.
+   */
+
+  public void reset()
+  {
+    if (null != mModel)
+      mModel.removeTableModelListener(mRowListener);
+
+    mModel = mTable.isShowing() &&
+      mTable.getModel() instanceof ResultTableModel &&
+      mTable.getRowSorter() instanceof ResultRowSorter
+      ? (ResultTableModel)mTable.getModel()
+      : null;
+
+    mGeneration.incrementAndGet();
+    mText.setText("");
+    mColumn.removeAllItems();
+    mColumn.addItem(ALL_COLUMNS);
+    if (null != mModel)
+    {
+      for (int c = 0; c < mModel.getColumnCount(); ++c)
+        mColumn.addItem(mModel.getColumnName(c));
+      mModel.addTableModelListener(mRowListener);
+    }
+
+    boolean enabled = null != mModel;
+    mText.setEnabled(enabled);
+    mColumn.setEnabled(enabled);
+    mRegex.setEnabled(enabled);
+
+    // let go of the index of the previous result
+
+    submit(new Runnable()
+    {
+      public void run()
+      {
+        mIndex = null;
+        mIndexedModel = null;
+      }
+    });
+  }
+
+  /** filter again, for when the displayed text of values changes */
+
+  public void refresh()
+  {
+    if (isFiltering())
+      mTimer.restart();
+  }
+
+  public void focus()
+  {
+    mText.requestFocusInWindow();
+    mText.selectAll();
+  }
+
+  public boolean isFiltering()
+  {
+    return null != mModel && mText.getText().length() > 0;
+  }
+
+  /** index the result in the background before anything is typed */
+
+  private void prepare()
+  {
+    final ResultTableModel model = mModel;
+    final boolean longUri = mSplink.showLongUri();
+    if (null != model)
+      submit(new Runnable()
+      {
+        public void run()
+        {
+          if (!model.acquire())
+            return;
+          try
+          {
+            getIndex(model, longUri);
+          }
+          finally
+          {
+            model.release();
+          }
+        }
+      });
+  }
+
+  private void apply()
+  {
+    final ResultTableModel model = mModel;
+    if (null == model || !(mTable.getRowSorter() instanceof ResultRowSorter))
+      return;
+
+    final ResultRowSorter sorter = (ResultRowSorter)mTable.getRowSorter();
+    final String text = mText.getText();
+    final int column = mColumn.getSelectedIndex() - 1;
+    final boolean regex = mRegex.isSelected();
+    final boolean longUri = mSplink.showLongUri();
+    final int generation = mGeneration.incrementAndGet();
+
+    if (text.length() == 0)
+    {
+      if (sorter.isFiltered())
+      {
+        sorter.setIncludedRows(null);
+        mSplink.handleMessage(STATUS, "rows: %,d", model.getRowCount());
+      }
+      return;
+    }
+
+    submit(new Runnable()
+    {
+      public void run()
+      {
+        // a newer filter makes this one pointless, as does a result which
+        // is no longer shown
+
+        if (generation != mGeneration.get() || !model.acquire())
+          return;
+
+        long start = System.currentTimeMillis();
+        try
+        {
+          ResultIndex index = getIndex(model, longUri);
+          final int[] rows = index.filter(column, text, regex);
+          final int indexedRows = index.getIndexedRows();
+          final long elapsed = System.currentTimeMillis() - start;
+          SwingUtilities.invokeLater(new Runnable()
+          {
+            public void run()
+            {
+              if (generation != mGeneration.get() ||
+                mTable.getRowSorter() != sorter)
+                return;
+              sorter.setIncludedRows(rows);
+              mSplink.handleMessage(STATUS,
+                "showing %,d of %,d rows (%,d ms)", rows.length, indexedRows,
+                elapsed);
+            }
+          });
+        }
+        catch (final PatternSyntaxException e)
+        {
+          SwingUtilities.invokeLater(new Runnable()
+          {
+            public void run()
+            {
+              if (generation == mGeneration.get())
+                mSplink.handleWarning(STATUS, "invalid regular expression: %s",
+                  e.getDescription());
+            }
+          });
+        }
+        finally
+        {
+          model.release();
+        }
+      }
+    });
+  }
+
+  /** the index of a model, brought up to date, called on the filter thread */
+
+  private ResultIndex getIndex(ResultTableModel model, final boolean longUri)
+  {
+    if (null == mIndex || model != mIndexedModel || longUri != mIndexedLongUri)
+    {
+      mIndex = new ResultIndex(model, new ResultIndex.Display()
+      {
+        public String getText(Object value)
+        {
+          return mSplink.getDisplayValue(value, longUri);
+        }
+      });
+      mIndexedModel = model;
+      mIndexedLongUri = longUri;
+    }
+
+    long start = System.currentTimeMillis();
+    int rows = mIndex.getIndexedRows();
+    mIndex.update();
+    if (mIndex.getIndexedRows() != rows)
+      log.debug(String.format("indexed %,d rows in %,d ms, %,d trigrams",
+        mIndex.getIndexedRows() - rows, System.currentTimeMillis() - start,
+        mIndex.getTrigramCount()));
+    return mIndex;
+  }
+
+  private void submit(Runnable task)
+  {
+    try
+    {
+      mExecutor.submit("filter results", task);
+    }
+    catch (RejectedExecutionException e)
+    {
+      log.warn("filter busy, dropped a request");
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.openrdf.query.GraphQuery;
+import org.openrdf.query.GraphQueryResult;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.query.resultio.TupleQueryResultParserRegistry;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.http.HTTPRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFParserRegistry;
+
+/**
+ * The formats query results are sent in by the server. Tuple results may come
+ * as compact binary, JSON or verbose XML, and graph results in any RDF format
+ * which can be parsed here. The preferred formats are set on each
+ * {@link HTTPRepository}, and the same query can be timed in each format to
+ * find the fastest one for a server and link.
+ */
+
+public class ResultFormats
+{
+  public static final Logger log = Logger.getLogger(ResultFormats.class);
+
+  /** the number of timed runs of a query in each format, the best counts */
+
+  public static final int ROUNDS = 2;
+
+  // tuple formats which keep value types, the others flatten them to text
+
+  private static final TupleQueryResultFormat[] TUPLE_FORMATS =
+  {
+    TupleQueryResultFormat.BINARY,
+    TupleQueryResultFormat.JSON,
+    TupleQueryResultFormat.SPARQL,
+  };
+
+  /** the time taken to read a result in one format */
+
+  public static class Timing
+  {
+    private final String mFormat;
+    private final long mRows;
+    private final long mMillis;
+
+    public Timing(String format, long rows, long millis)
+    {
+      mFormat = format;
+      mRows = rows;
+      mMillis = millis;
+    }
+
+    public String getFormat()
+    {
+      return mFormat;
+    }
+
+    public long getRows()
+    {
+      return mRows;
+    }
+
+    public long getMillis()
+    {
+      return mMillis;
+    }
+
+    public String toString()
+    {
+      return format("%s %,d ms", mFormat, mMillis);
+    }
+  }
+
+  /** names of the tuple result formats which can be read */
+
+  public static List<String> getTupleFormats()
+  {
+    List<String> names = new ArrayList<String>();
+    for (TupleQueryResultFormat format : TUPLE_FORMATS)
+      if (TupleQueryResultParserRegistry.getInstance().has(format))
+        names.add(format.getName());
+    return names;
+  }
+
+  /** names of the graph result formats which can be read */
+
+  public static List<String> getGraphFormats()
+  {
+    List<String> names = new ArrayList<String>();
+    for (RDFFormat format : RDFFormat.values())
+      if (RDFParserRegistry.getInstance().has(format))
+        names.add(format.getName());
+    return names;
+  }
+
+  /** the tuple result format of a name, or null if it can not be read */
+
+  public static TupleQueryResultFormat getTupleFormat(String name)
+  {
+    for (TupleQueryResultFormat format : TUPLE_FORMATS)
+      if (format.getName().equals(name) &&
+        TupleQueryResultParserRegistry.getInstance().has(format))
+        return format;
+    return null;
+  }
+
+  /** the graph result format of a name, or null if it can not be read */
+
+  public static RDFFormat getGraphFormat(String name)
+  {
+    RDFFormat format = RDFFormat.valueOf(name);
+    return null != format && RDFParserRegistry.getInstance().has(format)
+      ? format
+      : null;
+  }
+
+  /**
+   * Ask the server for results in the named formats. A format which can not
+   * be read is ignored, leaving the default.
+   */
+
+  public static void configure(HTTPRepository repository, String tupleFormat,
+    String graphFormat)
+  {
+    TupleQueryResultFormat tuple = getTupleFormat(tupleFormat);
+    if (null != tuple)
+      repository.setPreferredTupleQueryResultFormat(tuple);
+    else
+      log.warn("unknown tuple result format " + tupleFormat);
+
+    RDFFormat graph = getGraphFormat(graphFormat);
+    if (null != graph)
+      repository.setPreferredRDFFormat(graph);
+    else
+      log.warn("unknown graph result format " + graphFormat);
+  }
+
+  /**
+   * Time reading the whole result of a query in each format the server may
+   * send it in, evaluated as the query itself would be. Each format is read
+   * on a repository object of its own, after an untimed run which warms up
+   * the server. A format which fails is left out and logged.
+   */
+
+  public static List<Timing> compare(String serverUrl, String repositoryName,
+    String query, QueryLanguage language, boolean graph,
+    boolean includeInferred, int timeout)
+  {
+    List<String> formats = graph
+      ? getGraphFormats()
+      : getTupleFormats();
+    List<Timing> timings = new ArrayList<Timing>();
+    try
+    {
+      run(serverUrl, repositoryName, query, language, graph, includeInferred,
+        timeout, formats.get(0));
+    }
+    catch (Exception e)
+    {
+      log.warn("warming up with " + formats.get(0), e);
+    }
+    for (String format : formats)
+    {
+      try
+      {
+        Timing best = null;
+        for (int i = 0; i < ROUNDS; ++i)
+        {
+          Timing timing = run(serverUrl, repositoryName, query, language,
+            graph, includeInferred, timeout, format);
+          if (null == best || timing.getMillis() < best.getMillis())
+            best = timing;
+        }
+        timings.add(best);
+      }
+      catch (Exception e)
+      {
+        log.warn("comparing " + format, e);
+      }
+    }
+    return timings;
+  }
+
+  private static Timing run(String serverUrl, String repositoryName,
+    String query, QueryLanguage language, boolean graph,
+    boolean includeInferred, int timeout, String format) throws Exception
+  {
+    HTTPRepository repository = new HTTPRepository(serverUrl, repositoryName);
+    repository.initialize();
+    if (graph)
+      repository.setPreferredRDFFormat(getGraphFormat(format));
+    else
+      repository.setPreferredTupleQueryResultFormat(getTupleFormat(format));
+
+    RepositoryConnection connection = repository.getConnection();
+    try
+    {
+      long rows = 0;
+      long start = System.nanoTime();
+      if (graph)
+      {
+        GraphQuery graphQuery = connection.prepareGraphQuery(language, query);
+        graphQuery.setMaxQueryTime(timeout);
+        graphQuery.setIncludeInferred(includeInferred);
+        GraphQueryResult result = graphQuery.evaluate();
+        try
+        {
+          for (; result.hasNext(); result.next())
+            ++rows;
+        }
+        finally
+        {
+          result.close();
+        }
+      }
+      else
+      {
+        TupleQuery tupleQuery = connection.prepareTupleQuery(language, query);
+        tupleQuery.setMaxQueryTime(timeout);
+        tupleQuery.setIncludeInferred(includeInferred);
+        TupleQueryResult result = tupleQuery.evaluate();
+        try
+        {
+          for (; result.hasNext(); result.next())
+            ++rows;
+        }
+        finally
+        {
+          result.close();
+        }
+      }
+      return new Timing(format, rows, (System.nanoTime() - start) / 1000000);
+    }
+    finally
+    {
+      connection.close();
+      repository.shutDown();
+    }
+  }
+}
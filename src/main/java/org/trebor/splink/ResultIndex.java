@@ -0,0 +1,425 @@
+package org.trebor.splink;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+/**
+ * Trigram index over the values of a {@link ResultTableModel}, used to find
+ * the rows which contain a substring or match a regular expression without
+ * looking at every row. Each distinct value is indexed once under every
+ * three character sequence of its lower case display text, so a search
+ * only checks values which hold all the trigrams of the search text. The
+ * index grows with the model through {@link #update()} and is not thread
+ * safe, it is meant to be used from one background thread.
+ */
+
+public class ResultIndex
+{
+  public static final int ALL_COLUMNS = -1;
+  public static final int GRAM = 3;
+
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  private static final char[] METACHARACTERS = ".[]{}()*+?^$|\\".toCharArray();
+
+  /** provides the text a value is searched by */
+
+  public interface Display
+  {
+    String getText(Object value);
+  }
+
+  private final ResultTableModel mModel;
+  private final Display mDisplay;
+  private int mIndexedRows;
+  private int mIndexedIds = ValueDictionary.NULL_ID + 1;
+
+  // open addressed table from trigram to a list of delta coded value ids
+
+  private long[] mKeys = new long[INITIAL_CAPACITY];
+  private byte[][] mPostings = new byte[INITIAL_CAPACITY][];
+  private int[] mLengths = new int[INITIAL_CAPACITY];
+  private int[] mLast = new int[INITIAL_CAPACITY];
+  private int[] mCounts = new int[INITIAL_CAPACITY];
+  private int mTrigrams;
+
+  public ResultIndex(ResultTableModel model, Display display)
+  {
+    mModel = model;
+    mDisplay = display;
+  }
+
+  /** index the values of rows added since the last update */
+
+  public void update()
+  {
+    int rowCount = mModel.getRowCount();
+    int columnCount = mModel.getColumnCount();
+    int maxId = mIndexedIds - 1;
+    for (int r = mIndexedRows; r < rowCount; ++r)
+      for (int c = 0; c < columnCount; ++c)
+        maxId = Math.max(maxId, mModel.getValueId(r, c));
+
+    // ids are handed out in order, so new values are the ones above the last
+
+    for (int id = mIndexedIds; id <= maxId; ++id)
+    {
+      String text = getText(id);
+      if (null != text)
+        add(id, text.toLowerCase());
+    }
+
+    mIndexedIds = maxId + 1;
+    mIndexedRows = rowCount;
+  }
+
+  public int getIndexedRows()
+  {
+    return mIndexedRows;
+  }
+
+  public int getTrigramCount()
+  {
+    return mTrigrams;
+  }
+
+  /**
+   * Find the indexed rows with a value in the given column, or any column,
+   * which contains the search text, ignoring case, or which matches it as a
+   * regular expression.
+   *
+   * @return the matching model rows in ascending order
+   */
+
+  public int[] filter(int column, String search, boolean regex)
+  {
+    Pattern pattern = null;
+    String required = search.toLowerCase();
+    if (regex)
+    {
+      pattern = Pattern.compile(search, Pattern.CASE_INSENSITIVE |
+        Pattern.UNICODE_CASE);
+      required = requiredLiteral(search).toLowerCase();
+    }
+
+    BitSet candidates = candidates(required);
+    BitSet checked = new BitSet();
+    BitSet matched = new BitSet();
+    int firstColumn = ALL_COLUMNS == column
+      ? 0
+      : column;
+    int lastColumn = ALL_COLUMNS == column
+      ? mModel.getColumnCount() - 1
+      : column;
+
+    int[] rows = new int[Math.min(mIndexedRows, 1024)];
+    int count = 0;
+    for (int r = 0; r < mIndexedRows; ++r)
+      for (int c = firstColumn; c <= lastColumn; ++c)
+      {
+        int id = mModel.getValueId(r, c);
+        if (ValueDictionary.NULL_ID == id ||
+          (null != candidates && !candidates.get(id)))
+          continue;
+
+        // each value is checked once, however many rows hold it
+
+        if (!checked.get(id))
+        {
+          checked.set(id);
+          if (isMatch(getText(id), required, pattern))
+            matched.set(id);
+        }
+
+        if (matched.get(id))
+        {
+          if (count == rows.length)
+            rows = Arrays.copyOf(rows, rows.length * 2);
+          rows[count++] = r;
+          break;
+        }
+      }
+
+    return Arrays.copyOf(rows, count);
+  }
+
+  private static boolean isMatch(String text, String required, Pattern pattern)
+  {
+    if (null == text)
+      return false;
+    return null == pattern
+      ? text.toLowerCase().contains(required)
+      : pattern.matcher(text).find();
+  }
+
+  /**
+   * The ids of values which hold every trigram of the text, or null if the
+   * text is too short to narrow the search.
+   */
+
+  private BitSet candidates(String text)
+  {
+    if (text.length() < GRAM)
+      return null;
+
+    // start from the rarest trigram, the others only remove ids
+
+    int grams = text.length() - GRAM + 1;
+    int[] slots = new int[grams];
+    for (int i = 0; i < grams; ++i)
+    {
+      slots[i] = find(pack(text, i));
+      if (slots[i] < 0)
+        return new BitSet();
+    }
+    int rarest = 0;
+    for (int i = 1; i < grams; ++i)
+      if (mCounts[slots[i]] < mCounts[slots[rarest]])
+        rarest = i;
+
+    BitSet candidates = decode(slots[rarest]);
+    for (int i = 0; i < grams && !candidates.isEmpty(); ++i)
+      if (i != rarest && slots[i] != slots[rarest])
+        candidates.and(decode(slots[i]));
+    return candidates;
+  }
+
+  private BitSet decode(int slot)
+  {
+    BitSet ids = new BitSet();
+    byte[] posting = mPostings[slot];
+    int length = mLengths[slot];
+    int id = 0;
+    for (int i = 0; i < length;)
+    {
+      int delta = 0;
+      int shift = 0;
+      byte b;
+      do
+      {
+        b = posting[i++];
+        delta |= (b & 0x7F) << shift;
+        shift += 7;
+      }
+      while (b < 0);
+      id += delta;
+      ids.set(id);
+    }
+    return ids;
+  }
+
+  private String getText(int id)
+  {
+    Object value = mModel.getDictionary().get(id);
+    return null == value
+      ? null
+      : mDisplay.getText(value);
+  }
+
+  private void add(int id, String text)
+  {
+    for (int i = 0; i + GRAM <= text.length(); ++i)
+    {
+      int slot = insert(pack(text, i));
+
+      // a value is listed once under a trigram it holds several times
+
+      if (mLast[slot] == id)
+        continue;
+      append(slot, id - mLast[slot]);
+      mLast[slot] = id;
+      ++mCounts[slot];
+    }
+  }
+
+  private void append(int slot, int delta)
+  {
+    byte[] posting = mPostings[slot];
+    int length = mLengths[slot];
+    if (null == posting)
+      posting = mPostings[slot] = new byte[8];
+    else if (length + 5 > posting.length)
+      posting = mPostings[slot] = Arrays.copyOf(posting,
+        Math.max(length + 5, posting.length * 2));
+
+    while ((delta & ~0x7F) != 0)
+    {
+      posting[length++] = (byte)((delta & 0x7F) | 0x80);
+      delta >>>= 7;
+    }
+    posting[length++] = (byte)delta;
+    mLengths[slot] = length;
+  }
+
+  /** pack three characters into a key which is never zero */
+
+  private static long pack(String text, int index)
+  {
+    return 1L << 48 | (long)text.charAt(index) << 32 |
+      (long)text.charAt(index + 1) << 16 | text.charAt(index + 2);
+  }
+
+  private static int hash(long key)
+  {
+    key *= 0x9E3779B97F4A7C15L;
+    return (int)(key ^ key >>> 32);
+  }
+
+  private int find(long key)
+  {
+    int mask = mKeys.length - 1;
+    for (int slot = hash(key) & mask; 0 != mKeys[slot]; slot = slot + 1 & mask)
+      if (key == mKeys[slot])
+        return slot;
+    return -1;
+  }
+
+  private int insert(long key)
+  {
+    int mask = mKeys.length - 1;
+    int slot = hash(key) & mask;
+    for (; 0 != mKeys[slot]; slot = slot + 1 & mask)
+      if (key == mKeys[slot])
+        return slot;
+
+    mKeys[slot] = key;
+    if (++mTrigrams * 2 > mKeys.length)
+    {
+      rehash();
+      return find(key);
+    }
+    return slot;
+  }
+
+  private void rehash()
+  {
+    long[] keys = mKeys;
+    byte[][] postings = mPostings;
+    int[] lengths = mLengths;
+    int[] last = mLast;
+    int[] counts = mCounts;
+
+    int capacity = keys.length * 2;
+    mKeys = new long[capacity];
+    mPostings = new byte[capacity][];
+    mLengths = new int[capacity];
+    mLast = new int[capacity];
+    mCounts = new int[capacity];
+
+    int mask = capacity - 1;
+    for (int i = 0; i < keys.length; ++i)
+    {
+      if (0 == keys[i])
+        continue;
+      int slot = hash(keys[i]) & mask;
+      while (0 != mKeys[slot])
+        slot = slot + 1 & mask;
+      mKeys[slot] = keys[i];
+      mPostings[slot] = postings[i];
+      mLengths[slot] = lengths[i];
+      mLast[slot] = last[i];
+      mCounts[slot] = counts[i];
+    }
+  }
+
+  /**
+   * The longest run of plain characters which every match of a regular
+   * expression must contain, or an empty string if there is none that can
+   * be found safely. Alternation, quoting and inline flags give up.
+   */
+
+  static String requiredLiteral(String regex)
+  {
+    if (regex.contains("\\Q") || regex.contains("(?"))
+      return "";
+    for (int i = 0; i < regex.length(); ++i)
+      if ('\\' == regex.charAt(i))
+        ++i;
+      else if ('|' == regex.charAt(i))
+        return "";
+
+    String longest = "";
+    StringBuilder run = new StringBuilder();
+    int depth = 0;
+    for (int i = 0; i < regex.length(); ++i)
+    {
+      char c = regex.charAt(i);
+      boolean literal = true;
+      if ('\\' == c)
+      {
+        // escaped punctuation is literal, escaped letters are classes
+
+        if (i + 1 >= regex.length() ||
+          Character.isLetterOrDigit(regex.charAt(i + 1)))
+          literal = false;
+        else
+          c = regex.charAt(i + 1);
+        ++i;
+      }
+      else if (isMetacharacter(c))
+      {
+        literal = false;
+
+        // an optional character does not have to be there
+
+        if (('*' == c || '?' == c || '{' == c) && run.length() > 0)
+          run.setLength(run.length() - 1);
+      }
+
+      if (literal)
+      {
+        run.append(c);
+        continue;
+      }
+
+      // a group may be optional, so only runs outside groups count
+
+      if (0 == depth && run.length() > longest.length())
+        longest = run.toString();
+      run.setLength(0);
+
+      if ('[' == c)
+        i = skipClass(regex, i);
+      else if ('{' == c)
+        i = Math.max(i, regex.indexOf('}', i));
+      else if ('(' == c)
+        ++depth;
+      else if (')' == c)
+        --depth;
+    }
+
+    return 0 == depth && run.length() > longest.length()
+      ? run.toString()
+      : longest;
+  }
+
+  private static boolean isMetacharacter(char c)
+  {
+    for (char meta : METACHARACTERS)
+      if (meta == c)
+        return true;
+    return false;
+  }
+
+  /** the index of the bracket which ends a character class */
+
+  private static int skipClass(String regex, int start)
+  {
+    int i = start + 1;
+    if (i < regex.length() && '^' == regex.charAt(i))
+      ++i;
+    if (i < regex.length() && ']' == regex.charAt(i))
+      ++i;
+    for (int depth = 1; i < regex.length(); ++i)
+    {
+      char c = regex.charAt(i);
+      if ('\\' == c)
+        ++i;
+      else if ('[' == c)
+        ++depth;
+      else if (']' == c && 0 == --depth)
+        return i;
+    }
+    return regex.length();
+  }
+}
@@ -0,0 +1,794 @@
+package org.trebor.splink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+/**
+ * Sorts a {@link ResultTableModel} by typed keys. The first time a column
+ * is sorted each distinct value in it is given a rank: numeric literals
+ * compare as numbers, date literals as instants and everything else as
+ * text, so "10"^^xsd:int sorts after "9"^^xsd:int. Rows are then ordered by
+ * a stable counting sort over the ranks, one pass per sort key, which runs
+ * in parallel for large results. Ranks are kept until the rows change, so
+ * toggling the sort order or returning to a column sorts without comparing
+ * a single value. The view can also be limited to a set of model rows, as
+ * found by a {@link ResultIndex}.
+ * <p>
+ * Rows appended to a sorted result, as they are while a query streams in,
+ * extend the ranks of the earlier rows rather than replacing them. The new
+ * order is computed on the executor and shown once it is ready, with at
+ * most one such sort running, so the event thread never ranks a growing
+ * result over and over.
+ */
+
+public class ResultRowSorter extends RowSorter<ResultTableModel>
+{
+  public static final Logger log = Logger.getLogger(ResultRowSorter.class);
+
+  public static final int MAX_SORT_KEYS = 3;
+
+  /** results with fewer rows are sorted on the calling thread */
+  public static final int PARALLEL_ROWS = 1 << 17;
+
+  // value categories, in ascending sort order
+
+  private static final byte NULL = 0;
+  private static final byte NUMBER = 1;
+  private static final byte DATE = 2;
+  private static final byte TEXT = 3;
+  private static final byte RESOURCE = 4;
+  private static final byte BLANK = 5;
+
+  private static final List<String> NUMERIC_TYPES = Arrays.asList(
+    XMLSchema.INTEGER.stringValue(), XMLSchema.INT.stringValue(),
+    XMLSchema.LONG.stringValue(), XMLSchema.SHORT.stringValue(),
+    XMLSchema.BYTE.stringValue(), XMLSchema.DECIMAL.stringValue(),
+    XMLSchema.DOUBLE.stringValue(), XMLSchema.FLOAT.stringValue(),
+    XMLSchema.NON_NEGATIVE_INTEGER.stringValue(),
+    XMLSchema.NON_POSITIVE_INTEGER.stringValue(),
+    XMLSchema.NEGATIVE_INTEGER.stringValue(),
+    XMLSchema.POSITIVE_INTEGER.stringValue(),
+    XMLSchema.UNSIGNED_LONG.stringValue(),
+    XMLSchema.UNSIGNED_INT.stringValue(),
+    XMLSchema.UNSIGNED_SHORT.stringValue(),
+    XMLSchema.UNSIGNED_BYTE.stringValue());
+
+  private static final List<String> DATE_TYPES = Arrays.asList(
+    XMLSchema.DATETIME.stringValue(), XMLSchema.DATE.stringValue());
+
+  /**
+   * The rank of every row in one column, and of each distinct value id in
+   * ascending id order, so that appended rows can be ranked by lookup.
+   */
+
+  private static class Ranks
+  {
+    private final int[] mRanks;
+    private final int mCount;
+    private final int[] mDistinct;
+    private final int[] mRankOf;
+
+    Ranks(int[] ranks, int count, int[] distinct, int[] rankOf)
+    {
+      mRanks = ranks;
+      mCount = count;
+      mDistinct = distinct;
+      mRankOf = rankOf;
+    }
+  }
+
+  /** one slice of a parallel pass over the rows */
+
+  private interface Pass
+  {
+    void run(int part, int from, int to);
+  }
+
+  private final ResultTableModel mModel;
+  private final QueryExecutor mExecutor;
+  private final int mThreads;
+  private final Ranks[] mRanks;
+  private List<SortKey> mSortKeys = Collections.emptyList();
+  private int[] mIncludedRows;
+  private int[] mViewToModel;
+  private int[] mModelToView;
+
+  // the rows covered by the shown order, and a count of changes to it so
+  // that a background sort which was overtaken is dropped
+
+  private int mSortedRows;
+  private int mGeneration;
+  private boolean mResortPending;
+
+  /**
+   * Create a sorter which uses up to the given number of threads from the
+   * executor for large results, a null executor sorts on the calling thread.
+   */
+
+  public ResultRowSorter(ResultTableModel model, QueryExecutor executor,
+    int threads)
+  {
+    mModel = model;
+    mExecutor = executor;
+    mThreads = null == executor
+      ? 1
+      : Math.max(1, threads);
+    mRanks = new Ranks[model.getColumnCount()];
+  }
+
+  public ResultTableModel getModel()
+  {
+    return mModel;
+  }
+
+  public void toggleSortOrder(int column)
+  {
+    checkColumn(column);
+    List<SortKey> keys = new ArrayList<SortKey>(mSortKeys);
+    if (!keys.isEmpty() && keys.get(0).getColumn() == column)
+      keys.set(0, new SortKey(column,
+        SortOrder.ASCENDING == keys.get(0).getSortOrder()
+          ? SortOrder.DESCENDING
+          : SortOrder.ASCENDING));
+    else
+    {
+      for (int i = keys.size() - 1; i >= 0; --i)
+        if (keys.get(i).getColumn() == column)
+          keys.remove(i);
+      keys.add(0, new SortKey(column, SortOrder.ASCENDING));
+    }
+
+    while (keys.size() > MAX_SORT_KEYS)
+      keys.remove(keys.size() - 1);
+    setSortKeys(keys);
+  }
+
+  public void setSortKeys(List<? extends SortKey> keys)
+  {
+    List<SortKey> sortKeys = null == keys
+      ? Collections.<SortKey>emptyList()
+      : Collections.unmodifiableList(new ArrayList<SortKey>(keys));
+    for (SortKey key : sortKeys)
+      checkColumn(key.getColumn());
+    if (sortKeys.equals(mSortKeys))
+      return;
+
+    mSortKeys = sortKeys;
+    fireSortOrderChanged();
+    sort();
+  }
+
+  public List<? extends SortKey> getSortKeys()
+  {
+    return mSortKeys;
+  }
+
+  /**
+   * Show only the given model rows, which must be in ascending order, or
+   * all rows if null. Rows added to the model later are not shown until the
+   * included rows are set again.
+   */
+
+  public void setIncludedRows(int[] rows)
+  {
+    if (null == rows && null == mIncludedRows)
+      return;
+    mIncludedRows = rows;
+    sort();
+  }
+
+  public boolean isFiltered()
+  {
+    return null != mIncludedRows;
+  }
+
+  public int convertRowIndexToModel(int index)
+  {
+    if (index < 0 || index >= getViewRowCount())
+      throw new IndexOutOfBoundsException("invalid view index: " + index);
+    return null == mViewToModel
+      ? index
+      : mViewToModel[index];
+  }
+
+  public int convertRowIndexToView(int index)
+  {
+    if (index < 0 || index >= getModelRowCount())
+      throw new IndexOutOfBoundsException("invalid model index: " + index);
+    if (null == mViewToModel)
+      return index;
+
+    // rows which are filtered out, or were added since the sort, are not shown
+
+    if (null == mModelToView)
+    {
+      mModelToView = new int[getModelRowCount()];
+      Arrays.fill(mModelToView, -1);
+      for (int i = 0; i < mViewToModel.length; ++i)
+        mModelToView[mViewToModel[i]] = i;
+    }
+    return index < mModelToView.length
+      ? mModelToView[index]
+      : -1;
+  }
+
+  public int getViewRowCount()
+  {
+    return null == mViewToModel
+      ? mModel.getRowCount()
+      : mViewToModel.length;
+  }
+
+  public int getModelRowCount()
+  {
+    return mModel.getRowCount();
+  }
+
+  public void modelStructureChanged()
+  {
+    Arrays.fill(mRanks, null);
+    sort();
+  }
+
+  public void allRowsChanged()
+  {
+    Arrays.fill(mRanks, null);
+    sort();
+  }
+
+  public void rowsInserted(int firstRow, int endRow)
+  {
+    checkRows(firstRow, endRow, getModelRowCount());
+    if (endRow == getModelRowCount() - 1)
+      rowsAppended();
+    else
+      rowsChanged();
+  }
+
+  public void rowsDeleted(int firstRow, int endRow)
+  {
+    checkRows(firstRow, endRow, getModelRowCount() + endRow - firstRow + 1);
+    rowsChanged();
+  }
+
+  public void rowsUpdated(int firstRow, int endRow)
+  {
+    checkRows(firstRow, endRow, getModelRowCount());
+    rowsChanged();
+  }
+
+  public void rowsUpdated(int firstRow, int endRow, int column)
+  {
+    checkColumn(column);
+    rowsUpdated(firstRow, endRow);
+  }
+
+  private void rowsChanged()
+  {
+    Arrays.fill(mRanks, null);
+
+    // unsorted rows map to themselves, so there is nothing to redo
+
+    if (null != mViewToModel || !mSortKeys.isEmpty())
+      sort();
+    else
+      mModelToView = null;
+  }
+
+  /**
+   * Sort appended rows in, keeping the ranks already found. Rows appended to
+   * a result which is only filtered stay hidden until the included rows are
+   * set again.
+   */
+
+  private void rowsAppended()
+  {
+    mModelToView = null;
+    if (!isSorted())
+      return;
+
+    if (null == mExecutor)
+      sort();
+    else
+      sortLater();
+  }
+
+  private boolean isSorted()
+  {
+    for (SortKey key : mSortKeys)
+      if (SortOrder.UNSORTED != key.getSortOrder())
+        return true;
+    return false;
+  }
+
+  /** order the rows by the current sort keys and tell the table */
+
+  private void sort()
+  {
+    int rowCount = getModelRowCount();
+    show(order(mSortKeys, mIncludedRows, mRanks, rowCount), rowCount);
+  }
+
+  /**
+   * Order the rows on the executor and show the order on the event thread,
+   * unless the rows were sorted there in the meantime. Rows appended while
+   * the sort runs are sorted in by another once it is shown.
+   */
+
+  private void sortLater()
+  {
+    if (mResortPending || !mModel.acquire())
+      return;
+    mResortPending = true;
+
+    final int generation = mGeneration;
+    final List<SortKey> keys = mSortKeys;
+    final int[] included = mIncludedRows;
+    final Ranks[] ranks = mRanks.clone();
+    final int rowCount = getModelRowCount();
+    Runnable sort = new Runnable()
+    {
+      public void run()
+      {
+        int[] order = null;
+        try
+        {
+          order = order(keys, included, ranks, rowCount);
+        }
+        finally
+        {
+          mModel.release();
+          final int[] sorted = order;
+          SwingUtilities.invokeLater(new Runnable()
+          {
+            public void run()
+            {
+              mResortPending = false;
+              if (null != sorted && generation == mGeneration)
+              {
+                System.arraycopy(ranks, 0, mRanks, 0, ranks.length);
+                show(sorted, rowCount);
+              }
+              if (isSorted() && mSortedRows < getModelRowCount() &&
+                !mModel.isDisposed())
+                sortLater();
+            }
+          });
+        }
+      }
+    };
+
+    // sort here if the executor is saturated
+
+    try
+    {
+      mExecutor.submit("sort appended rows", sort);
+    }
+    catch (RejectedExecutionException e)
+    {
+      mModel.release();
+      mResortPending = false;
+      sort();
+    }
+  }
+
+  /**
+   * Order the first rows of the model by the given keys, filling in any
+   * ranks which are missing or cover too few rows. Safe to call off the
+   * event thread while the model is held.
+   */
+
+  private int[] order(List<SortKey> keys, int[] included, Ranks[] ranks,
+    int rowCount)
+  {
+    long start = System.currentTimeMillis();
+    int[] order = included;
+    for (int i = keys.size() - 1; i >= 0; --i)
+    {
+      SortKey key = keys.get(i);
+      if (SortOrder.UNSORTED == key.getSortOrder())
+        continue;
+
+      // least significant key first, each pass keeps the order of ties
+
+      if (null == order)
+      {
+        order = new int[rowCount];
+        for (int r = 0; r < order.length; ++r)
+          order[r] = r;
+      }
+      int column = key.getColumn();
+      ranks[column] = getRanks(ranks[column], column, rowCount);
+      order = countingSort(order, ranks[column],
+        SortOrder.DESCENDING == key.getSortOrder());
+    }
+
+    if (order != included)
+      log.debug(String.format("sorted %,d rows in %,d ms", order.length,
+        System.currentTimeMillis() - start));
+    return order;
+  }
+
+  /** show rows in the given order and tell the table */
+
+  private void show(int[] order, int rowCount)
+  {
+    int[] previous = mViewToModel;
+    if (null == previous)
+    {
+      previous = new int[getViewRowCount()];
+      for (int i = 0; i < previous.length; ++i)
+        previous[i] = i;
+    }
+
+    mViewToModel = order;
+    mModelToView = null;
+    mSortedRows = rowCount;
+    ++mGeneration;
+    fireRowSorterChanged(previous);
+  }
+
+  /**
+   * Rank the first rows of a column. Ranks found before are kept as they
+   * are, or extended if rows were appended which hold values already
+   * ranked, otherwise every value is ranked again.
+   */
+
+  private Ranks getRanks(Ranks previous, int column, int rowCount)
+  {
+    if (null != previous && previous.mRanks.length == rowCount)
+      return previous;
+
+    if (null != previous && previous.mRanks.length < rowCount)
+    {
+      int[] extended = Arrays.copyOf(previous.mRanks, rowCount);
+      int r = previous.mRanks.length;
+      for (; r < rowCount; ++r)
+      {
+        int index = Arrays.binarySearch(previous.mDistinct,
+          mModel.getValueId(r, column));
+        if (index < 0)
+          break;
+        extended[r] = previous.mRankOf[index];
+      }
+      if (r == rowCount)
+        return new Ranks(extended, previous.mCount, previous.mDistinct,
+          previous.mRankOf);
+    }
+
+    int[] ids = new int[rowCount];
+    for (int r = 0; r < rowCount; ++r)
+      ids[r] = mModel.getValueId(r, column);
+
+    // distinct ids in the column
+
+    int[] distinct = ids.clone();
+    Arrays.sort(distinct);
+    int count = 0;
+    for (int i = 0; i < distinct.length; ++i)
+      if (0 == count || distinct[i] != distinct[count - 1])
+        distinct[count++] = distinct[i];
+
+    // typed key of each distinct value
+
+    final byte[] categories = new byte[count];
+    final double[] numbers = new double[count];
+    final String[] texts = new String[count];
+    DatatypeFactory dates = createDatatypeFactory();
+    ValueDictionary dictionary = mModel.getDictionary();
+    for (int i = 0; i < count; ++i)
+      classify(dictionary.get(distinct[i]), dates, i, categories, numbers,
+        texts);
+
+    int[] order = new int[count];
+    for (int i = 0; i < count; ++i)
+      order[i] = i;
+    mergeSort(order, new int[count], 0, count, new IntComparator()
+    {
+      public int compare(int a, int b)
+      {
+        return compareKeys(a, b, categories, numbers, texts);
+      }
+    });
+
+    // equal keys share a rank, different ids may hold equal values
+
+    int[] rankOf = new int[count];
+    int rank = 0;
+    for (int i = 0; i < count; ++i)
+    {
+      if (i > 0 &&
+        0 != compareKeys(order[i - 1], order[i], categories, numbers, texts))
+        ++rank;
+      rankOf[order[i]] = rank;
+    }
+
+    for (int r = 0; r < rowCount; ++r)
+      ids[r] = rankOf[Arrays.binarySearch(distinct, 0, count, ids[r])];
+
+    return new Ranks(ids, count > 0
+      ? rank + 1
+      : 0, Arrays.copyOf(distinct, count), rankOf);
+  }
+
+  private static DatatypeFactory createDatatypeFactory()
+  {
+    try
+    {
+      return DatatypeFactory.newInstance();
+    }
+    catch (DatatypeConfigurationException e)
+    {
+      log.warn("dates will sort as text", e);
+      return null;
+    }
+  }
+
+  private static void classify(Object value, DatatypeFactory dates, int index,
+    byte[] categories, double[] numbers, String[] texts)
+  {
+    if (null == value)
+    {
+      categories[index] = NULL;
+      return;
+    }
+
+    if (!(value instanceof ResultCell))
+    {
+      categories[index] = TEXT;
+      texts[index] = value.toString();
+      return;
+    }
+
+    ResultCell cell = (ResultCell)value;
+    texts[index] = cell.getLexicalForm();
+    switch (cell.getKind())
+    {
+    case URI:
+      categories[index] = RESOURCE;
+      return;
+    case BLANK_NODE:
+      categories[index] = BLANK;
+      return;
+    default:
+      categories[index] = TEXT;
+    }
+
+    String datatype = cell.getDatatype();
+    if (null == datatype)
+      return;
+
+    try
+    {
+      String lexical = cell.getLexicalForm().trim();
+      if (NUMERIC_TYPES.contains(datatype))
+      {
+        numbers[index] = "INF".equals(lexical)
+          ? Double.POSITIVE_INFINITY
+          : "-INF".equals(lexical)
+            ? Double.NEGATIVE_INFINITY
+            : Double.parseDouble(lexical);
+        categories[index] = NUMBER;
+      }
+      else if (null != dates && DATE_TYPES.contains(datatype))
+      {
+        numbers[index] = dates.newXMLGregorianCalendar(lexical)
+          .toGregorianCalendar().getTimeInMillis();
+        categories[index] = DATE;
+      }
+    }
+    catch (IllegalArgumentException e)
+    {
+      // malformed numbers and dates sort as text
+    }
+  }
+
+  private static int compareKeys(int a, int b, byte[] categories,
+    double[] numbers, String[] texts)
+  {
+    if (categories[a] != categories[b])
+      return categories[a] - categories[b];
+
+    switch (categories[a])
+    {
+    case NULL:
+      return 0;
+    case NUMBER:
+    case DATE:
+      int result = Double.compare(numbers[a], numbers[b]);
+      if (0 != result)
+        return result;
+      break;
+    default:
+      result = String.CASE_INSENSITIVE_ORDER.compare(texts[a], texts[b]);
+      if (0 != result)
+        return result;
+    }
+    return texts[a].compareTo(texts[b]);
+  }
+
+  private interface IntComparator
+  {
+    int compare(int a, int b);
+  }
+
+  /** stable sort of part of an int array */
+
+  private static void mergeSort(int[] values, int[] scratch, int from, int to,
+    IntComparator comparator)
+  {
+    if (to - from < 16)
+    {
+      for (int i = from + 1; i < to; ++i)
+      {
+        int value = values[i];
+        int j = i;
+        for (; j > from && comparator.compare(values[j - 1], value) > 0; --j)
+          values[j] = values[j - 1];
+        values[j] = value;
+      }
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    mergeSort(values, scratch, from, middle, comparator);
+    mergeSort(values, scratch, middle, to, comparator);
+    if (comparator.compare(values[middle - 1], values[middle]) <= 0)
+      return;
+
+    System.arraycopy(values, from, scratch, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; ++i)
+      values[i] = right >= to ||
+        (left < middle && comparator.compare(scratch[left], scratch[right]) <= 0)
+        ? scratch[left++]
+        : scratch[right++];
+  }
+
+  /**
+   * Stable counting sort of rows by rank. Large inputs are split into
+   * slices which are counted and scattered in parallel, each slice writing
+   * to its own offsets so that the order of ties is kept.
+   */
+
+  private int[] countingSort(final int[] order, Ranks ranks,
+    final boolean descending)
+  {
+    final int[] keys = ranks.mRanks;
+    final int range = ranks.mCount;
+    final int last = range - 1;
+    int length = order.length;
+
+    // each slice has its own histogram, so bound their total size
+
+    int parts = length < PARALLEL_ROWS
+      ? 1
+      : (int)Math.min(mThreads, Math.max(1, 4L * length / Math.max(1, range)));
+    final int[][] counts = new int[parts][range];
+    final int[] sorted = new int[length];
+
+    runParts(parts, length, new Pass()
+    {
+      public void run(int part, int from, int to)
+      {
+        int[] count = counts[part];
+        for (int i = from; i < to; ++i)
+        {
+          int key = keys[order[i]];
+          ++count[descending
+            ? last - key
+            : key];
+        }
+      }
+    });
+
+    int offset = 0;
+    for (int key = 0; key < range; ++key)
+      for (int part = 0; part < parts; ++part)
+      {
+        int count = counts[part][key];
+        counts[part][key] = offset;
+        offset += count;
+      }
+
+    runParts(parts, length, new Pass()
+    {
+      public void run(int part, int from, int to)
+      {
+        int[] next = counts[part];
+        for (int i = from; i < to; ++i)
+        {
+          int row = order[i];
+          int key = keys[row];
+          sorted[next[descending
+            ? last - key
+            : key]++] = row;
+        }
+      }
+    });
+
+    return sorted;
+  }
+
+  private void runParts(int parts, int length, final Pass pass)
+  {
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int part = 1; part < parts; ++part)
+    {
+      final int index = part;
+      final int from = (int)((long)length * part / parts);
+      final int to = (int)((long)length * (part + 1) / parts);
+      Runnable slice = new Runnable()
+      {
+        public void run()
+        {
+          pass.run(index, from, to);
+        }
+      };
+
+      // run the slice here if the executor is saturated
+
+      try
+      {
+        futures.add(mExecutor.submit("sort rows", slice));
+      }
+      catch (RejectedExecutionException e)
+      {
+        slice.run();
+      }
+    }
+
+    pass.run(0, 0, (int)((long)length / parts));
+
+    boolean interrupted = false;
+    for (Future<?> future : futures)
+    {
+      while (true)
+      {
+        try
+        {
+          future.get();
+          break;
+        }
+        catch (InterruptedException e)
+        {
+          interrupted = true;
+        }
+        catch (ExecutionException e)
+        {
+          throw new IllegalStateException("sorting rows", e.getCause());
+        }
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private void checkColumn(int column)
+  {
+    if (column < 0 || column >= mModel.getColumnCount())
+      throw new IndexOutOfBoundsException("invalid column: " + column);
+  }
+
+  private static void checkRows(int firstRow, int endRow, int rowCount)
+  {
+    if (firstRow < 0 || endRow < firstRow || endRow >= rowCount)
+      throw new IndexOutOfBoundsException("invalid rows: " + firstRow + " to " +
+        endRow);
+  }
+}
@@ -0,0 +1,236 @@
+package org.trebor.splink;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Read only table model for query results which grows in batches. Each
+ * distinct value is stored once in a {@link ValueDictionary} and each column
+ * is a primitive array of value ids.
+ * <p>
+ * Once the result passes a row count or estimated heap size, later rows and
+ * new distinct values are spilled to memory mapped temporary files, so very
+ * large results are limited by disk rather than heap. Call
+ * {@link #dispose()} when the model is no longer shown to release them.
+ * Work which reads the model off the event thread holds it with
+ * {@link #acquire()} and {@link #release()}, and the files are only released
+ * once the last such reader is done.
+ * <p>
+ * Rows are added by the thread reading the query result and become visible
+ * to the table only when {@link #publishRows()} is called on the event
+ * dispatch thread, which fires a single table event per batch.
+ */
+
+@SuppressWarnings("serial")
+public class ResultTableModel extends AbstractTableModel
+{
+  public static final int INITIAL_CAPACITY = 1024;
+  public static final int NO_SPILL = Integer.MAX_VALUE;
+
+  private final String[] mColumnNames;
+  private final ValueDictionary mDictionary;
+  private final int mSpillRows;
+  private final long mSpillBytes;
+  private volatile int[][] mColumns;
+  private int mCapacity = INITIAL_CAPACITY;
+  private volatile int mAddedCount;
+  private int mRowCount;
+
+  // rows past the spill point, stored row by row
+
+  private volatile int mHeapRows = NO_SPILL;
+  private MappedFile mRowFile;
+
+  // the shown model holds one reference, background readers one each
+
+  private int mReferences = 1;
+  private boolean mDisposed;
+
+  public ResultTableModel(List<String> columns)
+  {
+    this(columns, NO_SPILL, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param spillRows number of rows kept on the heap
+   * @param spillBytes estimated heap size after which rows are spilled
+   */
+
+  public ResultTableModel(List<String> columns, int spillRows, long spillBytes)
+  {
+    this(columns, spillRows, spillBytes, ValueDictionary.STRING_CODEC);
+  }
+
+  /**
+   * @param spillRows number of rows kept on the heap
+   * @param spillBytes estimated heap size after which rows are spilled
+   * @param codec stores the values once they are spilled
+   */
+
+  public ResultTableModel(List<String> columns, int spillRows, long spillBytes,
+    ValueDictionary.Codec codec)
+  {
+    mDictionary = new ValueDictionary(codec);
+    mColumnNames = columns.toArray(new String[columns.size()]);
+    mColumns = new int[mColumnNames.length][INITIAL_CAPACITY];
+    mSpillRows = spillRows;
+    mSpillBytes = spillBytes;
+  }
+
+  /** add a row, called only by the thread reading the result */
+
+  public void addRow(Object[] row) throws IOException
+  {
+    int index = mAddedCount;
+
+    if (null == mRowFile &&
+      (index >= mSpillRows || getEstimatedBytes() >= mSpillBytes))
+      spill();
+
+    if (null != mRowFile)
+    {
+      for (int c = 0; c < mColumnNames.length; ++c)
+        mRowFile.appendInt(mDictionary.intern(row[c]));
+      mAddedCount = index + 1;
+      return;
+    }
+
+    int[][] columns = mColumns;
+    if (index == mCapacity)
+    {
+      mCapacity *= 2;
+      int[][] grown = new int[columns.length][];
+      for (int c = 0; c < columns.length; ++c)
+        grown[c] = Arrays.copyOf(columns[c], mCapacity);
+      columns = grown;
+    }
+
+    for (int c = 0; c < columns.length; ++c)
+      columns[c][index] = mDictionary.intern(row[c]);
+
+    mColumns = columns;
+    mAddedCount = index + 1;
+  }
+
+  private void spill() throws IOException
+  {
+    mDictionary.spill();
+    mRowFile = new MappedFile("splink-rows");
+    mHeapRows = mAddedCount;
+  }
+
+  /** make all added rows visible, called on the event dispatch thread */
+
+  public void publishRows()
+  {
+    int added = mAddedCount;
+    if (added > mRowCount)
+    {
+      int first = mRowCount;
+      mRowCount = added;
+      fireTableRowsInserted(first, added - 1);
+    }
+  }
+
+  /** true if some of the rows are stored on disk */
+
+  public boolean isSpilled()
+  {
+    return NO_SPILL != mHeapRows;
+  }
+
+  /** rough heap footprint of the model */
+
+  public long getEstimatedBytes()
+  {
+    return 4L * mCapacity * mColumnNames.length +
+      mDictionary.getEstimatedBytes();
+  }
+
+  /**
+   * Hold the model while reading it off the event thread. Returns false if
+   * it is already disposed, in which case it must not be read; otherwise
+   * {@link #release()} must be called when done.
+   */
+
+  public synchronized boolean acquire()
+  {
+    if (mDisposed)
+      return false;
+    ++mReferences;
+    return true;
+  }
+
+  /** let go of a model held with {@link #acquire()} */
+
+  public void release()
+  {
+    synchronized (this)
+    {
+      if (--mReferences > 0)
+        return;
+    }
+
+    mDictionary.dispose();
+    if (null != mRowFile)
+      mRowFile.close();
+  }
+
+  /**
+   * Release any spill files once no background reader holds the model, it
+   * may not be shown or acquired afterwards.
+   */
+
+  public void dispose()
+  {
+    synchronized (this)
+    {
+      if (mDisposed)
+        return;
+      mDisposed = true;
+    }
+    release();
+  }
+
+  public synchronized boolean isDisposed()
+  {
+    return mDisposed;
+  }
+
+  public ValueDictionary getDictionary()
+  {
+    return mDictionary;
+  }
+
+  public int getValueId(int row, int column)
+  {
+    int heapRows = mHeapRows;
+    return row < heapRows
+      ? mColumns[column][row]
+      : mRowFile.getInt(4L * ((long)(row - heapRows) * mColumnNames.length +
+        column));
+  }
+
+  public int getRowCount()
+  {
+    return mRowCount;
+  }
+
+  public int getColumnCount()
+  {
+    return mColumnNames.length;
+  }
+
+  public String getColumnName(int column)
+  {
+    return mColumnNames[column];
+  }
+
+  public Object getValueAt(int row, int column)
+  {
+    return mDictionary.get(getValueId(row, column));
+  }
+}
@@ -0,0 +1,465 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.Resource;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.RDFFormat;
+
+/**
+ * Exports a repository with many contexts into several files at once. The
+ * statements in each context are counted, the contexts are dealt out to
+ * shards so each holds about as many statements as the others, and each
+ * shard is exported over a connection of its own into a file of its own.
+ * A manifest written beside the shards lists each file with its statement
+ * count and CRC-32 checksum, and the contexts it holds.
+ */
+
+public class ShardedExporter
+{
+  public static final Logger log = Logger.getLogger(ShardedExporter.class);
+
+  public static final String MANIFEST_EXTENSION = ".manifest";
+
+  /** how the default graph is named in a manifest */
+
+  public static final String DEFAULT_GRAPH = "-";
+
+  /** one file of an export and the contexts written to it */
+
+  public static class Shard
+  {
+    private final File mFile;
+    private final List<Resource> mContexts = new ArrayList<Resource>();
+    private final List<Long> mSizes = new ArrayList<Long>();
+    private long mSize;
+    private long mStatements;
+    private long mBytes;
+    private long mChecksum;
+
+    public Shard(File file)
+    {
+      mFile = file;
+    }
+
+    void add(Resource context, long size)
+    {
+      mContexts.add(context);
+      mSizes.add(size);
+      mSize += size;
+    }
+
+    public File getFile()
+    {
+      return mFile;
+    }
+
+    /** the contexts in this shard, null being the default graph */
+
+    public List<Resource> getContexts()
+    {
+      return mContexts;
+    }
+
+    /** the number of statements counted in each context */
+
+    public List<Long> getSizes()
+    {
+      return mSizes;
+    }
+
+    /** the number of statements counted in all the contexts */
+
+    public long getSize()
+    {
+      return mSize;
+    }
+
+    /** the number of statements written */
+
+    public long getStatements()
+    {
+      return mStatements;
+    }
+
+    public long getBytes()
+    {
+      return mBytes;
+    }
+
+    /** the CRC-32 of the file as written */
+
+    public long getChecksum()
+    {
+      return mChecksum;
+    }
+  }
+
+  private final ConnectionPool mPool;
+  private final RDFFormat mFormat;
+  private final boolean mIncludeInferred;
+  private final QueryControl mControl;
+  private final RepositoryExporter.Listener mListener;
+  private long[] mStatements;
+  private long[] mBytes;
+  private long mStart;
+
+  public ShardedExporter(ConnectionPool pool, RDFFormat format,
+    boolean includeInferred, QueryControl control,
+    RepositoryExporter.Listener listener)
+  {
+    mPool = pool;
+    mFormat = format;
+    mIncludeInferred = includeInferred;
+    mControl = control;
+    mListener = listener;
+  }
+
+  /**
+   * Export the repository into at most the given number of shards, named
+   * after a file, with as many running at once as the connection pool
+   * allows. The manifest is written once every shard is complete, and not if
+   * the export is canceled. Canceling interrupts the thread waiting here,
+   * which then returns the shards with the statements written so far.
+   */
+
+  public List<Shard> export(File file, int shards) throws Exception
+  {
+    mStart = System.currentTimeMillis();
+    int threads = Math.max(1, Math.min(shards, mPool.getBackgroundSize()));
+    QueryExecutor executor = new QueryExecutor("export", threads, shards);
+    List<Shard> balanced = Collections.emptyList();
+    try
+    {
+      Map<Resource, Long> sizes = count(executor, threads);
+      List<File> files = new ArrayList<File>();
+      for (int i = 0; i < Math.min(shards, Math.max(1, sizes.size())); ++i)
+        files.add(getShardFile(file, i, mFormat));
+      balanced = balance(sizes, files);
+      if (mControl.isCanceled())
+        return balanced;
+
+      mStatements = new long[balanced.size()];
+      mBytes = new long[balanced.size()];
+      List<Future<Object>> futures = new ArrayList<Future<Object>>();
+      for (int i = 0; i < balanced.size(); ++i)
+        futures.add(submit(executor, balanced.get(i), i));
+      await(futures);
+
+      if (!mControl.isCanceled())
+        writeManifest(getManifestFile(file, mFormat), balanced);
+      return balanced;
+    }
+    catch (Exception e)
+    {
+      // the interrupt may also end a wait for a connection or the server
+
+      if (!mControl.isCanceled())
+        throw e;
+      if (e instanceof InterruptedException)
+        Thread.currentThread().interrupt();
+      log.debug("export canceled", e);
+
+      // shards which were cut short count what they wrote
+
+      synchronized (this)
+      {
+        for (int i = 0; null != mStatements && i < balanced.size(); ++i)
+          if (0 == balanced.get(i).mStatements)
+            balanced.get(i).mStatements = mStatements[i];
+      }
+      return balanced;
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Deal contexts out to one shard per file, largest first, each to the
+   * shard with the fewest statements so far.
+   */
+
+  static List<Shard> balance(Map<Resource, Long> sizes, List<File> files)
+  {
+    List<Map.Entry<Resource, Long>> entries =
+      new ArrayList<Map.Entry<Resource, Long>>(sizes.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<Resource, Long>>()
+    {
+      public int compare(Map.Entry<Resource, Long> a,
+        Map.Entry<Resource, Long> b)
+      {
+        return b.getValue().compareTo(a.getValue());
+      }
+    });
+
+    final List<Shard> shards = new ArrayList<Shard>();
+    for (File file : files)
+      shards.add(new Shard(file));
+    PriorityQueue<Shard> smallest = new PriorityQueue<Shard>(shards.size(),
+      new Comparator<Shard>()
+      {
+        public int compare(Shard a, Shard b)
+        {
+          return a.getSize() != b.getSize()
+            ? a.getSize() < b.getSize() ? -1 : 1
+            : shards.indexOf(a) - shards.indexOf(b);
+        }
+      });
+    smallest.addAll(shards);
+    for (Map.Entry<Resource, Long> entry : entries)
+    {
+      Shard shard = smallest.poll();
+      shard.add(entry.getKey(), entry.getValue());
+      smallest.add(shard);
+    }
+    return shards;
+  }
+
+  /**
+   * The file of a shard, numbered from one and named after the export file,
+   * keeping its compression.
+   */
+
+  public static File getShardFile(File file, int index, RDFFormat format)
+  {
+    String name = format("%s-%03d.%s", getBaseName(file, format), index + 1,
+      format.getDefaultFileExtension());
+    return new File(file.getParentFile(), ExportSink.isCompressed(file)
+      ? name + ExportSink.GZIP_EXTENSION
+      : name);
+  }
+
+  public static File getManifestFile(File file, RDFFormat format)
+  {
+    return new File(file.getParentFile(),
+      getBaseName(file, format) + MANIFEST_EXTENSION);
+  }
+
+  /** the name of a context in a manifest */
+
+  public static String getName(Resource context)
+  {
+    return null == context
+      ? DEFAULT_GRAPH
+      : context.toString();
+  }
+
+  /** the context of a name in a manifest */
+
+  public static Resource getContext(String name)
+  {
+    return DEFAULT_GRAPH.equals(name)
+      ? null
+      : ContextTableModel.parseContext(name);
+  }
+
+  /** the name of a file without its format extension or compression */
+
+  static String getBaseName(File file, RDFFormat format)
+  {
+    String name = file.getName();
+    if (ExportSink.isCompressed(file))
+      name = name.substring(0, name.length() -
+        ExportSink.GZIP_EXTENSION.length());
+    for (String extension : format.getFileExtensions())
+      if (name.toLowerCase().endsWith("." + extension))
+        return name.substring(0, name.length() - extension.length() - 1);
+    return name;
+  }
+
+  /**
+   * Count the statements in each context, the default graph included if it
+   * has any, spread over several connections.
+   */
+
+  private Map<Resource, Long> count(QueryExecutor executor, int threads)
+    throws Exception
+  {
+    final List<Resource> contexts = new ArrayList<Resource>();
+    contexts.add(null);
+    RepositoryConnection connection = mPool.borrowBackground();
+    try
+    {
+      RepositoryResult<Resource> ids = connection.getContextIDs();
+      try
+      {
+        while (ids.hasNext() && !mControl.isCanceled())
+          contexts.add(ids.next());
+      }
+      finally
+      {
+        ids.close();
+      }
+    }
+    finally
+    {
+      mPool.release(connection);
+    }
+
+    final long[] sizes = new long[contexts.size()];
+    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    for (int i = 0; i < threads; ++i)
+    {
+      final int first = i;
+      final int step = threads;
+      futures.add(executor.submit("count contexts", new Callable<Object>()
+      {
+        public Object call() throws Exception
+        {
+          RepositoryConnection connection = mPool.borrowBackground();
+          try
+          {
+            for (int j = first; j < sizes.length && !mControl.isCanceled();
+                 j += step)
+              sizes[j] = connection.size(contexts.get(j));
+          }
+          finally
+          {
+            mPool.release(connection);
+          }
+          return null;
+        }
+      }));
+    }
+    await(futures);
+
+    Map<Resource, Long> counted = new LinkedHashMap<Resource, Long>();
+    for (int i = 0; i < sizes.length; ++i)
+      if (null != contexts.get(i) || sizes[i] > 0)
+        counted.put(contexts.get(i), sizes[i]);
+    return counted;
+  }
+
+  private Future<Object> submit(QueryExecutor executor, final Shard shard,
+    final int index)
+  {
+    return executor.submit("export " + shard.getFile().getName(),
+      new Callable<Object>()
+      {
+        public Object call() throws Exception
+        {
+          RepositoryExporter exporter = new RepositoryExporter(mPool,
+            mFormat, mIncludeInferred, mControl,
+            new RepositoryExporter.Listener()
+            {
+              public void onProgress(long statements, long bytes,
+                long elapsed)
+              {
+                progress(index, statements, bytes);
+              }
+            });
+
+          CheckedOutputStream out = new CheckedOutputStream(
+            new FileOutputStream(shard.getFile()), new CRC32());
+          ExportSink sink = new ExportSink(out, mFormat,
+            ExportSink.isCompressed(shard.getFile()));
+          shard.mStatements = exporter.export(sink,
+            shard.getContexts().toArray(new Resource[0]));
+          shard.mBytes = sink.getBytes();
+          shard.mChecksum = out.getChecksum().getValue();
+          return null;
+        }
+      });
+  }
+
+  private synchronized void progress(int index, long statements, long bytes)
+  {
+    mStatements[index] = statements;
+    mBytes[index] = bytes;
+    long totalStatements = 0;
+    long totalBytes = 0;
+    for (int i = 0; i < mStatements.length; ++i)
+    {
+      totalStatements += mStatements[i];
+      totalBytes += mBytes[i];
+    }
+    mListener.onProgress(totalStatements, totalBytes,
+      System.currentTimeMillis() - mStart);
+  }
+
+  /**
+   * Wait for every task, and if one fails or this thread is interrupted,
+   * cancel the rest and throw.
+   */
+
+  static void await(List<Future<Object>> futures) throws Exception
+  {
+    try
+    {
+      for (Future<Object> future : futures)
+        future.get();
+    }
+    catch (ExecutionException e)
+    {
+      cancel(futures);
+      throw e.getCause() instanceof Exception
+        ? (Exception)e.getCause()
+        : e;
+    }
+    catch (InterruptedException e)
+    {
+      cancel(futures);
+      throw e;
+    }
+  }
+
+  private static void cancel(List<Future<Object>> futures)
+  {
+    for (Future<Object> future : futures)
+      future.cancel(true);
+  }
+
+  private static void writeManifest(File file, List<Shard> shards)
+    throws IOException
+  {
+    long statements = 0;
+    for (Shard shard : shards)
+      statements += shard.getStatements();
+
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(file), "UTF-8"));
+    try
+    {
+      out.printf("# %,d statements in %d files%n", statements, shards.size());
+      out.println("# shard\tfile\tstatements\tbytes\tcrc32");
+      out.println("# context\tfile\tstatements\tcontext");
+      for (Shard shard : shards)
+      {
+        String name = shard.getFile().getName();
+        out.printf("shard\t%s\t%d\t%d\t%08x%n", name, shard.getStatements(),
+          shard.getBytes(), shard.getChecksum());
+        for (int i = 0; i < shard.getContexts().size(); ++i)
+          out.printf("context\t%s\t%d\t%s%n", name, shard.getSizes().get(i),
+            getName(shard.getContexts().get(i)));
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+    if (out.checkError())
+      throw new IOException("writing " + file);
+  }
+}
@@ -28,7 +28,6 @@ import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.datatransfer.StringSelection;
@@ -38,23 +37,27 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.io.Writer;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.AbstractAction;
 import javax.swing.ActionMap;
@@ -88,6 +91,7 @@ import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.SpringLayout;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.ToolTipManager;
 import javax.swing.border.LineBorder;
 import javax.swing.event.CaretEvent;
@@ -100,7 +104,6 @@ import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
-import javax.swing.table.TableColumnModel;
 import javax.swing.table.TableModel;
 import javax.swing.table.TableRowSorter;
 import javax.swing.text.BadLocationException;
@@ -117,28 +120,17 @@ import org.openrdf.query.BooleanQuery;
 import org.openrdf.query.GraphQuery;
 import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.MalformedQueryException;
-import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryInterruptedException;
 import org.openrdf.query.QueryLanguage;
 import org.openrdf.query.TupleQuery;
 import org.openrdf.query.TupleQueryResult;
-import org.openrdf.query.algebra.Slice;
-import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
-import org.openrdf.query.parser.ParsedBooleanQuery;
-import org.openrdf.query.parser.ParsedGraphQuery;
-import org.openrdf.query.parser.ParsedOperation;
-import org.openrdf.query.parser.ParsedTupleQuery;
-import org.openrdf.query.parser.ParsedUpdate;
-import org.openrdf.query.parser.QueryParserUtil;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
 import org.openrdf.repository.http.HTTPRepository;
 import org.openrdf.rio.RDFFormat;
-import org.openrdf.rio.RDFHandlerException;
-import org.openrdf.rio.RDFWriter;
-import org.openrdf.rio.Rio;
 import org.trebor.splink.ResourceManager.ResourceType;
 
 import static org.trebor.splink.MessageHandler.Type.*;
@@ -152,7 +144,6 @@ import static java.awt.event.InputEvent.CTRL_MASK;
 import static java.awt.event.KeyEvent.*;
 import static java.lang.String.format;
 import static java.lang.System.out;
-import static java.lang.Math.max;
 
 @SuppressWarnings("serial")
 public class Splink extends JFrame implements MessageHandler
@@ -165,7 +156,6 @@ public class Splink extends JFrame implements MessageHandler
   public static final String SYS_PREFIX = "http://www.openrdf.org/config/repository#";
   public static final String SYSTEM_PREFIXES  = format("PREFIX rdf:<%s>\nPREFIX rdfs:<%s>\nPREFIX sys:<%s>\n", RDF_PREFIX, RDFS_PREFIX, SYS_PREFIX);
   public static final String QUERY_REPO_NAME_DESCRIPTION = "SELECT ?name ?label WHERE {?_ sys:repositoryID ?name. ?_ rdfs:label ?label}";
-  public static final String QUERY_FOR_EXPORT = "CONSTRUCT {?s ?p ?o} WHERE {?s ?p ?o}";
   public static final String DEFAULT_QUERY = "SELECT\n\t*\nWHERE\n{\n\t?s ?p ?o\n}";
   public static final String BLANK_NODE_QUERY = "CONSTRUCT * FROM {%s} x {y}";
   public static final String PROPERTIES_FILE = System.getProperty("user.home") + File.separator + ".splink";
@@ -175,11 +165,13 @@ public class Splink extends JFrame implements MessageHandler
   public static final int NO_QUERY_TIMEOUT = -1;
   public static final int QUERY_CANCELED = Integer.MIN_VALUE + 1;
   protected static final String HOST_PORT_URL_FORMAT = "http://%s:%d/openrdf-sesame";
+  public static final String CONNECTION_PROBE = "ASK {}";
+  public static final int BOOTSTRAP_THREADS = 4;
   
   private int mQueryLimit;
   private int mQueryTimeout;
   private UndoManager mCurrentUndoManagaer;
-  private ResourceManager mResourceManager;
+  private volatile ResourceManager mResourceManager;
   private Properties mProperties;
   private JScrollPane mPrefixScroll;
   private JScrollPane mContextScroll;
@@ -188,6 +180,7 @@ public class Splink extends JFrame implements MessageHandler
   private JTable mPrefix;
   private JTable mContext;
   private JScrollPane mResultArea;
+  private ResultFilter mResultFilter;
   private JTable mResult;
   private JTextArea mErrorText;
   private JMenu mRepositoryListMenu;
@@ -196,12 +189,11 @@ public class Splink extends JFrame implements MessageHandler
   private JCheckBoxMenuItem mShowLongUriCbmi;
   private JCheckBoxMenuItem mShowInferredCbmi;
   private TableModel mPrefixTable;
-  private TableModel mContextTable;
-  private String mQueryPrefixString;
-  private Repository mRepository;
-  private RepositoryConnection mConnection;
-  private Map<String, String> mNameSpaceMap;
-  private Map<String, Pattern> mPrefixRegex;
+  private ContextTableModel mContextTable;
+  private volatile QueryPrefixer mQueryPrefixer =
+    new QueryPrefixer(new HashMap<String, String>());
+  private volatile Repository mRepository;
+  private volatile ConnectionPool mPool;
   private Stack<String> mQueryStack;
   private String mLastQuery;
   private JPopupMenu mTablePopupMenu;
@@ -210,6 +202,18 @@ public class Splink extends JFrame implements MessageHandler
   private int mPopupTableColumn;
   private Map<JEditorPane, UndoManager> mEditorUndoManagerMap;
   private StringBuffer mKillRing = new StringBuffer();
+  private QueryExecutor mQueryExecutor;
+  private QueryExecutor mConvertExecutor;
+  private QueryExecutor mAppendExecutor;
+  private QueryExecutor mBootstrapExecutor;
+  private QueryExecutor mCountExecutor;
+  private long mConnectStart;
+  private MetadataCache mMetadataCache;
+  private volatile MetadataCache.Entry mCachedMetadata;
+  private final ColumnSizer mColumnSizer = new ColumnSizer(this);
+  private OperationCache mOperationCache;
+  private final Set<QueryControl> mRunningQueries =
+    Collections.synchronizedSet(new LinkedHashSet<QueryControl>());
   
   enum Property
   {
@@ -217,12 +221,23 @@ public class Splink extends JFrame implements MessageHandler
     SESAME_PORT("sesame.port", Integer.class, 8080),
     SESAME_REPOSITORY("sesame.repository", String.class, SYSTEM_REPO_NAME),
     AUTO_CONNECT("network.autoconnect", Boolean.class, false),
+    RESULT_TUPLE_FORMAT("network.format.tuple", String.class, TupleQueryResultFormat.BINARY.getName()),
+    RESULT_GRAPH_FORMAT("network.format.graph", String.class, RDFFormat.TURTLE.getName()),
 
     QUERY_RESULT_LIIMT("query.result.limit", Integer.class, 100),
     QUERY_RESULT_TIMEOUT("query.result.timeout", Integer.class, 10),
+    QUERY_THREADS("query.threads", Integer.class, 2),
+    QUERY_QUEUE_SIZE("query.queue.size", Integer.class, 32),
+    QUERY_CACHE_SIZE("query.cache.size", Integer.class, 128),
+    QUERY_CONVERT_THREADS("query.convert.threads", Integer.class, Runtime.getRuntime().availableProcessors()),
+    RESULT_SPILL_ROWS("result.spill.rows", Integer.class, 1000000),
+    RESULT_SPILL_MEGABYTES("result.spill.megabytes", Integer.class, 256),
+    METADATA_CACHE_DIRECTORY("metadata.cache.directory", String.class, System.getProperty("user.home") + File.separator + ".splink-cache"),
 
     EXPORT_DIRECTORY("file.export.directory", String.class, System.getProperty("user.home")),
     EXPORT_TYPE("file.export.type", String.class, RDFFormat.TURTLE.getName()),
+    EXPORT_SHARDS("file.export.shards", Integer.class, 1),
+    EXPORT_INCREMENTAL("file.export.incremental", Boolean.class, false),
 
     MASTER_FONT("gui.master.font", Font.class, new Font("Courier", Font.BOLD, 18)),
     
@@ -242,6 +257,11 @@ public class Splink extends JFrame implements MessageHandler
     CONTEXT_SIZE("gui.context.size", Dimension.class, new Dimension(600, 125)), 
     CONTEXT_FONT("gui.context.font", Font.class, new Font("Courier", Font.BOLD, 18)),
     CONTEXT_FONT_CLR("gui.context.prefix.color", Color.class, Color.DARK_GRAY),
+    CONTEXT_COL1_WIDTH("gui.context.col1.width", Integer.class, 480),
+    CONTEXT_COL2_WIDTH("gui.context.col2.width", Integer.class, 120),
+    CONTEXT_COUNT_THREADS("context.count.threads", Integer.class, 2),
+    CONNECTION_POOL_SIZE("network.pool.size", Integer.class, 8),
+    CONNECTION_POOL_RESERVED("network.pool.reserved", Integer.class, 2),
     
     ERROR_FONT("gui.error.font", Font.class, new Font("Courier", Font.BOLD, 15)),
     ERROR_CLR("gui.error.color", Color.class, Color.RED.darker().darker()),
@@ -354,6 +374,20 @@ public class Splink extends JFrame implements MessageHandler
     try
     {
       initializeProperities();
+      mQueryExecutor = new QueryExecutor("query", QUERY_THREADS.getInteger(),
+        QUERY_QUEUE_SIZE.getInteger());
+      mConvertExecutor = new QueryExecutor("convert",
+        QUERY_CONVERT_THREADS.getInteger(),
+        QUERY_CONVERT_THREADS.getInteger() * DefaultResultsListener.CHUNKS_IN_FLIGHT);
+      mAppendExecutor = new QueryExecutor("append", QUERY_THREADS.getInteger(),
+        QUERY_THREADS.getInteger());
+      mBootstrapExecutor = new QueryExecutor("bootstrap", BOOTSTRAP_THREADS,
+        BOOTSTRAP_THREADS * 4);
+      mCountExecutor = new QueryExecutor("count",
+        CONTEXT_COUNT_THREADS.getInteger(), CONTEXT_COUNT_THREADS.getInteger());
+      mOperationCache = new OperationCache(QUERY_CACHE_SIZE.getInteger());
+      mMetadataCache =
+        new MetadataCache(new File(METADATA_CACHE_DIRECTORY.getString()));
       constructUi(getContentPane());
       initializeRepository(CONNECT_AS_DIRECTED);
     }
@@ -365,27 +399,45 @@ public class Splink extends JFrame implements MessageHandler
 
   private void initializeRepository(AutoConnectBehavior autoConnectBehavior)
   {
-    if (initializeRepositoryList(autoConnectBehavior))
-      initializeWorkingRepository(SESAME_REPOSITORY.getString(), FORCE_AUTO_CONNECT, true);
+    initializeWorkingRepository(SESAME_REPOSITORY.getString(),
+      autoConnectBehavior, true);
   }
   
   private void connect(String host, int port, String repositoryName,
     boolean storeResultOnConnect)
   {
-    clearPrefixes();
-    clearContexts();
+    mConnectStart = System.currentTimeMillis();
+    showCachedMetadata(host, port, repositoryName);
     mRepository = null;
-    mConnection = null;
+    if (null != mPool)
+      mPool.close();
+    mPool = null;
     String url = format(HOST_PORT_URL_FORMAT, host, port);
+    ConnectionPool pool = null;
 
     try
     {
       HTTPRepository repository =
         new HTTPRepository(url, repositoryName);
 
+      ResultFormats.configure(repository, RESULT_TUPLE_FORMAT.getString(),
+        RESULT_GRAPH_FORMAT.getString());
       repository.initialize();
-      RepositoryConnection connection = repository.getConnection();
-      connection.size();
+      pool = new ConnectionPool(repository, CONNECTION_POOL_SIZE.getInteger(),
+        CONNECTION_POOL_RESERVED.getInteger());
+      RepositoryConnection connection = pool.borrow();
+
+      // a trivial query proves the repository is there without counting it
+
+      try
+      {
+        connection.prepareBooleanQuery(QueryLanguage.SPARQL, CONNECTION_PROBE)
+          .evaluate();
+      }
+      finally
+      {
+        pool.release(connection);
+      }
       if (storeResultOnConnect)
       {
         SESAME_HOST.set(host);
@@ -393,11 +445,13 @@ public class Splink extends JFrame implements MessageHandler
         SESAME_REPOSITORY.set(repositoryName);
       }
       mRepository = repository;
-      mConnection = connection;
-      mResourceManager = new ResourceManager(mConnection);
+      mPool = pool;
     }
     catch (Exception e)
     {
+      if (null != pool)
+        pool.close();
+
       if (null != e.getCause())
       {
         if (e.getCause() instanceof UnknownHostException)
@@ -410,138 +464,290 @@ public class Splink extends JFrame implements MessageHandler
     }
   }
 
-  private boolean initializeRepositoryList(AutoConnectBehavior autoConnectBehavior)
+  /**
+   * Show the metadata cached for a repository while connecting to it, so the
+   * prefixes, contexts and repository menu are usable before the server has
+   * answered. Fresh metadata replaces it once the connection is bootstrapped.
+   */
+
+  private void showCachedMetadata(String host, int port, String repositoryName)
   {
-    if (!initializeWorkingRepository(SYSTEM_REPO_NAME, autoConnectBehavior, false))
-      return false;
-    
-    // get repo list
+    final MetadataCache.Entry cached =
+      mMetadataCache.load(host, port, repositoryName);
+    mCachedMetadata = cached;
+    if (null == cached)
+    {
+      clearPrefixes();
+      clearContexts();
+      return;
+    }
 
-    final ResultsListener resultsListener = new ResultsAdatper()
+    showPrefixes(cached.getNamespaces(), null);
+    showContexts(cached.getContexts(), cached.getNamespaces(), null);
+    SwingUtilities.invokeLater(new Runnable()
     {
-      public int onTuple(TupleQueryResult result)
-        throws QueryEvaluationException
+      public void run()
+      {
+        setRepositoryList(cached.getRepositories());
+      }
+    });
+    handleMessage(STATUS, "showing %s metadata cached %tc", repositoryName,
+      new Date(cached.getTimestamp()));
+  }
+
+  /**
+   * Read the repositories known to the server from its system repository,
+   * on a connection of its own, and list them in the repository menu if
+   * they differ from those already listed. Returns null on failure.
+   */
+
+  private Map<String, String> loadRepositoryList(String host, int port)
+  {
+    String url = format(HOST_PORT_URL_FORMAT, host, port);
+    RepositoryConnection connection = null;
+    try
+    {
+      HTTPRepository repository = new HTTPRepository(url, SYSTEM_REPO_NAME);
+      ResultFormats.configure(repository, RESULT_TUPLE_FORMAT.getString(),
+        RESULT_GRAPH_FORMAT.getString());
+      repository.initialize();
+      connection = repository.getConnection();
+
+      final Map<String, String> repositoryList = new HashMap<String, String>();
+      TupleQueryResult result = connection.prepareTupleQuery(
+        QueryLanguage.SPARQL, SYSTEM_PREFIXES + QUERY_REPO_NAME_DESCRIPTION)
+        .evaluate();
+      try
       {
-        mRepositoryList = new HashMap<String, String>();
         String nameColumn = result.getBindingNames().get(0);
         String labelColumn = result.getBindingNames().get(1);
         while (result.hasNext())
         {
           BindingSet row = result.next();
-          mRepositoryList.put(row.getValue(nameColumn)
-            .stringValue(), row.getValue(labelColumn).stringValue());
+          repositoryList.put(row.getValue(nameColumn).stringValue(),
+            row.getValue(labelColumn).stringValue());
         }
+      }
+      finally
+      {
+        result.close();
+      }
 
-        ButtonGroup radioButtonGroup = new ButtonGroup();
-        mRepositoryListMenu.removeAll();
-        List<String> keys = new ArrayList<String>(mRepositoryList.keySet());
-        Collections.sort(keys);
-        for (final String repositoryName : keys)
+      SwingUtilities.invokeLater(new Runnable()
+      {
+        public void run()
         {
-          JRadioButtonMenuItem button =
-            new JRadioButtonMenuItem(new AbstractAction(repositoryName)
-            {
-              public void actionPerformed(ActionEvent arg0)
-              {
-                initializeWorkingRepository(repositoryName, FORCE_AUTO_CONNECT, true);
-              }
-            });
-
-          button.setToolTipText(mRepositoryList.get(repositoryName));
-          
-          if (SESAME_REPOSITORY.getString().equals(repositoryName))
-            button.setSelected(true);
-
-          radioButtonGroup.add(button);
-          mRepositoryListMenu.add(button);
+          if (!repositoryList.equals(mRepositoryList))
+            setRepositoryList(repositoryList);
         }
-
-        return mRepositoryList.size();
-      }
-    };
-
-    View queryView = new View()
+      });
+      return repositoryList;
+    }
+    catch (Exception e)
+    {
+      handleError(STATUS, e, "Listing repositories at %s", url);
+      return null;
+    }
+    finally
     {
-      public Component getViewComponent()
+      try
       {
-        throw new UnsupportedOperationException();
+        if (null != connection)
+          connection.close();
       }
-
-      public ResultsListener getResultsListener()
+      catch (RepositoryException e)
       {
-        return resultsListener;
+        log.warn("closing system repository connection", e);
       }
+    }
+  }
 
-      public MessageHandler getMessageHandler()
-      {
-        return Splink.this;
-      }
+  private void setRepositoryList(Map<String, String> repositoryList)
+  {
+    mRepositoryList = repositoryList;
+    ButtonGroup radioButtonGroup = new ButtonGroup();
+    mRepositoryListMenu.removeAll();
+    List<String> keys = new ArrayList<String>(mRepositoryList.keySet());
+    Collections.sort(keys);
+    for (final String repositoryName : keys)
+    {
+      JRadioButtonMenuItem button =
+        new JRadioButtonMenuItem(new AbstractAction(repositoryName)
+        {
+          public void actionPerformed(ActionEvent arg0)
+          {
+            initializeWorkingRepository(repositoryName, FORCE_AUTO_CONNECT, true);
+          }
+        });
 
-      public RepositoryConnection getRepositoryConnection()
-      {
-        return mConnection;
-      }
-    };
-    
-    performQuery(SYSTEM_PREFIXES + QUERY_REPO_NAME_DESCRIPTION,
-      false, mQueryLimit, mQueryTimeout, false, queryView);
-    
-    return true;
+      button.setToolTipText(mRepositoryList.get(repositoryName));
+
+      if (SESAME_REPOSITORY.getString().equals(repositoryName))
+        button.setSelected(true);
+
+      radioButtonGroup.add(button);
+      mRepositoryListMenu.add(button);
+    }
   }
-  
+
   private boolean initializeWorkingRepository(String repositoryName, 
     AutoConnectBehavior autoConnectBehavior, boolean storeResultOnConnect)
   {
-    try
+    String warning = null;
+    if (mRepositoryList != null &&
+      !mRepositoryList.containsKey(repositoryName))
     {
-      String warning = null;
-      if (mRepositoryList != null &&
-        !mRepositoryList.containsKey(repositoryName))
-      {
-        warning =
-          format("Unknown repository %s, defaulted to %s.", repositoryName,
-            SYSTEM_REPO_NAME);
-        repositoryName = SYSTEM_REPO_NAME;
-      }
-      
-      peformConnection(SESAME_HOST.getString(), SESAME_PORT.getInteger(), repositoryName,
-        autoConnectBehavior, storeResultOnConnect);
+      warning =
+        format("Unknown repository %s, defaulted to %s.", repositoryName,
+          SYSTEM_REPO_NAME);
+      repositoryName = SYSTEM_REPO_NAME;
+    }
 
-      String url = format(HOST_PORT_URL_FORMAT + "/%s", SESAME_HOST.getString(), 
-        SESAME_PORT.getInteger(), repositoryName);
-      
-      if (!isConnected())
-        return false;
+    peformConnection(SESAME_HOST.getString(), SESAME_PORT.getInteger(), repositoryName,
+      autoConnectBehavior, storeResultOnConnect);
 
-      initializePrefixes(repositoryName);
-      initalizeContext(repositoryName);
+    String url = format(HOST_PORT_URL_FORMAT + "/%s", SESAME_HOST.getString(), 
+      SESAME_PORT.getInteger(), repositoryName);
 
-      // set frame title
+    if (!isConnected())
+      return false;
 
-      setTitle(format("%s (%d)", url, mConnection.size()));
+    // queries can be run now, the rest is filled in as it arrives
 
-      handleMessage(BOTH, repositoryName + " is ready!");
-      if (null != warning) 
-        handleWarning(STATUS, warning);
-    }
-    catch (RepositoryException e)
-    {
-      handleError(BOTH, e);
-    }
+    setTitle(url);
+    handleMessage(BOTH, "%s is ready! (%,d ms to first query)", repositoryName,
+      System.currentTimeMillis() - mConnectStart);
+    if (null != warning) 
+      handleWarning(STATUS, warning);
 
+    bootstrap(repositoryName, url);
     return true;
   }
 
-  private boolean isConnected()
+  /**
+   * Load what the user interface shows about a newly connected repository
+   * with concurrent tasks, and report how long it took once all are done.
+   * Each task borrows a pooled connection of its own, and results for a
+   * connection pool which has since been replaced are dropped.
+   * Metadata shown from the cache is only redrawn if it has changed, and the
+   * cache is rewritten once all of the fresh metadata has been read.
+   */
+
+  private void bootstrap(final String repositoryName, final String url)
+  {
+    final ConnectionPool pool = mPool;
+    final long readyTime = System.currentTimeMillis() - mConnectStart;
+    final String host = SESAME_HOST.getString();
+    final int port = SESAME_PORT.getInteger();
+    final MetadataCache.Entry cached = mCachedMetadata;
+    final AtomicReference<Map<String, String>> freshNamespaces =
+      new AtomicReference<Map<String, String>>();
+    final AtomicReference<List<String>> freshContexts =
+      new AtomicReference<List<String>>();
+    final AtomicReference<Map<String, String>> freshRepositories =
+      new AtomicReference<Map<String, String>>();
+
+    TaskGroup group = new TaskGroup("bootstrap", mBootstrapExecutor,
+      new TaskGroup.Listener()
+      {
+        public void onFinished(TaskGroup group, long elapsed,
+          Map<String, Long> timings)
+        {
+          if (pool != mPool)
+            return;
+
+          StringBuilder detail = new StringBuilder();
+          for (Map.Entry<String, Long> timing : timings.entrySet())
+            detail.append(detail.length() > 0
+              ? ", "
+              : "").append(format("%s %,d ms", timing.getKey(),
+              timing.getValue()));
+          handleMessage(STATUS,
+            "%s first query after %,d ms, initialized after %,d ms (%s)",
+            repositoryName, readyTime, readyTime + elapsed, detail);
+
+          if (null == freshNamespaces.get() || null == freshContexts.get() ||
+            null == freshRepositories.get())
+            return;
+          try
+          {
+            mMetadataCache.store(host, port, repositoryName,
+              new MetadataCache.Entry(freshRepositories.get(),
+                freshNamespaces.get(), freshContexts.get(),
+                System.currentTimeMillis()));
+          }
+          catch (IOException e)
+          {
+            log.warn("caching " + url + " metadata", e);
+          }
+        }
+      });
+
+    final Future<?> namespaces = group.submit("namespaces", new Runnable()
+    {
+      public void run()
+      {
+        freshNamespaces.set(initializePrefixes(repositoryName, pool,
+          cached));
+      }
+    });
+    group.submit("contexts", new Runnable()
+    {
+      public void run()
+      {
+        freshContexts.set(initalizeContext(repositoryName, pool,
+          namespaces, freshNamespaces, cached));
+      }
+    });
+    group.submit("size", new Runnable()
+    {
+      public void run()
+      {
+        countStatements(url, pool);
+      }
+    });
+    group.submit("repositories", new Runnable()
+    {
+      public void run()
+      {
+        freshRepositories.set(loadRepositoryList(host, port));
+      }
+    });
+    group.close();
+  }
+
+  /** show the size of the repository in the title, which can take a while */
+
+  private void countStatements(final String url, final ConnectionPool pool)
   {
+    RepositoryConnection connection = null;
     try
     {
-      return null != mRepository && null != mConnection && mConnection.isOpen();
+      connection = pool.borrowBackground();
+      final long size = connection.size();
+      SwingUtilities.invokeLater(new Runnable()
+      {
+        public void run()
+        {
+          if (pool == mPool)
+            setTitle(format("%s (%,d)", url, size));
+        }
+      });
     }
     catch (RepositoryException e)
     {
+      log.warn("counting statements in " + url, e);
     }
-    return false;
+    finally
+    {
+      pool.release(connection);
+    }
+  }
+
+  private boolean isConnected()
+  {
+    ConnectionPool pool = mPool;
+    return null != mRepository && null != pool && pool.isOpen();
   }
 
   private void initializeProperities()
@@ -555,158 +761,325 @@ public class Splink extends JFrame implements MessageHandler
       debugMessage("%s: %s", key, mProperties.get(key));
   }  
   
-  private void initalizeContext(final String repositoryName)
+  /**
+   * Stream the contexts of the repository into the context table. They are
+   * read while the namespaces are, and held back only until those arrive to
+   * shorten them. If the cache already shows contexts shortened with the
+   * same namespaces, they are read into a table which only replaces the
+   * cached one if they differ, otherwise the cached table is kept and
+   * counted. Returns the contexts, or null on failure.
+   */
+
+  private List<String> initalizeContext(final String repositoryName,
+    final ConnectionPool pool, Future<?> namespaces,
+    AtomicReference<Map<String, String>> freshNamespaces,
+    MetadataCache.Entry cached)
   {
-    new Thread()
+    boolean longUri = mShowLongUriCbmi.getState();
+    ContextTableModel model = new ContextTableModel(mCountExecutor,
+      CONTEXT_COUNT_THREADS.getInteger());
+    ResourceManager shortener = null;
+    boolean streaming = false;
+
+    RepositoryConnection connection = null;
+    try
     {
-      public void run()
+      connection = pool.borrowBackground();
+      List<Resource> pending = new ArrayList<Resource>();
+      List<String> contexts = new ArrayList<String>();
+      RepositoryResult<Resource> result = connection.getContextIDs();
+      try
       {
-        try
+        while (pool == mPool)
         {
-          String message =
-            format("initializing %s context...", repositoryName);
-          JLabel info = new JLabel(message);
-          info.setFont(CONTEXT_FONT.getFont());
-          info.setForeground(CONTEXT_FONT_CLR.getColor());
-          info.setHorizontalAlignment(JLabel.CENTER);
-          info.setHorizontalAlignment(JLabel.CENTER);
-          mContextScroll.setViewportView(info);
-
-          // create a table model
-
-          DefaultTableModel contextTable = new DefaultTableModel()
+          // contexts are shown with the prefixes, which are read
+          // concurrently, so hold them back until those have arrived
+
+          boolean more = result.hasNext();
+          if (more)
+            pending.add(result.next());
+          if (null == shortener && (!more || namespaces.isDone()))
+          {
+            waitFor(namespaces);
+            Map<String, String> prefixes = freshNamespaces.get();
+            shortener = null == prefixes
+              ? mResourceManager
+              : new ResourceManager(new NamespaceIndex(prefixes));
+            streaming = null == cached ||
+              !cached.getNamespaces().equals(prefixes);
+            if (streaming)
+              setContextTable(model, pool);
+          }
+          if (null != shortener)
           {
-            public boolean isCellEditable(int row, int col)
+            for (Resource context : pending)
             {
-              return false;
+              String contextUri = context.toString();
+              contexts.add(contextUri);
+              model.add(context, longUri
+                ? contextUri
+                : shortener.shrinkResource(contextUri));
             }
-          };
-          contextTable.addColumn("context");
-
-          // get the context values
+            pending.clear();
+          }
+          if (!more)
+            break;
+        }
+      }
+      finally
+      {
+        result.close();
+      }
 
-          RepositoryResult<Resource> context = mConnection.getContextIDs();
+      if (pool != mPool)
+        return null;
 
-          while (context.hasNext())
+      if (!streaming && !contexts.equals(cached.getContexts()))
+        setContextTable(model, pool);
+      else if (!streaming)
+        SwingUtilities.invokeLater(new Runnable()
+        {
+          public void run()
           {
-            String contextUri = context.next().toString();
+            if (pool == mPool)
+              mContextTable.count(pool);
+          }
+        });
 
-            if (!mShowLongUriCbmi.getState())
-              contextUri = mResourceManager.shrinkResource(contextUri);
+      handleMessage(STATUS, "read %,d %s contexts", contexts.size(),
+        repositoryName);
+      return contexts;
+    }
+    catch (RepositoryException e)
+    {
+      handleError(STATUS, e, "Reading %s contexts", repositoryName);
+      return null;
+    }
+    finally
+    {
+      pool.release(connection);
+    }
+  }
 
-            contextTable.addRow(new String[]
-            {
-              contextUri
-            });
-          }
+  /**
+   * Show contexts in the context table, shortened with the given
+   * namespaces. Unless the pool is null, as it is for cached contexts
+   * shown while connecting, they are dropped if it has been replaced, and
+   * otherwise their statements are counted.
+   */
 
-          mContextTable = contextTable;
-          if (null != mContext)
-          {
-            mContext.setModel(mContextTable);
-            mContext.getColumnModel().getColumn(0)
-              .setHeaderRenderer(mTableHeaderRenderer);
-          }
+  private void showContexts(List<String> contexts,
+    Map<String, String> prefixes, ConnectionPool pool)
+  {
+    boolean longUri = mShowLongUriCbmi.getState();
+    ResourceManager shortener =
+      new ResourceManager(new NamespaceIndex(prefixes));
+    ContextTableModel model = new ContextTableModel(mCountExecutor,
+      CONTEXT_COUNT_THREADS.getInteger());
+    for (String contextUri : contexts)
+      model.add(ContextTableModel.parseContext(contextUri), longUri
+        ? contextUri
+        : shortener.shrinkResource(contextUri));
+    setContextTable(model, pool);
+  }
 
-          mContextScroll.setViewportView(mContext);
+  /**
+   * Replace the context table model on the event thread. Rows added to the
+   * model later appear as they arrive.
+   */
+
+  private void setContextTable(final ContextTableModel model,
+    final ConnectionPool pool)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        if (null != pool && pool != mPool)
+        {
+          model.dispose();
+          return;
         }
-        catch (RepositoryException e)
+
+        if (null != mContextTable && model != mContextTable)
+          mContextTable.dispose();
+        mContextTable = model;
+        if (null != mContext)
         {
-          e.printStackTrace();
+          mContext.setModel(mContextTable);
+          TableColumn contextCol = mContext.getColumnModel().getColumn(0);
+          TableColumn countCol = mContext.getColumnModel().getColumn(1);
+
+          contextCol.setPreferredWidth(CONTEXT_COL1_WIDTH.getInteger());
+          contextCol.setHeaderRenderer(mTableHeaderRenderer);
+          countCol.setPreferredWidth(CONTEXT_COL2_WIDTH.getInteger());
+          countCol.setHeaderRenderer(mTableHeaderRenderer);
         }
+
+        mContextScroll.setViewportView(mContext);
+        if (null != pool)
+          model.count(pool);
       }
-    }.start();
+    });
   }
 
-  private void initializePrefixes(String repositoryName)
+  /** wait for a task to end, whether or not it succeeded */
+
+  private static void waitFor(Future<?> future)
   {
-    try
+    boolean interrupted = false;
+    while (true)
     {
-      handleMessage(STATUS, "initializing %s namespace...", repositoryName);
+      try
+      {
+        future.get();
+        break;
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+      catch (ExecutionException e)
+      {
+        break;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
 
-      // init name-space map and a buffer to build the query prefix string
+  /**
+   * Read the namespaces of the repository, and show them unless they are
+   * what the cache already showed. Returns the namespaces, or null on
+   * failure.
+   */
 
-      mNameSpaceMap = new HashMap<String, String>();
-      mPrefixRegex = new HashMap<String, Pattern>();
-      StringBuffer queryPrefixBuffer = new StringBuffer();
+  private Map<String, String> initializePrefixes(String repositoryName,
+    final ConnectionPool pool, MetadataCache.Entry cached)
+  {
+    RepositoryConnection connection = null;
+    try
+    {
+      connection = pool.borrowBackground();
+      handleMessage(STATUS, "initializing %s namespace...", repositoryName);
 
-      // init name-space table
+      // read the name-spaces in the order the server gives them
 
-      DefaultTableModel prefixTable = new DefaultTableModel()
+      Map<String, String> prefixes = new LinkedHashMap<String, String>();
+      RepositoryResult<Namespace> nameSpaces = connection.getNamespaces();
+      try
       {
-        public boolean isCellEditable(int row, int col)
+        while (nameSpaces.hasNext())
         {
-          return false;
+          Namespace nameSpace = nameSpaces.next();
+          prefixes.put(nameSpace.getPrefix(), nameSpace.getName());
         }
-      };
+      }
+      finally
+      {
+        nameSpaces.close();
+      }
 
-      prefixTable.addColumn("prefix");
-      prefixTable.addColumn("value");
+      if (pool != mPool)
+        return null;
 
-      // populate table and map
+      if (null == cached || !prefixes.equals(cached.getNamespaces()))
+        showPrefixes(prefixes, pool);
+      handleMessage(STATUS, "initialized %s namespace.", repositoryName);
+      return prefixes;
+    }
+    catch (Exception e)
+    {
+      handleError(BOTH, e);
+      return null;
+    }
+    finally
+    {
+      pool.release(connection);
+    }
+  }
 
-      RepositoryResult<Namespace> nameSpaces = mConnection.getNamespaces();
-      while (nameSpaces.hasNext())
+  /**
+   * Use namespaces for queries and results, and show them in the prefix
+   * table. Unless the pool is null, as it is for cached namespaces
+   * shown while connecting, the table is left alone if it has been replaced.
+   */
+
+  private void showPrefixes(Map<String, String> prefixes,
+    final ConnectionPool pool)
+  {
+    final DefaultTableModel prefixTable = new DefaultTableModel()
+    {
+      public boolean isCellEditable(int row, int col)
       {
-        Namespace nameSpace = nameSpaces.next();
-        mNameSpaceMap.put(nameSpace.getName(), nameSpace.getPrefix() + ":");
-        mPrefixRegex.put(
-          nameSpace.getName(),
-          Pattern.compile(String.format("^%s(%s)$",
-            Pattern.quote(nameSpace.getName()), URI_IDENTIFIER_RE)));
-        prefixTable.addRow(new String[]
-        {
-          nameSpace.getPrefix(), nameSpace.getName()
-        });
-        queryPrefixBuffer.append(String.format("PREFIX %s:<%s>\n",
-          nameSpace.getPrefix(), nameSpace.getName()));
+        return false;
       }
+    };
 
-      // init master query prefix string
-
-      mQueryPrefixString = queryPrefixBuffer.toString();
+    prefixTable.addColumn("prefix");
+    prefixTable.addColumn("value");
+    for (Map.Entry<String, String> prefix : prefixes.entrySet())
+      prefixTable.addRow(new String[]
+      {
+        prefix.getKey(), prefix.getValue()
+      });
 
-      // init master prefix table
+    final QueryPrefixer queryPrefixer = new QueryPrefixer(prefixes);
+    final ResourceManager resourceManager =
+      new ResourceManager(new NamespaceIndex(prefixes));
 
-      mPrefixTable = prefixTable;
-      if (null != mPrefix)
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
       {
-        mPrefix.setModel(mPrefixTable);
-        TableColumn prefixCol = mPrefix.getColumnModel().getColumn(0);
-        TableColumn valueCol = mPrefix.getColumnModel().getColumn(1);
+        if (null != pool && pool != mPool)
+          return;
 
-        prefixCol.setPreferredWidth(PREFIX_COL1_WIDTH.getInteger());
-        prefixCol.setHeaderRenderer(mTableHeaderRenderer);
-        valueCol.setPreferredWidth(PREFIX_COL2_WIDTH.getInteger());
-        valueCol.setHeaderRenderer(mTableHeaderRenderer);
-      }
+        // init query prefixer and the resource manager shared by all results
 
-      handleMessage(STATUS, "initialized %s namespace.", repositoryName);
-    }
-    catch (Exception e)
-    {
-      handleError(BOTH, e);
-    }
+        mQueryPrefixer = queryPrefixer;
+        mResourceManager = resourceManager;
+        mOperationCache.setNamespaces(mQueryPrefixer.getAllDeclarations());
+
+        // init master prefix table
+
+        mPrefixTable = prefixTable;
+        if (null != mPrefix)
+        {
+          mPrefix.setModel(mPrefixTable);
+          TableColumn prefixCol = mPrefix.getColumnModel().getColumn(0);
+          TableColumn valueCol = mPrefix.getColumnModel().getColumn(1);
+
+          prefixCol.setPreferredWidth(PREFIX_COL1_WIDTH.getInteger());
+          prefixCol.setHeaderRenderer(mTableHeaderRenderer);
+          valueCol.setPreferredWidth(PREFIX_COL2_WIDTH.getInteger());
+          valueCol.setHeaderRenderer(mTableHeaderRenderer);
+        }
+      }
+    });
   }
 
   public void clearPrefixes()
   {
-    if (null != mPrefix)
+    SwingUtilities.invokeLater(new Runnable()
     {
-      mNameSpaceMap = new HashMap<String, String>();
-      mPrefixRegex = new HashMap<String, Pattern>();
-      mPrefixTable = new DefaultTableModel();
-      mPrefix.setModel(mPrefixTable);
-    }
+      public void run()
+      {
+        mQueryPrefixer = new QueryPrefixer(new HashMap<String, String>());
+        mResourceManager = new ResourceManager(
+          new NamespaceIndex(new HashMap<String, String>()));
+        mOperationCache.setNamespaces(null);
+        mPrefixTable = new DefaultTableModel();
+        if (null != mPrefix)
+          mPrefix.setModel(mPrefixTable);
+      }
+    });
   }
 
   public void clearContexts()
   {
-    if (null != mContext)
-    {
-      mContextTable = new DefaultTableModel();
-      mContext.setModel(mContextTable);
-    }
+    setContextTable(new ContextTableModel(mCountExecutor,
+      CONTEXT_COUNT_THREADS.getInteger()), null);
   }
   
   public boolean showShortUris()
@@ -770,9 +1143,9 @@ public class Splink extends JFrame implements MessageHandler
       if (c instanceof JTextArea)
         ((JTextArea)c).setEditable(false);
       
-      setHorizontalAlignment(column == 0
+      setHorizontalAlignment(column == ContextTableModel.CONTEXT
         ? SwingConstants.CENTER
-        : SwingConstants.LEFT);
+        : SwingConstants.RIGHT);
 
       c.setForeground(CONTEXT_FONT_CLR.getColor());
       c.setBackground(mContextRowColors[row % mContextRowColors.length]);
@@ -796,8 +1169,8 @@ public class Splink extends JFrame implements MessageHandler
       Object value, boolean isSelected, boolean hasFocus, int row, int column)
     {
       Component c =
-        super.getTableCellRendererComponent(table, value, isSelected,
-          hasFocus, row, column);
+        super.getTableCellRendererComponent(table, getDisplayValue(value),
+          isSelected, hasFocus, row, column);
 
       if (c instanceof JTextArea)
         ((JTextArea)c).setEditable(false);
@@ -1052,7 +1425,11 @@ public class Splink extends JFrame implements MessageHandler
 
     mResultArea = new JScrollPane(mResult);
     mResultArea.setPreferredSize(RESULT_SIZE.getDimension());
-    mResultTab.addTab("name", mResultArea);
+    mResultFilter = new ResultFilter(this, mResult);
+    JPanel resultPanel = new JPanel(new BorderLayout());
+    resultPanel.add(mResultFilter, BorderLayout.NORTH);
+    resultPanel.add(mResultArea, BorderLayout.CENTER);
+    mResultTab.addTab("name", resultPanel);
     
     JSplitPane contextPrefixSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, mContextScroll, mPrefixScroll);
     contextPrefixSplit.setBorder(null);
@@ -1122,6 +1499,7 @@ public class Splink extends JFrame implements MessageHandler
     JMenu editMenu = new JMenu("Edit");
     menuBar.add(editMenu);
     editMenu.add(mCopyQuery);
+    editMenu.add(mFilterResults);
 
     // store menu
 
@@ -1139,6 +1517,8 @@ public class Splink extends JFrame implements MessageHandler
     menuBar.add(queryMenu);
     queryMenu.add(mPerformQuery);
     queryMenu.add(mPreviousQuery);
+    queryMenu.add(mCancelQuery);
+    queryMenu.add(mCompareFormats);
     queryMenu.addSeparator();
     queryMenu.add(mNewQueryTab);
     queryMenu.add(mQueryRemoveTab);
@@ -1224,11 +1604,15 @@ public class Splink extends JFrame implements MessageHandler
     if (e.getClickCount() == 2)
     {
       JTable target = (JTable)e.getSource();
-      int row = target.getSelectedRow();
-      int column = target.getSelectedColumn();
+      if (target.getSelectedRow() < 0 || target.getSelectedColumn() < 0)
+        return;
+
+      // the view may be sorted, the model is not
+
+      int row = target.convertRowIndexToModel(target.getSelectedRow());
+      int column = target.convertColumnIndexToModel(target.getSelectedColumn());
       if (target == mResult)
-        inspectResource(target.getModel().getValueAt(row, column)
-          .toString());
+        inspectResource(target.getModel().getValueAt(row, column));
       if (target == mPrefix)
         inspectPrefix(target.getModel().getValueAt(row, 0).toString() +
           ":");
@@ -1338,52 +1722,42 @@ public class Splink extends JFrame implements MessageHandler
     {
       JTable table = (JTable)c;
       adjustTablesColumns(table);
-      TableRowSorter<TableModel> sorter = new TableRowSorter<TableModel>(table.getModel());
-      table.setRowSorter(sorter);
+      if (table.getModel() instanceof ResultTableModel)
+        table.setRowSorter(new ResultRowSorter(
+          (ResultTableModel)table.getModel(), mConvertExecutor,
+          QUERY_CONVERT_THREADS.getInteger()));
+      else
+        table.setRowSorter(new TableRowSorter<TableModel>(table.getModel()));
     }
     mResultArea.setViewportView(c);
+    mResultFilter.reset();
   }
   
   public void adjustTablesColumns(JTable table)
   {
-    TableColumnModel columnModel = table.getColumnModel();
-    TableModel model = table.getModel();
-    int count = model.getColumnCount();
-    
-    for (int c = 0; c < count; ++c)
-    {
-      TableColumn column = columnModel.getColumn(c);
-
-      int width =
-        establishStringWidth(
-          column.getHeaderValue().toString(),
-          column.getHeaderRenderer()
-            .getTableCellRendererComponent(table, null, false, false, 0, c)
-            .getFont());
-
-      for (int r = 0; r < model.getRowCount(); ++r)
-      {
-        Object text = model.getValueAt(r, c);
-        if (null != text)
-          width =
-            max(width, establishStringWidth(text.toString(), table.getFont()));
-      }
-
-      column.setPreferredWidth(width);
-    }
+    mColumnSizer.size(table);
   }
 
   class SplinkResource
   {
     private final ResourceType mType;
     private final String mValue;
+    private final ResultCell mCell;
     
     public SplinkResource(String value)
     {
       mValue = value;
+      mCell = null;
       mType = establishType(getValue());
     }
 
+    public SplinkResource(ResultCell cell)
+    {
+      mValue = cell.toString();
+      mCell = cell;
+      mType = cell.getKind().getResourceType();
+    }
+
     public String getValue()
     {
       return mValue;
@@ -1396,16 +1770,23 @@ public class Splink extends JFrame implements MessageHandler
     
     public String getCanonical()
     {
+      if (null != mCell)
+        return mCell.getCanonical();
+
       switch (mType)
       {
       case LONG_URI:
         return "<" + getValue() + ">";
       case LITERAL:
-        Matcher m = LITERAL.parse(getValue());
-        String base = m.group(1);
-        String type = m.group(2);
+        ParsedResource literal = ParsedResource.parse(getValue());
+        String base = literal.getLexicalForm();
+        String type = literal.getSeparator();
         if (null == type)
           type = "";
+        else if (LONG_URI.isMatch(literal.getSuffix()))
+          type += "<" + literal.getSuffix() + ">";
+        else
+          type += literal.getSuffix();
         base = base.replaceAll("\"", "\\\\\"");
         String quote = (base.contains("\n") || base.contains("\r")) ? "\"\"\"" : "\"";
         return format("%s%s%s%s\n", quote, base, quote, type);
@@ -1421,9 +1802,16 @@ public class Splink extends JFrame implements MessageHandler
   }
   
   
-  private void inspectResource(String resourceString)
+  private SplinkResource createResource(Object value)
   {
-    SplinkResource resource = new SplinkResource(resourceString);
+    return value instanceof ResultCell
+      ? new SplinkResource((ResultCell)value)
+      : new SplinkResource(value.toString());
+  }
+
+  private void inspectResource(Object value)
+  {
+    SplinkResource resource = createResource(value);
     String query = null;
 
     switch (resource.getType())
@@ -1514,13 +1902,20 @@ public class Splink extends JFrame implements MessageHandler
     }
     
     final String fullQuery = appendPrefix
-      ? mQueryPrefixString + query
+      ? mQueryPrefixer.prefix(query)
       : query;
     
     if (pushQuery)
       pushQuery(fullQuery);
-          
-    new Thread()
+
+    // the query is tracked before it is submitted, so that it can not end
+    // before it is tracked, and dropped again if it is rejected
+
+    final QueryControl queryControl = new QueryControl();
+    final ConnectionPool pool = mPool;
+    mRunningQueries.add(queryControl);
+    
+    Future<?> future = submitTask("query", new Runnable()
     {
       public void run()
       {
@@ -1529,21 +1924,12 @@ public class Splink extends JFrame implements MessageHandler
 
         mPerformQuery.setEnabled(false);
         mPreviousQuery.setEnabled(false);
+        mCancelQuery.setEnabled(true);
 
         View queryView = new View()
         {
-          ResultsListener mResultsListener;
-
-          {
-            try
-            {
-              mResultsListener = new DefaultResultsListener(Splink.this, mResult, mTableHeaderRenderer);
-            }
-            catch (RepositoryException e)
-            {
-              e.printStackTrace();
-            }
-          }
+          ResultsListener mResultsListener = new DefaultResultsListener(
+            Splink.this, mResult, mTableHeaderRenderer, queryControl);
           
           public Component getViewComponent()
           {
@@ -1560,88 +1946,214 @@ public class Splink extends JFrame implements MessageHandler
             return Splink.this;
           }
 
-          public RepositoryConnection getRepositoryConnection()
+          public ConnectionPool getConnectionPool()
+          {
+            return pool;
+          }
+
+          public QueryControl getQueryControl()
           {
-            return mConnection;
+            return queryControl;
           }
         };
         
-        performQuery(fullQuery, mShowInferredCbmi.isSelected(), 
-          mQueryLimit, mQueryTimeout, true, queryView);
+        try
+        {
+          performQuery(fullQuery, mShowInferredCbmi.isSelected(), 
+            mQueryLimit, mQueryTimeout, true, queryView, mOperationCache);
+        }
+        finally
+        {
+          queryControl.finish();
+          mRunningQueries.remove(queryControl);
+          mPerformQuery.setEnabled(submitEnabled);
+          mPreviousQuery.setEnabled(previousEnabled);
+          updateEnabled();
+        }
+      }
+    });
 
-        mPerformQuery.setEnabled(submitEnabled);
-        mPreviousQuery.setEnabled(previousEnabled);
+    if (null == future)
+      mRunningQueries.remove(queryControl);
+    else
+      queryControl.setFuture(future);
+    updateEnabled();
+  }
+
+  /**
+   * Time the current query in each format the server can send its results
+   * in, and report the formats fastest first.
+   */
+
+  private void compareFormats()
+  {
+    if (!isConnected())
+    {
+      handleError(SPLASH, "not connected");
+      return;
+    }
+
+    String query = mQueryPrefixer.prefix(getCurrentQuery());
+    QueryOperation operation;
+    try
+    {
+      operation = mOperationCache.parse(query);
+    }
+    catch (MalformedQueryException e)
+    {
+      handleError(SPLASH, e);
+      return;
+    }
+
+    final boolean graph = operation.getKind() == QueryOperation.Kind.GRAPH;
+    if (!graph && operation.getKind() != QueryOperation.Kind.TUPLE)
+    {
+      handleWarning(STATUS, "only tuple and graph queries can be compared");
+      return;
+    }
+
+    // compare what the query would show, limited as it would be
+
+    if (!graph && mQueryLimit != NO_QUERY_LIMIT && !operation.hasLimit())
+      query += "\nLIMIT " + mQueryLimit;
+
+    final String fullQuery = query;
+    final QueryLanguage language = operation.getLanguage();
+    final boolean includeInferred = mShowInferredCbmi.isSelected();
+    final String url = format(HOST_PORT_URL_FORMAT, SESAME_HOST.getString(),
+      SESAME_PORT.getInteger());
+    final String repositoryName = SESAME_REPOSITORY.getString();
+    handleMessage(STATUS, "comparing result formats...");
+    submitTask("compare formats", new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          List<ResultFormats.Timing> timings = ResultFormats.compare(url,
+            repositoryName, fullQuery, language, graph, includeInferred,
+            mQueryTimeout);
+          if (timings.isEmpty())
+          {
+            handleWarning(STATUS, "no result format could be compared");
+            return;
+          }
+
+          Collections.sort(timings, new Comparator<ResultFormats.Timing>()
+          {
+            public int compare(ResultFormats.Timing a, ResultFormats.Timing b)
+            {
+              return Long.valueOf(a.getMillis()).compareTo(b.getMillis());
+            }
+          });
+          StringBuilder report = new StringBuilder();
+          for (ResultFormats.Timing timing : timings)
+            report.append(report.length() > 0
+              ? ", "
+              : "").append(timing);
+          handleMessage(BOTH, "%,d rows: %s", timings.get(0).getRows(),
+            report);
+        }
+        catch (Exception e)
+        {
+          handleError(STATUS, e, "Comparing result formats");
+        }
       }
-    }.start();
+    });
   }
-  
-  private Integer establishStringWidth(String string, Font font)
+
+  /** cancel every query which is queued or running */
+
+  private void cancelQuery()
   {
-    FontMetrics metrics = getFontMetrics(font);
-    return metrics.stringWidth(" " + string);
+    List<QueryControl> queries;
+    synchronized (mRunningQueries)
+    {
+      queries = new ArrayList<QueryControl>(mRunningQueries);
+      mRunningQueries.clear();
+    }
+    for (QueryControl queryControl : queries)
+      queryControl.cancel();
+    if (!queries.isEmpty())
+      handleMessage(STATUS, "canceling %s...", queries.size() > 1
+        ? format("%,d queries", queries.size())
+        : "query");
+    updateEnabled();
   }
 
+  private Future<?> submitTask(String name, Runnable task)
+  {
+    try
+    {
+      Future<?> future = mQueryExecutor.submit(name, task);
+      if (mQueryExecutor.getQueueDepth() > 0)
+        handleMessage(STATUS, "%s queued, %s", name, mQueryExecutor.getStatus());
+      return future;
+    }
+    catch (RejectedExecutionException e)
+    {
+      handleWarning(STATUS, "%s rejected, too many pending tasks (%s)", name,
+        mQueryExecutor.getStatus());
+      return null;
+    }
+  }
+  
   public boolean showLongUri()
   {
     return mShowLongUriCbmi.getState();
   }
+
+  /** the text shown for a table value, result cells in long or short form */
+
+  public String getDisplayValue(Object value)
+  {
+    return getDisplayValue(value, showLongUri());
+  }
+
+  public String getDisplayValue(Object value, boolean longUri)
+  {
+    if (value instanceof ResultCell)
+      return longUri
+        ? value.toString()
+        : ((ResultCell)value).getShortForm(mResourceManager);
+
+    return null == value
+      ? null
+      : value.toString();
+  }
   
     
   public static void performQuery(String queryString,
     boolean includeInffered, int queryLimit, int queryTimeout,
-    boolean limitResults, View view)
+    boolean limitResults, View view, OperationCache operationCache)
   {
     MessageHandler messageHandler = view.getMessageHandler();
     ResultsListener resultsListener = view.getResultsListener();
-    RepositoryConnection connection = view.getRepositoryConnection();
+    ConnectionPool pool = view.getConnectionPool();
+    QueryControl queryControl = view.getQueryControl();
 
     long startTime = 0;
+    RepositoryConnection connection = null;
     try
     {
-      ParsedOperation parsedOperation = null;
-      QueryLanguage queryLanguage = QueryLanguage.SPARQL;
+      // each query runs on a pooled connection of its own
 
-      try
-      {
-        parsedOperation =
-          QueryParserUtil.parseQuery(QueryLanguage.SPARQL, queryString, null);
+      connection = pool.borrow();
 
-      }
-      catch (MalformedQueryException mqe)
-      {
-        try
-        {
-          parsedOperation =
-            QueryParserUtil.parseUpdate(QueryLanguage.SPARQL, queryString,
-              null);
-        }
-        catch (MalformedQueryException mqe2)
-        {
-          parsedOperation =
-            QueryParserUtil
-              .parseQuery(QueryLanguage.SERQL, queryString, null);
-          queryLanguage = QueryLanguage.SERQL;
-        }
-      }
+      // parse the query once, establishing its language and kind
+
+      QueryOperation operation = operationCache.parse(queryString);
+      QueryLanguage queryLanguage = operation.getLanguage();
 
       // if there is a query limit, apply it
 
       final AtomicLong actualLimit = new AtomicLong(NO_QUERY_LIMIT);
       if (limitResults && queryLimit != NO_QUERY_LIMIT &&
-        (parsedOperation instanceof ParsedTupleQuery))
+        operation.getKind() == QueryOperation.Kind.TUPLE)
       {
-        final AtomicBoolean hasLimit = new AtomicBoolean(false);
-        ((ParsedTupleQuery)parsedOperation).getTupleExpr().visit(
-          new QueryModelVisitorBase<Exception>()
-          {
-            public void meet(Slice node) throws Exception
-            {
-              actualLimit.set(node.getLimit());
-              hasLimit.set(true);
-            }
-          });
-
-        if (!hasLimit.get())
+        if (operation.hasLimit())
+          actualLimit.set(operation.getLimit());
+        else
         {
           queryString += "\nLIMIT " + queryLimit;
           actualLimit.set(queryLimit);
@@ -1656,7 +2168,7 @@ public class Splink extends JFrame implements MessageHandler
 
       // if this is a boolean query, perform a boolean query
 
-      if (parsedOperation instanceof ParsedBooleanQuery)
+      if (operation.getKind() == QueryOperation.Kind.BOOLEAN)
       {
         String message =
           format("asking%s...", queryTimeout == NO_QUERY_TIMEOUT
@@ -1665,18 +2177,19 @@ public class Splink extends JFrame implements MessageHandler
         messageHandler.handleMessage(STATUS, message);
 
         BooleanQuery query =
-          connection.prepareBooleanQuery(QueryLanguage.SPARQL, queryString);
+          connection.prepareBooleanQuery(queryLanguage, queryString);
         query.setMaxQueryTime(queryTimeout);
         query.setIncludeInferred(includeInffered);
         boolean result = query.evaluate();
         resultsListener.onBoolean(result);
-        messageHandler.handleMessage(STATUS, "seconds: %2.2f, result: %b",
-          (System.currentTimeMillis() - startTime) / 1000.f, result);
+        messageHandler.handleMessage(STATUS, "seconds: %2.2f, result: %b, %s",
+          (System.currentTimeMillis() - startTime) / 1000.f, result,
+          operationCache.getStatus());
       }
 
       // if this is a tuple quer, perform a tuple query
 
-      else if (parsedOperation instanceof ParsedTupleQuery)
+      else if (operation.getKind() == QueryOperation.Kind.TUPLE)
       {
         String message =
           format("querying%s%s...", actualLimit.get() == NO_QUERY_LIMIT
@@ -1688,25 +2201,36 @@ public class Splink extends JFrame implements MessageHandler
         messageHandler.handleMessage(STATUS, message);
 
         TupleQuery query =
-          connection.prepareTupleQuery(QueryLanguage.SPARQL, queryString);
+          connection.prepareTupleQuery(queryLanguage, queryString);
         query.setMaxQueryTime(queryTimeout);
         query.setIncludeInferred(includeInffered);
         TupleQueryResult result = query.evaluate();
-        int rows = resultsListener.onTuple(result);
+        queryControl.setResult(result);
+        int rows;
+        try
+        {
+          rows = resultsListener.onTuple(result);
+        }
+        finally
+        {
+          result.close();
+        }
         int columns = result.getBindingNames().size();
         messageHandler.handleMessage(STATUS,
-          "seconds: %2.2f, cols: %d, rows: %s%s",
+          "seconds: %2.2f, cols: %d, rows: %s%s, %s",
           (System.currentTimeMillis() - startTime) / 1000.f, columns,
           (rows == QUERY_CANCELED
             ? "[canceled]"
-            : format("%,d", rows)), rows == actualLimit.get()
-            ? " (limited)"
-            : "");
+            : format("%,d", rows)), queryControl.isCanceled()
+            ? " [canceled]"
+            : rows == actualLimit.get()
+              ? " (limited)"
+              : "", operationCache.getStatus());
       }
 
       // if this is a graph query, perform a graph query
 
-      else if (parsedOperation instanceof ParsedGraphQuery)
+      else if (operation.getKind() == QueryOperation.Kind.GRAPH)
       {
         String message =
           format("describing%s%s...", actualLimit.get() == NO_QUERY_LIMIT
@@ -1720,20 +2244,32 @@ public class Splink extends JFrame implements MessageHandler
           connection.prepareGraphQuery(queryLanguage, queryString);
         query.setMaxQueryTime(queryTimeout);
         query.setIncludeInferred(includeInffered);
-        int rows = resultsListener.onGraph(query.evaluate());
+        GraphQueryResult result = query.evaluate();
+        queryControl.setResult(result);
+        int rows;
+        try
+        {
+          rows = resultsListener.onGraph(result);
+        }
+        finally
+        {
+          result.close();
+        }
         messageHandler.handleMessage(STATUS,
-          "seconds: %2.2f, cols: %d, rows: %s%s",
+          "seconds: %2.2f, cols: %d, rows: %s%s, %s",
           (System.currentTimeMillis() - startTime) / 1000.f, 3,
           (rows == QUERY_CANCELED
             ? "[canceled]"
-            : format("%,d", rows)), rows == actualLimit.get()
-            ? " (limited)"
-            : "");
+            : format("%,d", rows)), queryControl.isCanceled()
+            ? " [canceled]"
+            : rows == actualLimit.get()
+              ? " (limited)"
+              : "", operationCache.getStatus());
       }
 
       // if this is an update, perform update operation
 
-      else if (parsedOperation instanceof ParsedUpdate)
+      else if (operation.getKind() == QueryOperation.Kind.UPDATE)
       {
         String message = format("updateing...");
         messageHandler.handleMessage(BOTH, message);
@@ -1746,7 +2282,7 @@ public class Splink extends JFrame implements MessageHandler
       else
       {
         messageHandler.handleError(BOTH, "Unknown query type: " +
-          parsedOperation);
+          operation.getParsedOperation());
       }
     }
     catch (QueryInterruptedException qie)
@@ -1758,65 +2294,101 @@ public class Splink extends JFrame implements MessageHandler
     }
     catch (Exception e)
     {
-      messageHandler.handleError(SPLASH, e,
-        "------ query ------\n\n%s\n\n-------------------\n", queryString);
+      if (queryControl.isCanceled())
+        messageHandler.handleMessage(STATUS,
+          "seconds: %2.2f, query canceled",
+          (System.currentTimeMillis() - startTime) / 1000.f);
+      else
+        messageHandler.handleError(SPLASH, e,
+          "------ query ------\n\n%s\n\n-------------------\n", queryString);
+    }
+    finally
+    {
+      if (null != connection)
+      {
+        pool.release(connection);
+        log.debug(pool.getStatus());
+      }
     }
   }
 
-  private void exportRepository(final RDFFormat format, final File file,
-    boolean includeInferred)
+  /**
+   * Stream every statement of the repository into a file, gzipped if its
+   * name ends with .gz, showing progress and throughput in the status bar
+   * and on a label. With more than one shard the contexts are exported in
+   * parallel into numbered files named after the file, with a manifest. An
+   * incremental export writes a file per context and only writes the
+   * contexts which changed since the last time.
+   */
+
+  private void exportRepository(RDFFormat format, File file, int shards,
+    boolean incremental, boolean includeInferred, QueryControl queryControl,
+    final JLabel progress)
   {
-    final ResultsListener exportQrp = new ResultsAdatper()
+    RepositoryExporter.Listener listener = new RepositoryExporter.Listener()
     {
-      public int onGraph(GraphQueryResult result)
-        throws QueryEvaluationException
+      public void onProgress(long statements, long bytes, long elapsed)
       {
-        int count = 0;
-        try
+        final String message =
+          RepositoryExporter.describe(statements, bytes, elapsed);
+        handleMessage(STATUS, "exporting %s", message);
+        SwingUtilities.invokeLater(new Runnable()
         {
-          handleMessage(BOTH, "writing %s...", file.getName());
-          FileWriter writer = new FileWriter(file);
-          count = writeGraph(format, result, writer);
-          handleMessage(BOTH, count == QUERY_CANCELED
-            ? "export canceled"
-            : "exported %d triples", count);
-        }
-        catch (IOException e)
-        {
-          handleError(SPLASH, e);
-        }
-
-        return count;
+          public void run()
+          {
+            progress.setText(message);
+          }
+        });
       }
     };
 
-    View queryView = new View()
+    handleMessage(BOTH, "writing %s%s...", file.getName(),
+      ExportSink.isCompressed(file)
+        ? " compressed"
+        : "");
+    try
     {
-
-      public Component getViewComponent()
+      long count = 0;
+      String files = "";
+      if (incremental)
       {
-        throw new UnsupportedOperationException();
+        IncrementalExporter exporter = new IncrementalExporter(mPool, format,
+          includeInferred, queryControl, listener);
+        exporter.export(file);
+        count = exporter.getStatements();
+        files = format(" from %,d changed contexts, %,d unchanged, %,d " +
+          "removed, listed in %s", exporter.getChanged(),
+          exporter.getUnchanged(), exporter.getRemoved(),
+          IncrementalExporter.getManifestFile(file, format).getName());
       }
-
-      public ResultsListener getResultsListener()
+      else if (shards > 1)
       {
-        return exportQrp;
+        List<ShardedExporter.Shard> written = new ShardedExporter(mPool,
+          format, includeInferred, queryControl, listener).export(file, shards);
+        for (ShardedExporter.Shard shard : written)
+          count += shard.getStatements();
+        files = format(" to %d files listed in %s", written.size(),
+          ShardedExporter.getManifestFile(file, format).getName());
       }
+      else
+        count = new RepositoryExporter(mPool, format, includeInferred,
+          queryControl, listener).export(ExportSink.open(file, format));
+      handleMessage(BOTH, queryControl.isCanceled()
+        ? "export canceled after %,d statements"
+        : "exported %,d statements%s%s", count, files,
+        format.supportsContexts()
+          ? ""
+          : format(", contexts are not kept in %s", format.getName()));
+    }
+    catch (Exception e)
+    {
+      // canceling interrupts the export, which may surface as a failure
 
-      public MessageHandler getMessageHandler()
-      {
-        return Splink.this;
-      }
-
-      public RepositoryConnection getRepositoryConnection()
-      {
-        return mConnection;
-      }
-
-    };
-
-    performQuery(mQueryPrefixString + QUERY_FOR_EXPORT, includeInferred,
-      mQueryLimit, mQueryTimeout, false, queryView);
+      if (queryControl.isCanceled())
+        handleMessage(BOTH, "export canceled");
+      else
+        handleError(SPLASH, e);
+    }
   }
   
   private void showRepositoryExportDialog()
@@ -1832,17 +2404,25 @@ public class Splink extends JFrame implements MessageHandler
     final JButton cancel = new JButton("Cancel");
     final JLabel formatLbl = new JLabel("Format", SwingConstants.RIGHT);
     final JLabel inferredLbl = new JLabel("Inferred", SwingConstants.RIGHT);
+    final JLabel shardsLbl = new JLabel("Shards", SwingConstants.RIGHT);
+    final JLabel incrementalLbl = new JLabel("Incremental", SwingConstants.RIGHT);
+    final JLabel progress = new JLabel(" ");
     final JComboBox formats = new JComboBox(new Vector<String>(formatMap.keySet()));
     final JCheckBox inferred = new JCheckBox();
+    final JComboBox shards = new JComboBox(new Integer[] {1, 2, 4, 8, 16, 32});
+    final JCheckBox incremental = new JCheckBox();
     
     formats.setSelectedItem(EXPORT_TYPE.getString());
+    shards.setSelectedItem(EXPORT_SHARDS.getInteger());
+    incremental.setSelected(EXPORT_INCREMENTAL.getBoolean());
+    shards.setEnabled(!incremental.isSelected());
     repoName.setFont(MASTER_FONT.getFont().deriveFont(20f));
     repoName.setForeground(Color.DARK_GRAY);
     throbber.setVisible(false);
 
     ActionListener listener = new ActionListener()
     {
-      Thread exportThread = null;
+      QueryControl exportControl = null;
       
       public void actionPerformed(ActionEvent e)
       {
@@ -1850,6 +2430,15 @@ public class Splink extends JFrame implements MessageHandler
         {
           EXPORT_TYPE.set(formats.getSelectedItem());
         }
+        else if (e.getSource() == shards)
+        {
+          EXPORT_SHARDS.set(shards.getSelectedItem());
+        }
+        else if (e.getSource() == incremental)
+        {
+          EXPORT_INCREMENTAL.set(incremental.isSelected());
+          shards.setEnabled(!incremental.isSelected());
+        }
         else if (e.getSource() == export)
         {
           final RDFFormat format = formatMap.get(formats.getSelectedItem());
@@ -1858,9 +2447,12 @@ public class Splink extends JFrame implements MessageHandler
           chooser.setSelectedFile(new File(EXPORT_DIRECTORY.getString() + File.separator + 
             SESAME_REPOSITORY.getString() + "." + 
             format.getDefaultFileExtension()));
+          List<String> extensions =
+            new ArrayList<String>(format.getFileExtensions());
+          extensions.add(ExportSink.GZIP_EXTENSION.substring(1));
           chooser.setFileFilter(new FileNameExtensionFilter(
-            format.getName() + " " + format.getFileExtensions(),
-            format.getFileExtensions().toArray(new String[]{})));
+            format.getName() + " " + extensions,
+            extensions.toArray(new String[]{})));
           chooser.setMultiSelectionEnabled(false);
           
           if (chooser.showSaveDialog(dialog) == JFileChooser.APPROVE_OPTION)
@@ -1886,24 +2478,30 @@ public class Splink extends JFrame implements MessageHandler
             throbber.setVisible(true);
             export.setEnabled(false);
             formats.setEnabled(false);
+            shards.setEnabled(false);
+            incremental.setEnabled(false);
             
             dialog.pack();
-            exportThread = new Thread()
+            final QueryControl queryControl = new QueryControl();
+            exportControl = queryControl;
+            queryControl.setFuture(submitTask("export", new Runnable()
             {
               public void run()
               {
-                exportRepository(format, file, inferred.isSelected());
+                exportRepository(format, file,
+                  (Integer)shards.getSelectedItem(), incremental.isSelected(),
+                  inferred.isSelected(), queryControl, progress);
                 dialog.setVisible(false);
               }
-            };
-            exportThread.start();
+            }));
           }
         }
         else if (e.getSource() == cancel)
         {
-          if (null != exportThread)
+          if (null != exportControl)
           {
-            exportThread = null;
+            exportControl.cancel();
+            exportControl = null;
           }
           
           dialog.setVisible(false);
@@ -1914,6 +2512,8 @@ public class Splink extends JFrame implements MessageHandler
     export.addActionListener(listener);
     cancel.addActionListener(listener);
     formats.addActionListener(listener);
+    shards.addActionListener(listener);
+    incremental.addActionListener(listener);
     
     JPanel options = new JPanel();
     options.setBackground(Color.WHITE);
@@ -1922,7 +2522,11 @@ public class Splink extends JFrame implements MessageHandler
     options.add(formats);
     options.add(inferredLbl);
     options.add(inferred);
-    SpringUtilities.makeCompactGrid(options, 2, 2, 0, 0, 0, 0);
+    options.add(shardsLbl);
+    options.add(shards);
+    options.add(incrementalLbl);
+    options.add(incremental);
+    SpringUtilities.makeCompactGrid(options, 4, 2, 0, 0, 0, 0);
 
     GroupLayout layout = new GroupLayout(dialog.getContentPane());
     layout.setAutoCreateGaps(true);
@@ -1932,7 +2536,8 @@ public class Splink extends JFrame implements MessageHandler
     layout.setHorizontalGroup(layout.createParallelGroup(TRAILING)
       .addGroup(layout.createParallelGroup(CENTER)
         .addComponent(repoName)
-        .addComponent(options))
+        .addComponent(options)
+        .addComponent(progress))
         .addGroup(layout.createSequentialGroup()
           .addComponent(throbber)
           .addGap(30)
@@ -1943,6 +2548,7 @@ public class Splink extends JFrame implements MessageHandler
     layout.setVerticalGroup(layout.createSequentialGroup()
       .addComponent(repoName)
       .addComponent(options)
+      .addComponent(progress)
       .addGroup(layout.createParallelGroup()
         .addComponent(throbber)
         .addComponent(export)
@@ -2014,15 +2620,23 @@ public class Splink extends JFrame implements MessageHandler
     final JLabel hostLbl = new JLabel("Host", SwingConstants.RIGHT);
     final JLabel portLbl = new JLabel("Port", SwingConstants.RIGHT);
     final JLabel autoConnectLbl = new JLabel("Auto Connect", SwingConstants.RIGHT);
+    final JLabel tupleFormatLbl = new JLabel("Result Format", SwingConstants.RIGHT);
+    final JLabel graphFormatLbl = new JLabel("Graph Format", SwingConstants.RIGHT);
     final JTextField hostFld = new JTextField(host);
     final JTextField portFld = new JTextField("" + port);
     final JCheckBox autoConnect = new JCheckBox();
+    final JComboBox tupleFormat =
+      new JComboBox(new Vector<String>(ResultFormats.getTupleFormats()));
+    final JComboBox graphFormat =
+      new JComboBox(new Vector<String>(ResultFormats.getGraphFormats()));
     
     throbber.setVisible(false);
     blank.setVisible(true);
     autoConnect.setSelected(AUTO_CONNECT.getBoolean());
+    tupleFormat.setSelectedItem(RESULT_TUPLE_FORMAT.getString());
+    graphFormat.setSelectedItem(RESULT_GRAPH_FORMAT.getString());
     
-    class ConnectThread extends Thread
+    class ConnectTask implements Runnable
     {
       public void run()
       {
@@ -2054,6 +2668,14 @@ public class Splink extends JFrame implements MessageHandler
         {
           AUTO_CONNECT.set(autoConnect.isSelected());
         }
+        else if (source == tupleFormat)
+        {
+          RESULT_TUPLE_FORMAT.set(tupleFormat.getSelectedItem());
+        }
+        else if (source == graphFormat)
+        {
+          RESULT_GRAPH_FORMAT.set(graphFormat.getSelectedItem());
+        }
         else if (source == connect)
         {
           throbber.setVisible(true);
@@ -2061,7 +2683,12 @@ public class Splink extends JFrame implements MessageHandler
           connect.setEnabled(false);
           dialog.pack();
           
-          (new ConnectThread()).start();
+          if (null == submitTask("connect", new ConnectTask()))
+          {
+            throbber.setVisible(false);
+            blank.setVisible(true);
+            connect.setEnabled(true);
+          }
         }
         else if (source == cancel)
         {
@@ -2071,6 +2698,8 @@ public class Splink extends JFrame implements MessageHandler
     };
   
     autoConnect.addActionListener(listener);
+    tupleFormat.addActionListener(listener);
+    graphFormat.addActionListener(listener);
     connect.addActionListener(listener);
     cancel.addActionListener(listener);
     
@@ -2081,9 +2710,13 @@ public class Splink extends JFrame implements MessageHandler
     options.add(hostFld);
     options.add(portLbl);
     options.add(portFld);
+    options.add(tupleFormatLbl);
+    options.add(tupleFormat);
+    options.add(graphFormatLbl);
+    options.add(graphFormat);
     options.add(autoConnectLbl);
     options.add(autoConnect);
-    SpringUtilities.makeCompactGrid(options, 3, 2, 0, 0, 0, 0);
+    SpringUtilities.makeCompactGrid(options, 5, 2, 0, 0, 0, 0);
   
     GroupLayout layout = new GroupLayout(dialog.getContentPane());
     layout.setAutoCreateGaps(true);
@@ -2135,41 +2768,6 @@ public class Splink extends JFrame implements MessageHandler
     dialog.setVisible(true);
   }
 
-  private int writeGraph(RDFFormat format, GraphQueryResult result, Writer writer)
-  {
-    int count = 0;
-    
-    try
-    {
-      RDFWriter rdfWriter = Rio.createWriter(format, writer);
-      rdfWriter.startRDF();
-
-      Map<String, String> nameSpace = result.getNamespaces();
-      for (String prefix: nameSpace.keySet())
-      {
-        rdfWriter.handleNamespace(prefix, nameSpace.get(prefix));
-      }
-      
-      while (result.hasNext())
-      {
-        rdfWriter.handleStatement(result.next());
-        ++count;
-      }
-      
-      rdfWriter.endRDF();
-    }
-    catch (QueryEvaluationException e)
-    {
-      handleError(BOTH, e);
-    }
-    catch (RDFHandlerException e)
-    {
-      handleError(BOTH, e);
-    }
-    
-    return count;
-  }
-
   public void debugMessage(String message, Object... args)
   {
     out.format(message + "\n", args);
@@ -2407,6 +3005,14 @@ public class Splink extends JFrame implements MessageHandler
     }
   };
   
+  private SplinkAction mCompareFormats = new SplinkAction("Compare Formats", null,  "time the current query in each result format the server can send")
+  {
+    public void actionPerformed(ActionEvent e)
+    {
+      compareFormats();
+    }
+  };
+  
   private SplinkAction mPreviousQuery = new SplinkAction("Submit Previous", getKeyStroke(VK_BACK_SPACE, CTRL_MASK),  "perform prevousely submited query (back up)")
   {
     {
@@ -2419,16 +3025,44 @@ public class Splink extends JFrame implements MessageHandler
     }
   };
   
+  private SplinkAction mCancelQuery = new SplinkAction("Cancel", getKeyStroke(VK_PERIOD, META_MASK),  "cancel the running query, keeping the rows read so far")
+  {
+    {
+      setEnabled(false);
+    }
+    
+    public void actionPerformed(ActionEvent e)
+    {
+      cancelQuery();
+    }
+  };
+  
   private SplinkAction mShowLongUri = new SplinkAction("Long URI", getKeyStroke(VK_L, META_MASK),  "show result URIs in long form")
   {
     public void actionPerformed(ActionEvent e)
     {
       OPTION_SHOW_LONG_URI.set(mShowLongUriCbmi.isSelected());
-      if (null != mLastQuery)
-        submitQuery(mLastQuery, false, false);
+
+      // cells pick their long or short form as they are rendered, so the
+      // current result only needs to be drawn again
+
+      if (mResult.getModel() instanceof ResultTableModel)
+      {
+        adjustTablesColumns(mResult);
+        mResult.repaint();
+        mResultFilter.refresh();
+      }
     }
   };
   
+  private SplinkAction mFilterResults = new SplinkAction("Filter Results", getKeyStroke(VK_F, META_MASK),  "show only the result rows which match a filter")
+  {
+    public void actionPerformed(ActionEvent e)
+    {
+      mResultFilter.focus();
+    }
+  };
+
   private SplinkAction mShowInferred = new SplinkAction("Include Inferred", getKeyStroke(VK_I, META_MASK),  "return results which include inferred tripples")
   {
     public void actionPerformed(ActionEvent e)
@@ -2475,7 +3109,7 @@ public class Splink extends JFrame implements MessageHandler
   {
     public void actionPerformed(ActionEvent e)
     {
-      StringSelection ss = new StringSelection(mPopupTable.getValueAt(mPopupTableRow, mPopupTableColumn).toString());
+      StringSelection ss = new StringSelection(getDisplayValue(mPopupTable.getValueAt(mPopupTableRow, mPopupTableColumn)));
       getToolkit().getSystemClipboard().setContents(ss, null);
     }
   };
@@ -2486,11 +3120,8 @@ public class Splink extends JFrame implements MessageHandler
     {
       try
       {
-        String value =
-          mPopupTable.getValueAt(mPopupTableRow, mPopupTableColumn)
-            .toString();
-
-        SplinkResource resource = new SplinkResource(value);
+        SplinkResource resource = createResource(
+          mPopupTable.getValueAt(mPopupTableRow, mPopupTableColumn));
         
         getCurrentEditor().getDocument().insertString(
           getCurrentEditor().getCaretPosition(), resource.getCanonical(), null);
@@ -2589,7 +3220,8 @@ public class Splink extends JFrame implements MessageHandler
     public void actionPerformed(ActionEvent e)
     {
       StringSelection ss =
-        new StringSelection(mQueryPrefixString + "\n" + getCurrentQuery());
+        new StringSelection(mQueryPrefixer.getDeclarations(getCurrentQuery())
+          + "\n" + getCurrentQuery());
       getToolkit().getSystemClipboard().setContents(ss, null);
     }
   };
@@ -2684,6 +3316,7 @@ public class Splink extends JFrame implements MessageHandler
 
       mPreviousQuery
         .setEnabled(null != mQueryStack && !mQueryStack.isEmpty());
+      mCancelQuery.setEnabled(!mRunningQueries.isEmpty());
 
       mQueryRemoveTab.setEnabled(count > 0);
       mQueryLeft.setEnabled(selected > 0);
@@ -2759,9 +3392,24 @@ public class Splink extends JFrame implements MessageHandler
     EDITOR_CURRENT_QUERY.set(mEditorTab.getSelectedIndex());
   }
 
-  public RepositoryConnection getConnection()
+  public ConnectionPool getConnectionPool()
+  {
+    return mPool;
+  }
+
+  public ResourceManager getResourceManager()
+  {
+    return mResourceManager;
+  }
+
+  public QueryExecutor getConvertExecutor()
+  {
+    return mConvertExecutor;
+  }
+
+  public QueryExecutor getAppendExecutor()
   {
-    return mConnection;
+    return mAppendExecutor;
   }
 }
 
@@ -0,0 +1,154 @@
+package org.trebor.splink;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A group of independent tasks run concurrently on a {@link QueryExecutor},
+ * such as the steps of setting up a connection. Each task is timed, and once
+ * the group is closed and every task has ended the listener is told how long
+ * the whole group and each task took. A task which fails, or which the
+ * executor has no room for, is logged and does not stop the others.
+ */
+
+public class TaskGroup
+{
+  public static final Logger log = Logger.getLogger(TaskGroup.class);
+
+  /** told once when every task of a closed group has ended */
+
+  public interface Listener
+  {
+    void onFinished(TaskGroup group, long elapsed, Map<String, Long> timings);
+  }
+
+  private final String mName;
+  private final QueryExecutor mExecutor;
+  private final Listener mListener;
+  private final long mStart = System.currentTimeMillis();
+  private final Map<String, Long> mTimings = new LinkedHashMap<String, Long>();
+  private int mPending;
+  private boolean mClosed;
+  private boolean mFinished;
+
+  public TaskGroup(String name, QueryExecutor executor, Listener listener)
+  {
+    mName = name;
+    mExecutor = executor;
+    mListener = listener;
+  }
+
+  public String getName()
+  {
+    return mName;
+  }
+
+  /**
+   * Submit a task to the group. Tasks are never run on the calling thread,
+   * which may be the event thread: if the executor is saturated the task is
+   * not run and its future fails with the {@link RejectedExecutionException}.
+   */
+
+  public Future<?> submit(final String taskName, final Runnable task)
+  {
+    synchronized (this)
+    {
+      if (mClosed)
+        throw new IllegalStateException(mName + " is closed");
+      ++mPending;
+    }
+
+    Callable<Object> timed = new Callable<Object>()
+    {
+      public Object call()
+      {
+        long start = System.currentTimeMillis();
+        try
+        {
+          task.run();
+        }
+        catch (RuntimeException e)
+        {
+          log.error(mName + " " + taskName, e);
+        }
+        finally
+        {
+          ended(taskName, System.currentTimeMillis() - start);
+        }
+        return null;
+      }
+    };
+
+    try
+    {
+      return mExecutor.submit(mName + " " + taskName, timed);
+    }
+    catch (final RejectedExecutionException e)
+    {
+      log.error(mName + " " + taskName + " rejected, " +
+        mExecutor.getStatus());
+      FutureTask<Object> future = new FutureTask<Object>(
+        new Callable<Object>()
+        {
+          public Object call()
+          {
+            throw e;
+          }
+        });
+      future.run();
+      rejected();
+      return future;
+    }
+  }
+
+  /** no more tasks will be submitted */
+
+  public void close()
+  {
+    synchronized (this)
+    {
+      mClosed = true;
+    }
+    checkFinished();
+  }
+
+  private void ended(String taskName, long elapsed)
+  {
+    synchronized (this)
+    {
+      mTimings.put(taskName, elapsed);
+      --mPending;
+    }
+    checkFinished();
+  }
+
+  private void rejected()
+  {
+    synchronized (this)
+    {
+      --mPending;
+    }
+    checkFinished();
+  }
+
+  private void checkFinished()
+  {
+    Map<String, Long> timings;
+    synchronized (this)
+    {
+      if (!mClosed || mPending > 0 || mFinished)
+        return;
+      mFinished = true;
+      timings = Collections.unmodifiableMap(
+        new LinkedHashMap<String, Long>(mTimings));
+    }
+    mListener.onFinished(this, System.currentTimeMillis() - mStart, timings);
+  }
+}
@@ -0,0 +1,260 @@
+package org.trebor.splink;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Assigns each distinct value a dense integer id and stores the value only
+ * once. Lookups use an open addressed table of ids, so no boxed integers or
+ * map entries are created per value. Id 0 is reserved for null.
+ * <p>
+ * After {@link #spill()} new values are encoded into a memory mapped
+ * {@link MappedFile}, with their offsets in a second one, so the heap used
+ * by the dictionary stops growing. Spilled values are deduplicated only by a
+ * bounded cache of recent values, a value which falls out of the cache is
+ * stored again under a new id.
+ * <p>
+ * Values are added by a single writer thread, readers on other threads may
+ * fetch any id which has been handed to them after it was assigned.
+ */
+
+public class ValueDictionary
+{
+  public static final int NULL_ID = 0;
+
+  /** size of the cache of recently interned spilled values */
+  public static final int RECENT_SIZE = 1 << 14;
+  /** size of the cache of recently read spilled values */
+  public static final int DECODED_SIZE = 1 << 12;
+
+  /** turns values into bytes and back for values spilled to disk */
+
+  public interface Codec
+  {
+    byte[] encode(Object value);
+
+    Object decode(byte[] bytes);
+
+    /** rough heap footprint of a value */
+
+    long estimateSize(Object value);
+  }
+
+  public static final Codec STRING_CODEC = new Codec()
+  {
+    public byte[] encode(Object value)
+    {
+      try
+      {
+        return value.toString().getBytes("UTF-8");
+      }
+      catch (UnsupportedEncodingException e)
+      {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    public Object decode(byte[] bytes)
+    {
+      try
+      {
+        return new String(bytes, "UTF-8");
+      }
+      catch (UnsupportedEncodingException e)
+      {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    public long estimateSize(Object value)
+    {
+      return 56 + 2 * value.toString().length();
+    }
+  };
+
+  private final Codec mCodec;
+  private volatile Object[] mValues = new Object[256];
+  private int[] mTable = new int[512];
+  private int mSize = 1;
+  private long mValueBytes;
+
+  // spilled values
+
+  private volatile int mSpillId = Integer.MAX_VALUE;
+  private MappedFile mValueFile;
+  private MappedFile mOffsetFile;
+  private Object[] mRecentValues;
+  private int[] mRecentIds;
+  private Decoded[] mDecoded;
+
+  /** a spilled value read back from disk, cached by id */
+
+  private static class Decoded
+  {
+    final int mId;
+    final Object mValue;
+
+    Decoded(int id, Object value)
+    {
+      mId = id;
+      mValue = value;
+    }
+  }
+
+  public ValueDictionary()
+  {
+    this(STRING_CODEC);
+  }
+
+  public ValueDictionary(Codec codec)
+  {
+    mCodec = codec;
+  }
+
+  public int intern(Object value) throws IOException
+  {
+    if (null == value)
+      return NULL_ID;
+
+    int hash = spread(value.hashCode());
+    int mask = mTable.length - 1;
+    Object[] values = mValues;
+
+    int slot = hash & mask;
+    for (int id; (id = mTable[slot]) != 0; slot = (slot + 1) & mask)
+      if (values[id].equals(value))
+        return id;
+
+    if (null == mValueFile)
+      return add(slot, value);
+
+    // not among the values held on the heap, look in the recent values
+    // before storing it on disk
+
+    int recent = hash & (RECENT_SIZE - 1);
+    if (value.equals(mRecentValues[recent]))
+      return mRecentIds[recent];
+
+    int id = mSize;
+    mValueFile.append(mCodec.encode(value));
+    mOffsetFile.appendLong(mValueFile.size());
+    mRecentValues[recent] = value;
+    mRecentIds[recent] = id;
+    mSize = id + 1;
+    return id;
+  }
+
+  private int add(int slot, Object value)
+  {
+    int id = mSize;
+    Object[] values = mValues;
+    if (id == values.length)
+      values = Arrays.copyOf(values, values.length * 2);
+    values[id] = value;
+    mValues = values;
+    mValueBytes += mCodec.estimateSize(value);
+
+    mSize = id + 1;
+    mTable[slot] = id;
+    if (mSize * 2 > mTable.length)
+      rehash();
+
+    return id;
+  }
+
+  public Object get(int id)
+  {
+    if (id < mSpillId)
+      return mValues[id];
+
+    // recently read values are kept so that the same object, and anything
+    // it memoizes, is returned while it stays on screen
+
+    int slot = id & (DECODED_SIZE - 1);
+    Decoded decoded = mDecoded[slot];
+    if (null != decoded && decoded.mId == id)
+      return decoded.mValue;
+
+    // the offset file holds the end of each value, preceded by a zero
+
+    long index = 8L * (id - mSpillId);
+    long start = mOffsetFile.getLong(index);
+    long end = mOffsetFile.getLong(index + 8);
+    Object value = mCodec.decode(mValueFile.get(start, (int)(end - start)));
+    mDecoded[slot] = new Decoded(id, value);
+    return value;
+  }
+
+  /** store all values added from now on in a memory mapped file */
+
+  public void spill() throws IOException
+  {
+    if (null != mValueFile)
+      return;
+
+    mRecentValues = new Object[RECENT_SIZE];
+    mRecentIds = new int[RECENT_SIZE];
+    mDecoded = new Decoded[DECODED_SIZE];
+    mValueFile = new MappedFile("splink-values");
+    mOffsetFile = new MappedFile("splink-offsets");
+    mOffsetFile.appendLong(0);
+    mSpillId = mSize;
+  }
+
+  public boolean isSpilled()
+  {
+    return null != mValueFile;
+  }
+
+  /** release the spill file, the dictionary may not be used afterwards */
+
+  public void dispose()
+  {
+    if (null != mValueFile)
+    {
+      mValueFile.close();
+      mOffsetFile.close();
+    }
+  }
+
+  /** the number of ids assigned, including null */
+
+  public int size()
+  {
+    return mSize;
+  }
+
+  /** rough heap footprint of the dictionary */
+
+  public long getEstimatedBytes()
+  {
+    long bytes = mValueBytes + 8L * mValues.length + 4L * mTable.length;
+    if (null != mValueFile)
+      bytes += 12L * RECENT_SIZE + 4L * DECODED_SIZE;
+    return bytes;
+  }
+
+  private void rehash()
+  {
+    int[] table = new int[mTable.length * 2];
+    int mask = table.length - 1;
+    Object[] values = mValues;
+
+    for (int id = 1; id < mSize; ++id)
+    {
+      int slot = spread(values[id].hashCode()) & mask;
+      while (table[slot] != 0)
+        slot = (slot + 1) & mask;
+      table[slot] = id;
+    }
+
+    mTable = table;
+  }
+
+  private static int spread(int hash)
+  {
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    return hash ^ (hash >>> 7) ^ (hash >>> 4);
+  }
+}
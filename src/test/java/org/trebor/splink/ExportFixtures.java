@@ -0,0 +1,106 @@
+package org.trebor.splink;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ * Repositories, files and listeners shared by the exporter tests.
+ */
+
+final class ExportFixtures
+{
+  public static final String NAMESPACE = "http://example.org/";
+
+  public static final RepositoryExporter.Listener IGNORE =
+    new RepositoryExporter.Listener()
+    {
+      public void onProgress(long statements, long bytes, long elapsed)
+      {
+      }
+    };
+
+  private ExportFixtures()
+  {
+  }
+
+  /** an empty repository held in memory */
+
+  public static Repository createRepository() throws RepositoryException
+  {
+    Repository repository = new SailRepository(new MemoryStore());
+    repository.initialize();
+    return repository;
+  }
+
+  /**
+   * Add a numbered context holding the given number of statements, which
+   * differ only in subject and object.
+   */
+
+  public static URI addContext(RepositoryConnection connection, int index,
+    int statements) throws RepositoryException
+  {
+    ValueFactory factory = connection.getValueFactory();
+    URI context = factory.createURI(NAMESPACE + "graph" + index);
+    URI predicate = factory.createURI(NAMESPACE + "p");
+    for (int i = 0; i < statements; ++i)
+      connection.add(factory.createURI(NAMESPACE + "s" + i), predicate,
+        factory.createLiteral(i), context);
+    return context;
+  }
+
+  public static File createTempDirectory() throws IOException
+  {
+    File directory = File.createTempFile("splink", "");
+    directory.delete();
+    directory.mkdir();
+    return directory;
+  }
+
+  public static void delete(File directory)
+  {
+    for (File file : directory.listFiles())
+      file.delete();
+    directory.delete();
+  }
+
+  /** parse an exported file, compressed or not */
+
+  public static List<Statement> read(File file, RDFFormat format)
+    throws Exception
+  {
+    RDFParser parser = Rio.createParser(format);
+    StatementCollector collector = new StatementCollector();
+    parser.setRDFHandler(collector);
+    InputStream in = new FileInputStream(file);
+    if (ExportSink.isCompressed(file))
+      in = new GZIPInputStream(in);
+    try
+    {
+      parser.parse(in, "");
+    }
+    finally
+    {
+      in.close();
+    }
+    return new ArrayList<Statement>(collector.getStatements());
+  }
+}
@@ -0,0 +1,89 @@
+package org.trebor.splink;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+/**
+ * Time building a {@link ResultIndex} over a large result and filtering it
+ * with searches like those typed into the filter box, against checking the
+ * text of every row as a plain scan would.
+ */
+
+public class FilterBenchmark
+{
+  public static final int ROWS = 1000000;
+  public static final String[] SEARCHES = {"subject-12", "predicate7",
+    "number 4242", "value", "nu", "number 42\\d7\"$"};
+
+  public static void main(String[] args) throws Exception
+  {
+    ValueFactory factory = new ValueFactoryImpl();
+    ResultTableModel model = new ResultTableModel(Arrays.asList("s", "p", "o"));
+    Random random = new Random(0);
+    for (int i = 0; i < ROWS; ++i)
+      model.addRow(new Object[]
+      {
+        ResultCell.create(factory.createURI("http://example.org/resource/subject-" +
+          random.nextInt(ROWS / 10))),
+        ResultCell.create(factory.createURI("http://example.org/vocabulary#predicate" +
+          random.nextInt(50))),
+        ResultCell.create(factory.createLiteral("object value number " + i)),
+      });
+    model.publishRows();
+
+    ResultIndex.Display display = new ResultIndex.Display()
+    {
+      public String getText(Object value)
+      {
+        return value.toString();
+      }
+    };
+
+    long start = System.nanoTime();
+    ResultIndex index = new ResultIndex(model, display);
+    index.update();
+    System.out.format("%,d rows indexed in %,.0f ms, %,d trigrams\n", ROWS,
+      (System.nanoTime() - start) / 1e6, index.getTrigramCount());
+
+    for (String search : SEARCHES)
+    {
+      boolean regex = search.contains("\\");
+      start = System.nanoTime();
+      int matches = index.filter(ResultIndex.ALL_COLUMNS, search, regex).length;
+      double indexed = (System.nanoTime() - start) / 1e6;
+
+      start = System.nanoTime();
+      scan(model, display, search.toLowerCase(), regex);
+      double scanned = (System.nanoTime() - start) / 1e6;
+
+      System.out.format("%-14s %,9d rows  indexed %,6.0f ms  scan %,6.0f ms\n",
+        search, matches, indexed, scanned);
+    }
+
+    model.dispose();
+  }
+
+  private static int scan(ResultTableModel model, ResultIndex.Display display,
+    String search, boolean regex)
+  {
+    Pattern pattern = Pattern.compile(search);
+    int matches = 0;
+    for (int r = 0; r < model.getRowCount(); ++r)
+      for (int c = 0; c < model.getColumnCount(); ++c)
+      {
+        String text = display.getText(model.getValueAt(r, c)).toLowerCase();
+        if (regex
+          ? pattern.matcher(text).find()
+          : text.contains(search))
+        {
+          ++matches;
+          break;
+        }
+      }
+    return matches;
+  }
+}
@@ -0,0 +1,164 @@
+package org.trebor.splink;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.RepositoryConnection;
+
+/**
+ * Compare reading a large tuple result from a local {@link MemoryStore}
+ * into a {@link ResultTableModel} on one thread, as results used to be read,
+ * against the {@link IngestPipeline}, which converts rows on the convert
+ * executor while the query thread keeps reading. The conversion includes the
+ * eager shrink of every value which was done before short forms were made
+ * lazy, to show the pipeline on the heavier workload too.
+ */
+
+public class IngestBenchmark
+{
+  public static final int STATEMENTS = 500000;
+  public static final int ROUNDS = 3;
+  public static final String QUERY = "SELECT ?s ?p ?o WHERE {?s ?p ?o}";
+  public static final List<String> COLUMNS = Arrays.asList("s", "p", "o");
+
+  private static RepositoryConnection mConnection;
+  private static ResourceManager mResourceManager;
+
+  public static void main(String[] args) throws Exception
+  {
+    mConnection = TestResourceManager.getMockRepository().getConnection();
+    mConnection.setNamespace("ex", "http://example.org/resource/");
+    mConnection.setNamespace("voc", "http://example.org/vocabulary#");
+    mResourceManager = new ResourceManager(mConnection);
+
+    ValueFactory factory = mConnection.getValueFactory();
+    mConnection.setAutoCommit(false);
+    for (int i = 0; i < STATEMENTS; ++i)
+      mConnection.add(
+        factory.createURI("http://example.org/resource/subject-" + i / 10),
+        factory.createURI("http://example.org/vocabulary#predicate" + i % 50),
+        factory.createLiteral("object value number " + i),
+        factory.createURI("http://example.org/context/" + i % 5));
+    mConnection.commit();
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    QueryExecutor executor = new QueryExecutor("convert", threads, threads *
+      DefaultResultsListener.CHUNKS_IN_FLIGHT);
+    QueryExecutor appender = new QueryExecutor("append", 1, 1);
+    System.out.format("%,d rows, %d processors\n", STATEMENTS, threads);
+
+    for (final boolean shrink : new boolean[] {false, true})
+    {
+      IngestPipeline.Converter<BindingSet> converter =
+        new IngestPipeline.Converter<BindingSet>()
+        {
+          public Object[] convert(BindingSet bindings)
+          {
+            return row(bindings, shrink);
+          }
+        };
+
+      double sequential = 0;
+      double pipelined = 0;
+      for (int round = 0; round < ROUNDS; ++round)
+      {
+        sequential = Math.max(sequential, sequential(converter));
+        pipelined = Math.max(pipelined, pipelined(executor, appender,
+          converter));
+      }
+
+      String name = shrink
+        ? "eager shrink"
+        : "typed cells";
+      System.out.format("%-13s sequential %,10.0f rows/sec  "
+        + "pipelined %,10.0f rows/sec  speedup %.1fx\n", name, sequential,
+        pipelined, pipelined / sequential);
+    }
+
+    executor.shutdown();
+    mConnection.close();
+  }
+
+  private static Object[] row(BindingSet bindings, boolean shrink)
+  {
+    Object[] row = new Object[COLUMNS.size()];
+    Iterator<Binding> values = bindings.iterator();
+    for (int i = 0; values.hasNext(); ++i)
+    {
+      Binding binding = values.next();
+      if (shrink)
+        row[i] = mResourceManager.shrinkResource(binding.getValue().toString());
+      else
+      {
+        ResultCell cell = ResultCell.create(binding.getValue());
+        cell.hashCode();
+        row[i] = cell;
+      }
+    }
+    return row;
+  }
+
+  private static double sequential(IngestPipeline.Converter<BindingSet> converter)
+    throws Exception
+  {
+    ResultTableModel model = new ResultTableModel(COLUMNS);
+    long start = System.nanoTime();
+    TupleQueryResult result = evaluate();
+    while (result.hasNext())
+      model.addRow(converter.convert(result.next()));
+    result.close();
+    return rate(model, start);
+  }
+
+  private static double pipelined(QueryExecutor executor,
+    QueryExecutor appender, IngestPipeline.Converter<BindingSet> converter)
+    throws Exception
+  {
+    final ResultTableModel model = new ResultTableModel(COLUMNS);
+    long start = System.nanoTime();
+    TupleQueryResult result = evaluate();
+    IngestPipeline<BindingSet> pipeline = new IngestPipeline<BindingSet>(
+      executor, appender, DefaultResultsListener.CHUNKS_IN_FLIGHT,
+      converter, new IngestPipeline.Sink()
+      {
+        public void add(Object[] row) throws QueryEvaluationException
+        {
+          try
+          {
+            model.addRow(row);
+          }
+          catch (IOException e)
+          {
+            throw new QueryEvaluationException(e);
+          }
+        }
+      });
+    while (result.hasNext())
+      pipeline.add(result.next());
+    pipeline.finish();
+    result.close();
+    return rate(model, start);
+  }
+
+  private static TupleQueryResult evaluate() throws Exception
+  {
+    return mConnection.prepareTupleQuery(QueryLanguage.SPARQL, QUERY)
+      .evaluate();
+  }
+
+  private static double rate(ResultTableModel model, long start)
+  {
+    model.publishRows();
+    if (model.getRowCount() != STATEMENTS)
+      throw new IllegalStateException("rows: " + model.getRowCount());
+    return STATEMENTS / ((System.nanoTime() - start) / 1e9);
+  }
+}
@@ -0,0 +1,100 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.parser.QueryParserUtil;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+
+/**
+ * Compare parse and round trip time of a query sent with every repository
+ * namespace declared against the same query sent with only the namespaces
+ * it uses. The round trip is against a local memory store, so it measures
+ * the parse cost on both sides rather than network transfer.
+ */
+
+public class QueryPrefixerBenchmark
+{
+  public static final int NAMESPACE_COUNT = 500;
+  public static final int ITERATIONS = 2000;
+  public static final String QUERY =
+    "SELECT ?s ?o WHERE { ?s ns7:name ?o . ?s ns42:age ?a } LIMIT 10";
+
+  public static void main(String[] args) throws Exception
+  {
+    Map<String, String> namespaces = new LinkedHashMap<String, String>();
+    for (int i = 0; i < NAMESPACE_COUNT; ++i)
+      namespaces.put("ns" + i, format("http://example.org/ns/%d/vocab#", i));
+    QueryPrefixer prefixer = new QueryPrefixer(namespaces);
+
+    Repository repository = TestResourceManager.getMockRepository();
+    RepositoryConnection connection = repository.getConnection();
+    ValueFactory vf = connection.getValueFactory();
+    for (int i = 0; i < 1000; ++i)
+      connection.add(vf.createURI(namespaces.get("ns1"), "s" + i),
+        vf.createURI(namespaces.get("ns7"), "name"),
+        vf.createLiteral("name " + i));
+
+    String full = prefixer.getAllDeclarations() + QUERY;
+    String minimal = prefixer.prefix(QUERY);
+
+    System.out.format("query size: all prefixes %,d chars, used prefixes %,d chars\n",
+      full.length(), minimal.length());
+
+    for (int round = 0; round < 3; ++round)
+    {
+      System.out.format("round %d\n", round);
+      report("parse, all prefixes", parse(full));
+      report("parse, used prefixes", parse(minimal));
+      report("prefix injection", inject(prefixer));
+      report("round trip, all prefixes", roundTrip(connection, full));
+      report("round trip, used prefixes", roundTrip(connection, minimal));
+    }
+
+    connection.close();
+    repository.shutDown();
+  }
+
+  private static long parse(String query) throws Exception
+  {
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i)
+      QueryParserUtil.parseQuery(QueryLanguage.SPARQL, query, null);
+    return System.nanoTime() - start;
+  }
+
+  private static long inject(QueryPrefixer prefixer)
+  {
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i)
+      prefixer.prefix(QUERY);
+    return System.nanoTime() - start;
+  }
+
+  private static long roundTrip(RepositoryConnection connection, String query)
+    throws Exception
+  {
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i)
+    {
+      TupleQueryResult result =
+        connection.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate();
+      while (result.hasNext())
+        result.next();
+      result.close();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void report(String name, long nanos)
+  {
+    System.out.format("  %-28s %8.1f us/query\n", name, nanos / 1000.0 /
+      ITERATIONS);
+  }
+}
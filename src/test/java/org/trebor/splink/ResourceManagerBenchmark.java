@@ -0,0 +1,102 @@
+package org.trebor.splink;
+
+import static org.trebor.splink.ResourceManager.ResourceType.LONG_URI;
+
+import java.util.List;
+import java.util.Random;
+
+import org.openrdf.model.Namespace;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.RepositoryConnection;
+
+/**
+ * Measure the throughput of {@link ResourceManager#shrinkResource(String)}
+ * against a repository with several hundred namespaces, compared with the
+ * previous approach of matching the long URI regex, creating a {@link URI}
+ * and scanning every namespace. Half of the URIs fall in a known namespace,
+ * half do not, as is usual for result sets.
+ */
+
+public class ResourceManagerBenchmark
+{
+  public static final int NAMESPACES = 600;
+  public static final int URIS = 10000;
+  public static final int ROUNDS = 5;
+  public static final int CALLS = 1000000;
+
+  public static void main(String[] args) throws Exception
+  {
+    RepositoryConnection connection =
+      TestResourceManager.getMockRepository().getConnection();
+    for (int i = 0; i < NAMESPACES; ++i)
+      connection.setNamespace("ns" + i, namespace(i));
+
+    final List<Namespace> namespaces = connection.getNamespaces().asList();
+    final ValueFactory valueFactory = connection.getValueFactory();
+    final ResourceManager resourceManager = new ResourceManager(connection);
+
+    String[] uris = new String[URIS];
+    Random rnd = new Random(0);
+    for (int i = 0; i < URIS; ++i)
+      uris[i] = (i % 2 == 0
+        ? namespace(rnd.nextInt(NAMESPACES))
+        : "http://unknown.example.org/data/") + "resource" + rnd.nextInt(1000);
+
+    Shrinker regex = new Shrinker()
+    {
+      public String shrink(String resource)
+      {
+        if (LONG_URI.isMatch(resource))
+        {
+          URI uri = valueFactory.createURI(resource);
+          for (Namespace namespace : namespaces)
+            if (namespace.getName().equals(uri.getNamespace()))
+              return namespace.getPrefix() + ":" + uri.getLocalName();
+        }
+        return resource;
+      }
+    };
+
+    Shrinker index = new Shrinker()
+    {
+      public String shrink(String resource)
+      {
+        return resourceManager.shrinkResource(resource);
+      }
+    };
+
+    double before = measure("regex and scan", regex, uris);
+    double after = measure("namespace index", index, uris);
+    System.out.format("speedup: %.1fx\n", after / before);
+
+    connection.close();
+  }
+
+  private static String namespace(int i)
+  {
+    return "http://example.org/vocabulary/" + i + "/terms#";
+  }
+
+  private static double measure(String name, Shrinker shrinker, String[] uris)
+  {
+    double best = 0;
+    int hash = 0;
+    for (int round = 0; round < ROUNDS; ++round)
+    {
+      long start = System.nanoTime();
+      for (int i = 0; i < CALLS; ++i)
+        hash += shrinker.shrink(uris[i % uris.length]).length();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      best = Math.max(best, CALLS / seconds);
+    }
+
+    System.out.format("%-16s %,12.0f shrinks/sec (%d)\n", name, best, hash);
+    return best;
+  }
+
+  private interface Shrinker
+  {
+    String shrink(String resource);
+  }
+}
@@ -0,0 +1,100 @@
+package org.trebor.splink;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+
+/**
+ * Compare the heap used by a million row result held in a
+ * {@link DefaultTableModel}, as results used to be, against the same result
+ * held in a {@link ResultTableModel}. Rows look like a typical ?s ?p ?o
+ * result: a modest number of subjects and predicates and many repeated
+ * objects. Each cell is a fresh string, as produced by
+ * {@code Value.toString()} during ingest.
+ */
+
+public class ResultTableModelBenchmark
+{
+  public static final int ROWS = 1000000;
+  public static final int SUBJECTS = 50000;
+  public static final int PREDICATES = 200;
+  public static final int OBJECTS = 100000;
+
+  public static void main(String[] args) throws IOException
+  {
+    long baseline = usedHeap();
+    long start = System.currentTimeMillis();
+    TableModel old = fillDefaultTableModel();
+    long oldTime = System.currentTimeMillis() - start;
+    long oldHeap = usedHeap() - baseline;
+    report("DefaultTableModel", old, oldHeap, oldTime);
+    old = null;
+
+    baseline = usedHeap();
+    start = System.currentTimeMillis();
+    TableModel compact = fillResultTableModel();
+    long compactTime = System.currentTimeMillis() - start;
+    long compactHeap = usedHeap() - baseline;
+    report("ResultTableModel", compact, compactHeap, compactTime);
+
+    System.out.format("heap reduction: %.1fx\n", (double)oldHeap / compactHeap);
+  }
+
+  private static TableModel fillDefaultTableModel()
+  {
+    DefaultTableModel model = new DefaultTableModel();
+    model.addColumn("subject");
+    model.addColumn("predicate");
+    model.addColumn("object");
+
+    Random rnd = new Random(0);
+    for (int i = 0; i < ROWS; ++i)
+      model.addRow(row(rnd));
+
+    return model;
+  }
+
+  private static TableModel fillResultTableModel() throws IOException
+  {
+    ResultTableModel model =
+      new ResultTableModel(Arrays.asList("subject", "predicate", "object"));
+
+    Random rnd = new Random(0);
+    for (int i = 0; i < ROWS; ++i)
+      model.addRow(row(rnd));
+    model.publishRows();
+
+    return model;
+  }
+
+  private static String[] row(Random rnd)
+  {
+    return new String[]
+    {
+      format("http://example.org/resource/subject-%d", rnd.nextInt(SUBJECTS)),
+      format("http://example.org/vocabulary#predicate%d",
+        rnd.nextInt(PREDICATES)),
+      format("\"object value number %d\"", rnd.nextInt(OBJECTS)),
+    };
+  }
+
+  private static void report(String name, TableModel model, long heap,
+    long millis)
+  {
+    System.out.format("%-18s rows: %,d  heap: %,d MB  fill: %,d ms\n", name,
+      model.getRowCount(), heap / (1024 * 1024), millis);
+  }
+
+  private static long usedHeap()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 4; ++i)
+      System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
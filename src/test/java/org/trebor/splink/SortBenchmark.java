@@ -0,0 +1,69 @@
+package org.trebor.splink;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.swing.table.TableRowSorter;
+
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+/**
+ * Compare sorting a large result by an integer column with the generic
+ * {@link TableRowSorter}, which compares cell strings on every comparison,
+ * against the {@link ResultRowSorter}. The second sort with the result
+ * sorter reuses the ranks of the first, as a click on the same column does.
+ * The row count is kept modest because the generic sorter takes minutes on
+ * a million rows.
+ */
+
+public class SortBenchmark
+{
+  public static final int ROWS = 200000;
+
+  public static void main(String[] args) throws Exception
+  {
+    ValueFactory factory = new ValueFactoryImpl();
+    ResultTableModel model =
+      new ResultTableModel(Arrays.asList("subject", "count"));
+    Random random = new Random(0);
+    for (int i = 0; i < ROWS; ++i)
+      model.addRow(new Object[]
+      {
+        ResultCell.create(factory.createURI("http://example.org/resource/" +
+          random.nextInt(ROWS))),
+        ResultCell.create(factory.createLiteral(
+          Integer.toString(random.nextInt(ROWS)), XMLSchema.INT)),
+      });
+    model.publishRows();
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    QueryExecutor executor = new QueryExecutor("sort", threads, threads * 4);
+    System.out.format("%,d rows, %d processors\n", ROWS, threads);
+
+    for (int column = 0; column < model.getColumnCount(); ++column)
+    {
+      TableRowSorter<ResultTableModel> generic =
+        new TableRowSorter<ResultTableModel>(model);
+      long start = System.nanoTime();
+      generic.toggleSortOrder(column);
+      double genericMs = (System.nanoTime() - start) / 1e6;
+
+      ResultRowSorter sorter = new ResultRowSorter(model, executor, threads);
+      start = System.nanoTime();
+      sorter.toggleSortOrder(column);
+      double firstMs = (System.nanoTime() - start) / 1e6;
+      start = System.nanoTime();
+      sorter.toggleSortOrder(column);
+      double againMs = (System.nanoTime() - start) / 1e6;
+
+      System.out.format("%-8s generic %,8.0f ms  typed first %,6.0f ms  "
+        + "reversed %,5.0f ms\n", model.getColumnName(column), genericMs,
+        firstMs, againMs);
+    }
+
+    executor.shutdown();
+    model.dispose();
+  }
+}
@@ -0,0 +1,42 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestColumnSizer
+{
+  @Test
+  public void testSmallTable()
+  {
+    int[] rows = ColumnSizer.sampleRows(10, new Random(0));
+    assertEquals(10, rows.length);
+    for (int i = 0; i < rows.length; ++i)
+      assertEquals(i, rows[i]);
+  }
+
+  @Test
+  public void testLargeTable()
+  {
+    int rowCount = 1000000;
+    int[] rows = ColumnSizer.sampleRows(rowCount, new Random(0));
+    assertTrue(rows.length <= ColumnSizer.HEAD_ROWS + ColumnSizer.TAIL_ROWS +
+      ColumnSizer.RANDOM_ROWS);
+
+    // head and tail are always measured
+
+    assertEquals(0, rows[0]);
+    assertEquals(ColumnSizer.HEAD_ROWS - 1, rows[ColumnSizer.HEAD_ROWS - 1]);
+    assertEquals(rowCount - 1, rows[rows.length - 1]);
+    assertEquals(rowCount - ColumnSizer.TAIL_ROWS,
+      rows[rows.length - ColumnSizer.TAIL_ROWS]);
+
+    // ascending without repeats
+
+    for (int i = 1; i < rows.length; ++i)
+      assertTrue(rows[i - 1] < rows[i]);
+  }
+}
@@ -0,0 +1,193 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+public class TestConnectionPool
+{
+  @Test
+  public void testBorrowAndRelease() throws Exception
+  {
+    Repository repository = new SailRepository(new MemoryStore());
+    repository.initialize();
+    ConnectionPool pool = new ConnectionPool(repository, 2);
+
+    RepositoryConnection first = pool.borrow();
+    RepositoryConnection second = pool.borrow();
+    assertFalse(first == second);
+    assertEquals(2, pool.getBusy());
+    assertEquals(2, pool.getOpened());
+
+    // released connections are reused
+
+    pool.release(first);
+    assertEquals(1, pool.getBusy());
+    assertSame(first, pool.borrow());
+    assertEquals(2, pool.getOpened());
+    assertEquals(3, pool.getBorrowed());
+
+    // a closed connection is dropped rather than reused
+
+    second.close();
+    pool.release(second);
+    assertEquals(1, pool.getOpened());
+    RepositoryConnection third = pool.borrow();
+    assertTrue(third.isOpen());
+    assertEquals(2, pool.getOpened());
+
+    pool.release(first);
+    pool.release(third);
+    assertEquals(0, pool.getBusy());
+    pool.close();
+    assertEquals(0, pool.getOpened());
+    assertFalse(first.isOpen());
+    try
+    {
+      pool.borrow();
+      fail("borrowed from a closed pool");
+    }
+    catch (RepositoryException e)
+    {
+    }
+    repository.shutDown();
+  }
+
+  @Test
+  public void testBorrowWaits() throws Exception
+  {
+    Repository repository = new SailRepository(new MemoryStore());
+    repository.initialize();
+    final ConnectionPool pool = new ConnectionPool(repository, 1);
+    RepositoryConnection only = pool.borrow();
+
+    final AtomicReference<RepositoryConnection> borrowed =
+      new AtomicReference<RepositoryConnection>();
+    final CountDownLatch done = new CountDownLatch(1);
+    new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          borrowed.set(pool.borrow());
+        }
+        catch (RepositoryException e)
+        {
+        }
+        done.countDown();
+      }
+    }.start();
+
+    // the second borrower waits until the connection is released
+
+    assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+    pool.release(only);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertSame(only, borrowed.get());
+    assertTrue(pool.getStatus().contains("1 waited"));
+
+    // a connection borrowed when the pool closes is closed when released
+
+    pool.close();
+    pool.release(borrowed.get());
+    assertFalse(only.isOpen());
+    assertEquals(0, pool.getOpened());
+    repository.shutDown();
+  }
+
+  @Test
+  public void testReservedForInteractive() throws Exception
+  {
+    Repository repository = new SailRepository(new MemoryStore());
+    repository.initialize();
+    final ConnectionPool pool = new ConnectionPool(repository, 3, 1);
+    assertEquals(2, pool.getBackgroundSize());
+    RepositoryConnection first = pool.borrowBackground();
+    RepositoryConnection second = pool.borrowBackground();
+
+    // background work waits for its share, queries still get a connection
+
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread waiting = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          pool.release(pool.borrowBackground());
+        }
+        catch (RepositoryException e)
+        {
+        }
+        done.countDown();
+      }
+    };
+    waiting.start();
+    assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+    RepositoryConnection query = pool.borrow();
+    assertEquals(3, pool.getBusy());
+    pool.release(query);
+    assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+    pool.release(first);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    pool.release(second);
+    assertEquals(0, pool.getBusy());
+    pool.close();
+    repository.shutDown();
+  }
+
+  @Test
+  public void testInterruptEndsWait() throws Exception
+  {
+    Repository repository = new SailRepository(new MemoryStore());
+    repository.initialize();
+    final ConnectionPool pool = new ConnectionPool(repository, 1);
+    RepositoryConnection only = pool.borrow();
+
+    final AtomicReference<Exception> failure =
+      new AtomicReference<Exception>();
+    Thread waiting = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          pool.borrow();
+        }
+        catch (RepositoryException e)
+        {
+          failure.set(e);
+        }
+      }
+    };
+    waiting.start();
+    Thread.sleep(100);
+    waiting.interrupt();
+    waiting.join(5000);
+    assertFalse(waiting.isAlive());
+    assertTrue(failure.get() instanceof RepositoryException);
+
+    // the interrupted borrower holds nothing
+
+    assertEquals(1, pool.getBusy());
+    pool.release(only);
+    assertEquals(0, pool.getBusy());
+    pool.close();
+    repository.shutDown();
+  }
+}
@@ -0,0 +1,163 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Test;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+public class TestContextTableModel
+{
+  public static final int CONTEXTS = 12000;
+
+  @Test
+  public void testStreamAndCount() throws Exception
+  {
+    Repository repository = new SailRepository(new MemoryStore());
+    repository.initialize();
+    final RepositoryConnection connection = repository.getConnection();
+    ValueFactory factory = connection.getValueFactory();
+    URI predicate = factory.createURI("http://example.org/p");
+    for (int i = 0; i < 5; ++i)
+    {
+      URI context = factory.createURI("http://example.org/graph" + i);
+      for (int j = 0; j <= i; ++j)
+        connection.add(context, predicate, factory.createLiteral(j), context);
+    }
+
+    // contexts are added from another thread, more than fit in one page
+
+    final ConnectionPool pool = new ConnectionPool(repository, 2);
+    QueryExecutor executor = new QueryExecutor("count", 2, 2);
+    final ContextTableModel model = new ContextTableModel(executor, 2);
+    Thread reader = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          RepositoryResult<Resource> contexts = connection.getContextIDs();
+          while (contexts.hasNext())
+          {
+            Resource context = contexts.next();
+            model.add(context, context.toString());
+          }
+          contexts.close();
+          for (int i = 0; i < CONTEXTS; ++i)
+            model.add(ContextTableModel.parseContext("_:empty" + i), "empty");
+        }
+        catch (Exception e)
+        {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    reader.start();
+    reader.join();
+    drainEventQueue();
+    assertEquals(5 + CONTEXTS, model.getRowCount());
+
+    // nothing is counted without a connection pool
+
+    onEventThread(new Runnable()
+    {
+      public void run()
+      {
+        assertNull(model.getValueAt(0, ContextTableModel.STATEMENTS));
+        model.count(pool);
+        for (int row = 0; row < 6; ++row)
+          model.getValueAt(row, ContextTableModel.STATEMENTS);
+      }
+    });
+
+    // counts finish in any order, wait for all of them
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline && !counted(model, 6))
+      drainEventQueue();
+
+    for (int row = 0; row < 5; ++row)
+    {
+      String context = (String)value(model, row, ContextTableModel.CONTEXT);
+      int expected = 1 + Integer.parseInt(context.substring(
+        context.length() - 1));
+      assertEquals("" + expected, value(model, row));
+    }
+    assertEquals("0", value(model, 5));
+    assertNull(value(model, 6));
+
+    connection.close();
+    pool.close();
+    assertEquals(0, pool.getOpened());
+    repository.shutDown();
+    executor.shutdown();
+  }
+
+  @Test
+  public void testParseContext()
+  {
+    assertTrue(ContextTableModel.parseContext("_:node1") instanceof BNode);
+    assertEquals("node1",
+      ((BNode)ContextTableModel.parseContext("_:node1")).getID());
+    assertEquals("http://example.org/g",
+      ContextTableModel.parseContext("http://example.org/g").stringValue());
+  }
+
+  private static boolean counted(ContextTableModel model, int rows)
+    throws Exception
+  {
+    for (int row = 0; row < rows; ++row)
+      if (null == value(model, row))
+        return false;
+    return true;
+  }
+
+  private static Object value(ContextTableModel model, int row)
+    throws Exception
+  {
+    return value(model, row, ContextTableModel.STATEMENTS);
+  }
+
+  private static Object value(final ContextTableModel model, final int row,
+    final int column) throws Exception
+  {
+    final AtomicReference<Object> value = new AtomicReference<Object>();
+    onEventThread(new Runnable()
+    {
+      public void run()
+      {
+        value.set(model.getValueAt(row, column));
+      }
+    });
+    return value.get();
+  }
+
+  private static void drainEventQueue() throws Exception
+  {
+    for (int i = 0; i < 10; ++i)
+      onEventThread(new Runnable()
+      {
+        public void run()
+        {
+        }
+      });
+  }
+
+  private static void onEventThread(Runnable runnable) throws Exception
+  {
+    SwingUtilities.invokeAndWait(runnable);
+  }
+}
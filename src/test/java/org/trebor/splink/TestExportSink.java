@@ -0,0 +1,103 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
+
+public class TestExportSink
+{
+  // more statements than fit in the queue at once
+
+  public static final int STATEMENTS =
+    ExportSink.BATCH_SIZE * (ExportSink.BATCHES_IN_FLIGHT + 3) + 7;
+
+  private static final ValueFactory FACTORY = new ValueFactoryImpl();
+
+  @Test
+  public void testCompressedFile() throws Exception
+  {
+    File file = File.createTempFile("splink", ".nq.gz");
+    try
+    {
+      assertTrue(ExportSink.isCompressed(file));
+      ExportSink sink = ExportSink.open(file, RDFFormat.NQUADS);
+      write(sink, STATEMENTS);
+      sink.close();
+      assertEquals(file.length(), sink.getBytes());
+
+      RDFParser parser = Rio.createParser(RDFFormat.NQUADS);
+      StatementCollector collector = new StatementCollector();
+      parser.setRDFHandler(collector);
+      InputStream in = new GZIPInputStream(new FileInputStream(file));
+      try
+      {
+        parser.parse(in, "");
+      }
+      finally
+      {
+        in.close();
+      }
+      assertEquals(STATEMENTS, collector.getStatements().size());
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testWriteFailure() throws Exception
+  {
+    ExportSink sink = new ExportSink(new OutputStream()
+    {
+      public void write(int b) throws IOException
+      {
+        throw new IOException("disk full");
+      }
+    }, RDFFormat.NTRIPLES, false);
+
+    // the reader is stopped rather than left waiting on a full queue
+
+    try
+    {
+      write(sink, STATEMENTS * 4);
+      fail("write failure not passed on");
+    }
+    catch (RDFHandlerException e)
+    {
+      assertEquals("disk full", e.getCause().getMessage());
+    }
+    sink.abort();
+  }
+
+  private static void write(ExportSink sink, int statements)
+    throws RDFHandlerException
+  {
+    URI predicate = FACTORY.createURI("http://example.org/p");
+    URI context = FACTORY.createURI("http://example.org/graph");
+    sink.startRDF();
+    sink.handleNamespace("ex", "http://example.org/");
+    for (int i = 0; i < statements; ++i)
+      sink.handleStatement(FACTORY.createStatement(
+        FACTORY.createURI("http://example.org/s" + i), predicate,
+        FACTORY.createLiteral(i), context));
+    sink.endRDF();
+  }
+}
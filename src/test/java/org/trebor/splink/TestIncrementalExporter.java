@@ -0,0 +1,218 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.trebor.splink.ExportFixtures.IGNORE;
+import static org.trebor.splink.ExportFixtures.addContext;
+import static org.trebor.splink.ExportFixtures.createRepository;
+import static org.trebor.splink.ExportFixtures.createTempDirectory;
+import static org.trebor.splink.ExportFixtures.delete;
+import static org.trebor.splink.ExportFixtures.read;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.rio.RDFFormat;
+
+public class TestIncrementalExporter
+{
+  @Test
+  public void testExportOnlyChanges() throws Exception
+  {
+    Repository repository = createRepository();
+    RepositoryConnection connection = repository.getConnection();
+    ValueFactory factory = connection.getValueFactory();
+    URI predicate = factory.createURI("http://example.org/p");
+    URI[] contexts = new URI[4];
+    for (int c = 0; c < contexts.length; ++c)
+      contexts[c] = addContext(connection, c, 50);
+    connection.add(predicate, predicate, factory.createLiteral("default"));
+
+    File directory = createTempDirectory();
+    File file = new File(directory, "repo.nt");
+    ConnectionPool pool = new ConnectionPool(repository, 2);
+    try
+    {
+      // the first export writes every context
+
+      IncrementalExporter exporter = export(pool, file);
+      assertEquals(5, exporter.getChanged());
+      assertEquals(0, exporter.getUnchanged());
+      assertEquals(201, exporter.getStatements());
+      assertEquals(6, directory.listFiles().length);
+      Map<Resource, IncrementalExporter.Entry> manifest =
+        IncrementalExporter.readManifest(new File(directory, "repo" +
+          IncrementalExporter.MANIFEST_EXTENSION));
+      assertEquals(5, manifest.size());
+      assertEquals(1, manifest.get(null).getFingerprint().getStatements());
+
+      // nothing has changed
+
+      exporter = export(pool, file);
+      assertEquals(0, exporter.getChanged());
+      assertEquals(5, exporter.getUnchanged());
+      assertEquals(0, exporter.getStatements());
+      assertEquals(0, pool.getBusy());
+
+      // one context grows, one changes a statement but not its size, and
+      // one is removed
+
+      connection.add(predicate, predicate, factory.createLiteral(1),
+        contexts[1]);
+      connection.remove(factory.createURI("http://example.org/s7"), predicate,
+        factory.createLiteral(7), contexts[2]);
+      connection.add(factory.createURI("http://example.org/s7"), predicate,
+        factory.createLiteral("seven"), contexts[2]);
+      connection.clear(contexts[3]);
+      File removed = new File(directory, manifest.get(contexts[3]).getFile());
+      assertTrue(removed.exists());
+
+      exporter = export(pool, file);
+      assertEquals(2, exporter.getChanged());
+      assertEquals(2, exporter.getUnchanged());
+      assertEquals(1, exporter.getRemoved());
+      assertEquals(101, exporter.getStatements());
+      assertFalse(removed.exists());
+      assertEquals(5, directory.listFiles().length);
+
+      Map<Resource, IncrementalExporter.Entry> updated =
+        IncrementalExporter.readManifest(new File(directory, "repo" +
+          IncrementalExporter.MANIFEST_EXTENSION));
+      assertEquals(4, updated.size());
+      assertEquals(manifest.get(contexts[2]).getFingerprint().getStatements(),
+        updated.get(contexts[2]).getFingerprint().getStatements());
+      assertFalse(manifest.get(contexts[2]).getFingerprint().equals(
+        updated.get(contexts[2]).getFingerprint()));
+      assertTrue(read(new File(directory, updated.get(contexts[2]).getFile()),
+        RDFFormat.NTRIPLES).contains(factory.createStatement(
+          factory.createURI("http://example.org/s7"), predicate,
+          factory.createLiteral("seven"))));
+    }
+    finally
+    {
+      connection.close();
+      pool.close();
+      repository.shutDown();
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testCancelKeepsFiles() throws Exception
+  {
+    Repository repository = createRepository();
+    RepositoryConnection connection = repository.getConnection();
+    ValueFactory factory = connection.getValueFactory();
+    URI predicate = factory.createURI("http://example.org/p");
+    for (int c = 0; c < 3; ++c)
+      addContext(connection, c, 50);
+    connection.add(predicate, predicate, factory.createLiteral("default"));
+
+    File directory = createTempDirectory();
+    File file = new File(directory, "repo.nt");
+    File manifest = new File(directory, "repo" +
+      IncrementalExporter.MANIFEST_EXTENSION);
+    ConnectionPool pool = new ConnectionPool(repository, 1);
+    try
+    {
+      export(pool, file);
+      Map<Resource, IncrementalExporter.Entry> before =
+        IncrementalExporter.readManifest(manifest);
+
+      // one worker checks the default graph first, and the cancel comes
+      // while it is being read
+
+      QueryControl control = new QueryControl()
+      {
+        private int mCalls;
+
+        public boolean isCanceled()
+        {
+          return ++mCalls > 1;
+        }
+      };
+      IncrementalExporter exporter = new IncrementalExporter(pool,
+        RDFFormat.NTRIPLES, false, control, IGNORE);
+      exporter.export(file);
+      assertEquals(0, exporter.getChanged());
+
+      Map<Resource, IncrementalExporter.Entry> after =
+        IncrementalExporter.readManifest(manifest);
+      assertEquals(before.keySet(), after.keySet());
+      for (IncrementalExporter.Entry entry : before.values())
+      {
+        File context = new File(directory, entry.getFile());
+        assertEquals(entry.getBytes(), context.length());
+        assertEquals(entry.getFingerprint(),
+          after.get(entry.getContext()).getFingerprint());
+      }
+      assertEquals(before.size() + 1, directory.listFiles().length);
+    }
+    finally
+    {
+      connection.close();
+      pool.close();
+      repository.shutDown();
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testFingerprintIgnoresOrder() throws Exception
+  {
+    Repository repository = createRepository();
+    RepositoryConnection connection = repository.getConnection();
+    ValueFactory factory = connection.getValueFactory();
+    List<Statement> statements = new ArrayList<Statement>();
+    for (int i = 0; i < 100; ++i)
+      statements.add(factory.createStatement(
+        factory.createURI("http://example.org/s" + i),
+        factory.createURI("http://example.org/p"),
+        factory.createLiteral("value " + i)));
+    connection.close();
+    repository.shutDown();
+
+    IncrementalExporter.Fingerprint forward =
+      new IncrementalExporter.Fingerprint();
+    for (Statement statement : statements)
+      forward.add(statement);
+    Collections.shuffle(statements);
+    IncrementalExporter.Fingerprint shuffled =
+      new IncrementalExporter.Fingerprint();
+    for (Statement statement : statements)
+      shuffled.add(statement);
+    assertNotSame(forward, shuffled);
+    assertEquals(forward, shuffled);
+
+    // moving text from one value to the next changes the hash
+
+    assertFalse(IncrementalExporter.hash(factory.createStatement(
+      factory.createURI("http://example.org/ab"),
+      factory.createURI("http://example.org/c"),
+      factory.createLiteral("x"))) == IncrementalExporter.hash(
+      factory.createStatement(factory.createURI("http://example.org/a"),
+        factory.createURI("http://example.org/bc"),
+        factory.createLiteral("x"))));
+  }
+
+  private static IncrementalExporter export(ConnectionPool pool, File file)
+    throws Exception
+  {
+    IncrementalExporter exporter = new IncrementalExporter(pool,
+      RDFFormat.NTRIPLES, false, new QueryControl(), IGNORE);
+    exporter.export(file);
+    return exporter;
+  }
+}
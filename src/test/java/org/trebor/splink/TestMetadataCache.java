@@ -0,0 +1,98 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMetadataCache
+{
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    mDirectory = File.createTempFile("splink-test", "");
+    mDirectory.delete();
+  }
+
+  @After
+  public void tearDown()
+  {
+    File[] files = mDirectory.listFiles();
+    if (null != files)
+      for (File file : files)
+        file.delete();
+    mDirectory.delete();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException
+  {
+    Map<String, String> namespaces = new LinkedHashMap<String, String>();
+    namespaces.put("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+    namespaces.put("ex", "http://example.org/\u00e9t\u00e9/");
+    namespaces.put("", "http://example.org/default#");
+    Map<String, String> repositories = new LinkedHashMap<String, String>();
+    repositories.put("SYSTEM", "System configuration repository");
+    repositories.put("test", "test repository");
+
+    MetadataCache cache = new MetadataCache(mDirectory);
+    assertNull(cache.load("localhost", 8080, "test"));
+    cache.store("localhost", 8080, "test", new MetadataCache.Entry(
+      repositories, namespaces, Arrays.asList("http://example.org/a",
+        "_:node1"), 1234));
+
+    MetadataCache.Entry entry = cache.load("localhost", 8080, "test");
+    assertEquals(repositories, entry.getRepositories());
+    assertEquals(namespaces, entry.getNamespaces());
+    assertEquals(Arrays.asList(namespaces.keySet().toArray()),
+      Arrays.asList(entry.getNamespaces().keySet().toArray()));
+    assertEquals(Arrays.asList("http://example.org/a", "_:node1"),
+      entry.getContexts());
+    assertEquals(1234, entry.getTimestamp());
+
+    // entries are kept apart by host, port and repository
+
+    assertNull(cache.load("localhost", 8081, "test"));
+    assertNull(cache.load("otherhost", 8080, "test"));
+    assertNull(cache.load("localhost", 8080, "other"));
+
+    // storing again replaces the entry
+
+    cache.store("localhost", 8080, "test", new MetadataCache.Entry(
+      repositories, namespaces, Arrays.<String>asList(), 5678));
+    entry = cache.load("localhost", 8080, "test");
+    assertEquals(0, entry.getContexts().size());
+    assertEquals(5678, entry.getTimestamp());
+    assertEquals(1, mDirectory.listFiles().length);
+
+    cache.remove("localhost", 8080, "test");
+    assertNull(cache.load("localhost", 8080, "test"));
+  }
+
+  @Test
+  public void testUnreadableEntry() throws IOException
+  {
+    MetadataCache cache = new MetadataCache(mDirectory);
+    mDirectory.mkdirs();
+    File file = cache.getFile("localhost", 8080, "test");
+    FileWriter writer = new FileWriter(file);
+    writer.write("not a cache entry");
+    writer.close();
+
+    assertNull(cache.load("localhost", 8080, "test"));
+    assertFalse(cache.getFile("localhost", 8080, "a/b").equals(
+      cache.getFile("localhost", 8080, "a_b")));
+  }
+}
@@ -0,0 +1,92 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.openrdf.query.MalformedQueryException;
+
+public class TestOperationCache
+{
+  public static final String QUERY1 = "SELECT * WHERE { ?s ?p ?o }";
+  public static final String QUERY2 = "ASK { ?s ?p ?o }";
+  public static final String QUERY3 = "CONSTRUCT {?s ?p ?o} WHERE {?s ?p ?o}";
+
+  @Test
+  public void testHitsAndMisses() throws MalformedQueryException
+  {
+    OperationCache cache = new OperationCache(4);
+    QueryOperation first = cache.parse(QUERY1);
+    assertSame(first, cache.parse(QUERY1));
+    cache.parse(QUERY2);
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(2, cache.size());
+    assertEquals("parse cache 1/3 hit", cache.getStatus());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertNotSame(first, cache.parse(QUERY1));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() throws MalformedQueryException
+  {
+    OperationCache cache = new OperationCache(2);
+    QueryOperation first = cache.parse(QUERY1);
+    QueryOperation second = cache.parse(QUERY2);
+
+    // using the first query makes the second the eldest
+
+    assertSame(first, cache.parse(QUERY1));
+    cache.parse(QUERY3);
+    assertEquals(2, cache.size());
+    assertSame(first, cache.parse(QUERY1));
+    assertNotSame(second, cache.parse(QUERY2));
+  }
+
+  @Test
+  public void testKeyedByNamespaces() throws MalformedQueryException
+  {
+    OperationCache cache = new OperationCache(4);
+    cache.setNamespaces("PREFIX a:<http://example.org/a#>\n");
+    QueryOperation first = cache.parse(QUERY1);
+
+    // the same query under other namespaces is parsed again
+
+    cache.setNamespaces("PREFIX b:<http://example.org/b#>\n");
+    assertNotSame(first, cache.parse(QUERY1));
+    assertEquals(2, cache.size());
+
+    cache.setNamespaces("PREFIX a:<http://example.org/a#>\n");
+    assertSame(first, cache.parse(QUERY1));
+
+    // no namespaces is the same as empty ones
+
+    cache.setNamespaces(null);
+    QueryOperation none = cache.parse(QUERY1);
+    cache.setNamespaces("");
+    assertSame(none, cache.parse(QUERY1));
+  }
+
+  @Test
+  public void testFailedParseNotCached()
+  {
+    OperationCache cache = new OperationCache(4);
+    for (int i = 0; i < 2; ++i)
+    {
+      try
+      {
+        cache.parse("SELECT WHERE {{");
+        fail("malformed query parsed");
+      }
+      catch (MalformedQueryException e)
+      {
+      }
+    }
+    assertEquals(0, cache.size());
+    assertEquals(2, cache.getMisses());
+  }
+}
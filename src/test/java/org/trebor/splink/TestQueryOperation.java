@@ -0,0 +1,88 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.trebor.splink.QueryOperation.Guess.*;
+import static org.trebor.splink.QueryOperation.Kind.*;
+
+import org.junit.Test;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryLanguage;
+import org.trebor.splink.QueryOperation.Guess;
+import org.trebor.splink.QueryOperation.Kind;
+
+public class TestQueryOperation
+{
+  class Operation
+  {
+    String mQuery;
+    Guess mGuess;
+    Kind mKind;
+    QueryLanguage mLanguage;
+
+    public Operation(String query, Guess guess, Kind kind,
+      QueryLanguage language)
+    {
+      mQuery = query;
+      mGuess = guess;
+      mKind = kind;
+      mLanguage = language;
+    }
+  }
+
+  Operation[] mOperations =
+  {
+    new Operation("SELECT * WHERE { ?s ?p ?o }", SPARQL_QUERY, TUPLE,
+      QueryLanguage.SPARQL),
+    new Operation("PREFIX too:<http://trebor.org/ns#>\n" +
+      "# comment\nselect ?s { ?s too:foo ?o } LIMIT 10", SPARQL_QUERY, TUPLE,
+      QueryLanguage.SPARQL),
+    new Operation("ASK { ?s ?p ?o }", SPARQL_QUERY, BOOLEAN,
+      QueryLanguage.SPARQL),
+    new Operation("DESCRIBE <http://trebor.org/ns#foo>", SPARQL_QUERY, GRAPH,
+      QueryLanguage.SPARQL),
+    new Operation("CONSTRUCT {?s ?p ?o} WHERE {?s ?p ?o}", SPARQL_QUERY,
+      GRAPH, QueryLanguage.SPARQL),
+    new Operation("PREFIX too:<http://trebor.org/ns#>\n" +
+      "INSERT DATA { too:a too:b too:c }", SPARQL_UPDATE, UPDATE,
+      QueryLanguage.SPARQL),
+    new Operation("CONSTRUCT * FROM {_:x} x {y}", SERQL_QUERY, GRAPH,
+      QueryLanguage.SERQL),
+    new Operation("SELECT x FROM {x} p {y}", SERQL_QUERY, TUPLE,
+      QueryLanguage.SERQL),
+  };
+
+  @Test
+  public void testOperations() throws MalformedQueryException
+  {
+    for (Operation operation : mOperations)
+    {
+      assertEquals(operation.mQuery, operation.mGuess,
+        QueryOperation.guess(operation.mQuery));
+      QueryOperation parsed = QueryOperation.parse(operation.mQuery);
+      assertEquals(operation.mQuery, operation.mKind, parsed.getKind());
+      assertEquals(operation.mQuery, operation.mLanguage,
+        parsed.getLanguage());
+    }
+  }
+
+  @Test
+  public void testLimit() throws MalformedQueryException
+  {
+    QueryOperation limited =
+      QueryOperation.parse("SELECT * WHERE { ?s ?p ?o } LIMIT 42");
+    assertTrue(limited.hasLimit());
+    assertEquals(42, limited.getLimit());
+
+    QueryOperation unlimited =
+      QueryOperation.parse("SELECT * WHERE { ?s ?p ?o }");
+    assertFalse(unlimited.hasLimit());
+  }
+
+  @Test(expected = MalformedQueryException.class)
+  public void testMalformed() throws MalformedQueryException
+  {
+    QueryOperation.parse("SELECT * WHERE { ?s ?p ");
+  }
+}
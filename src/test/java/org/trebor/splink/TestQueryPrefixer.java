@@ -0,0 +1,55 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestQueryPrefixer
+{
+  @Test
+  public void testFindPrefixes()
+  {
+    assertEquals(Arrays.asList("too", "xsd"),
+      Arrays.asList(QueryPrefixer.findPrefixes(
+        "SELECT * WHERE { ?s too:foo \"1\"^^xsd:int }").toArray()));
+
+    // IRIs, strings, comments, variables and blank nodes are not prefixes
+
+    assertEquals(0, QueryPrefixer.findPrefixes(
+      "SELECT ?s WHERE { ?s <http://trebor.org/ns#foo> \"too:bar\" . " +
+        "_:b1 ?p 'xsd:int' # rdf:type\n}").size());
+
+    // a comparison is not an IRI
+
+    assertEquals(Arrays.asList("too"),
+      Arrays.asList(QueryPrefixer.findPrefixes(
+        "SELECT * { ?s ?p ?o FILTER(?o < 5 && ?o > too:min) }").toArray()));
+
+    // the empty prefix, and prefixes the query declares itself
+
+    assertEquals(Arrays.asList("", "rdf"),
+      Arrays.asList(QueryPrefixer.findPrefixes(
+        "PREFIX too:<http://other.org/>\nSELECT * { :a too:b rdf:type }")
+        .toArray()));
+  }
+
+  @Test
+  public void testPrefix()
+  {
+    Map<String, String> namespaces = new LinkedHashMap<String, String>();
+    namespaces.put("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+    namespaces.put("too", "http://trebor.org/ns#");
+    namespaces.put("xsd", "http://www.w3.org/2001/XMLSchema#");
+    QueryPrefixer prefixer = new QueryPrefixer(namespaces);
+
+    assertEquals("PREFIX too:<http://trebor.org/ns#>\nDESCRIBE too:foo",
+      prefixer.prefix("DESCRIBE too:foo"));
+    assertEquals("SELECT * { ?s ?p ?o }",
+      prefixer.prefix("SELECT * { ?s ?p ?o }"));
+    assertEquals(3, prefixer.getAllDeclarations().split("\n").length);
+  }
+}
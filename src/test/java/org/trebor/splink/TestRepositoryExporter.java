@@ -0,0 +1,103 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.trebor.splink.ExportFixtures.IGNORE;
+import static org.trebor.splink.ExportFixtures.addContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
+
+public class TestRepositoryExporter
+{
+  @Test
+  public void testExportKeepsContexts() throws Exception
+  {
+    Repository repository = createRepository(3, 100);
+    ConnectionPool pool = new ConnectionPool(repository, 1);
+    final List<Long> progress = new ArrayList<Long>();
+    RepositoryExporter exporter = new RepositoryExporter(pool,
+      RDFFormat.NQUADS, false, new QueryControl(),
+      new RepositoryExporter.Listener()
+      {
+        public void onProgress(long statements, long bytes, long elapsed)
+        {
+          progress.add(statements);
+        }
+      });
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(300, exporter.export(out));
+    assertEquals(300L, (long)progress.get(progress.size() - 1));
+    assertEquals(0, pool.getBusy());
+
+    // the file holds the same statements in the same contexts
+
+    RDFParser parser = Rio.createParser(RDFFormat.NQUADS);
+    StatementCollector collector = new StatementCollector();
+    parser.setRDFHandler(collector);
+    parser.parse(new ByteArrayInputStream(out.toByteArray()), "");
+    Set<Statement> expected = new HashSet<Statement>();
+    RepositoryConnection connection = repository.getConnection();
+    expected.addAll(connection.getStatements(null, null, null, false)
+      .asList());
+    connection.close();
+    assertEquals(expected, new HashSet<Statement>(collector.getStatements()));
+    Set<Object> contexts = new HashSet<Object>();
+    for (Statement statement : collector.getStatements())
+      contexts.add(statement.getContext());
+    assertEquals(3, contexts.size());
+
+    pool.close();
+    repository.shutDown();
+  }
+
+  @Test
+  public void testCancel() throws Exception
+  {
+    Repository repository = createRepository(1, 5000);
+    ConnectionPool pool = new ConnectionPool(repository, 1);
+    QueryControl control = new QueryControl();
+    control.cancel();
+
+    long count = new RepositoryExporter(pool, RDFFormat.NTRIPLES, false,
+      control, IGNORE).export(new ByteArrayOutputStream());
+    assertTrue(count < 5000);
+    assertEquals(0, pool.getBusy());
+
+    pool.close();
+    repository.shutDown();
+  }
+
+  @Test
+  public void testDescribe()
+  {
+    assertEquals("1,000,000 statements, 50.0 MB in 2.0 s " +
+      "(500,000 statements/s, 25.0 MB/s)",
+      RepositoryExporter.describe(1000000, 50000000, 2000));
+  }
+
+  private static Repository createRepository(int contexts, int statements)
+    throws Exception
+  {
+    Repository repository = ExportFixtures.createRepository();
+    RepositoryConnection connection = repository.getConnection();
+    for (int c = 0; c < contexts; ++c)
+      addContext(connection, c, statements);
+    connection.close();
+    return repository;
+  }
+}
@@ -1,8 +1,12 @@
 package org.trebor.splink;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.trebor.splink.ResourceManager.ResourceType.*;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.log4j.Logger;
 import org.junit.Test;
 import org.openrdf.repository.Repository;
@@ -102,6 +106,92 @@ public class TestResourceManager
     }
   }
 
+  @Test
+  public void testNamespaceIndex()
+  {
+    Map<String, String> prefixes = new HashMap<String, String>();
+    prefixes.put("too", "http://trebor.org/ns#");
+    prefixes.put("ex", "http://example.org/");
+    prefixes.put("thing", "http://example.org/thing/");
+    prefixes.put("id", "http://example.org/people/id_");
+    prefixes.put("isbn", "urn:isbn:");
+    for (int i = 0; i < 500; ++i)
+      prefixes.put("ns" + i, "http://example.org/vocabulary/" + i + "#");
+    NamespaceIndex index = new NamespaceIndex(prefixes);
+
+    // standard splits
+
+    assertEquals("too:foo", index.shrink("http://trebor.org/ns#foo"));
+    assertEquals("ex:bar", index.shrink("http://example.org/bar"));
+    assertEquals("thing:baz", index.shrink("http://example.org/thing/baz"));
+    assertEquals("ns123:p", index.shrink("http://example.org/vocabulary/123#p"));
+    assertEquals("isbn:0-13-110362-8", index.shrink("urn:isbn:0-13-110362-8"));
+
+    // namespaces which do not end at the standard split, which is still
+    // preferred when it names a known namespace
+
+    assertEquals("id:42", index.shrink("http://example.org/people/id_42"));
+    assertEquals("ex:id_42", index.shrink("http://example.org/id_42"));
+
+    // no namespace leaves a valid local name
+
+    assertEquals("http://example.org/thing/a/b",
+      index.shrink("http://example.org/thing/a/b"));
+    assertEquals("http://trebor.org/ns#a?b",
+      index.shrink("http://trebor.org/ns#a?b"));
+    assertEquals("http://other.org/foo", index.shrink("http://other.org/foo"));
+    assertEquals("_:node15pf8hastx4", index.shrink("_:node15pf8hastx4"));
+
+    assertEquals("http://example.org/people/id_", index.getNamespace("id"));
+    assertEquals(null, index.getNamespace("nope"));
+  }
+
+  @Test
+  public void testParsedResource()
+  {
+    ParsedResource literal =
+      ParsedResource.parse("\"555\"^^<http://www.w3.org/2001/XMLSchema#int>");
+    assertEquals(LITERAL, literal.getType());
+    assertEquals("555", literal.getLexicalForm());
+    assertEquals("^^", literal.getSeparator());
+    assertEquals("http://www.w3.org/2001/XMLSchema#int", literal.getSuffix());
+
+    literal = ParsedResource.parse("\"hello \"there\" fred\"@en_gb");
+    assertEquals("hello \"there\" fred", literal.getLexicalForm());
+    assertEquals("@", literal.getSeparator());
+    assertEquals("en_gb", literal.getSuffix());
+
+    literal = ParsedResource.parse("\"hello\"");
+    assertNull(literal.getSeparator());
+
+    assertNull(ParsedResource.parse("\""));
+    assertNull(ParsedResource.parse("\"foo\"^^bar baz"));
+    assertNull(ParsedResource.parse("http://trebor.org/ns#a?b"));
+    assertEquals(SHORT_URI, ParsedResource.classify(":foo"));
+    assertEquals(BLANK_NODE, ParsedResource.classify("_:"));
+  }
+
+  @Test
+  public void testLargeLiteral()
+  {
+    // several megabytes full of quotes, which the literal regex could only
+    // match by backtracking over every one of them
+
+    StringBuilder builder = new StringBuilder("\"");
+    for (int i = 0; i < 500000; ++i)
+      builder.append("say \"hi\" ");
+    String lexical = builder.substring(1);
+    builder.append("\"@en");
+
+    ParsedResource literal = ParsedResource.parse(builder.toString());
+    assertEquals(LITERAL, literal.getType());
+    assertEquals(lexical, literal.getLexicalForm());
+    assertEquals("en", literal.getSuffix());
+
+    builder.append(" not a literal");
+    assertNull(ParsedResource.classify(builder.toString()));
+  }
+
   public static Repository getMockRepository() throws RepositoryException
   {
     Repository repository = new SailRepository(new MemoryStore());
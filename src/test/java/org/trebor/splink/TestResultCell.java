@@ -0,0 +1,84 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+public class TestResultCell
+{
+  private final ValueFactory mFactory = new ValueFactoryImpl();
+
+  private final Value[] mValues =
+  {
+    mFactory.createURI("http://trebor.org/ns#foo"),
+    mFactory.createURI("http://other.org/bar"),
+    mFactory.createBNode("node15pf8hastx4"),
+    mFactory.createLiteral("hello fred"),
+    mFactory.createLiteral("hello \"there\" fred", "en"),
+    mFactory.createLiteral("555", XMLSchema.INT),
+    mFactory.createLiteral("foo\nbar",
+      mFactory.createURI("http://other.org/type")),
+  };
+
+  @Test
+  public void testForms()
+  {
+    Map<String, String> prefixes = new HashMap<String, String>();
+    prefixes.put("too", "http://trebor.org/ns#");
+    prefixes.put("xsd", XMLSchema.NAMESPACE);
+    ResourceManager resourceManager =
+      new ResourceManager(new NamespaceIndex(prefixes));
+
+    String[] shortForms =
+    {
+      "too:foo",
+      "http://other.org/bar",
+      "_:node15pf8hastx4",
+      "\"hello fred\"",
+      "\"hello \"there\" fred\"@en",
+      "\"555\"^^xsd:int",
+      "\"foo\nbar\"^^<http://other.org/type>",
+    };
+
+    String[] canonicalForms =
+    {
+      "<http://trebor.org/ns#foo>",
+      "<http://other.org/bar>",
+      "_:node15pf8hastx4",
+      "\"hello fred\"",
+      "\"hello \\\"there\\\" fred\"@en",
+      "\"555\"^^<http://www.w3.org/2001/XMLSchema#int>",
+      "\"\"\"foo\nbar\"\"\"^^<http://other.org/type>",
+    };
+
+    for (int i = 0; i < mValues.length; ++i)
+    {
+      ResultCell cell = ResultCell.create(mValues[i]);
+      assertEquals(mValues[i].toString(), cell.toString());
+      assertEquals(shortForms[i], cell.getShortForm(resourceManager));
+      assertEquals(canonicalForms[i], cell.getCanonical());
+    }
+
+    assertNull(ResultCell.create(null));
+  }
+
+  @Test
+  public void testCodec()
+  {
+    for (Value value : mValues)
+    {
+      ResultCell cell = ResultCell.create(value);
+      Object decoded = ResultCell.CODEC.decode(ResultCell.CODEC.encode(cell));
+      assertEquals(cell, decoded);
+      assertEquals(cell.hashCode(), decoded.hashCode());
+    }
+  }
+}
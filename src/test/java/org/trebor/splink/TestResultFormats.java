@@ -0,0 +1,55 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.repository.http.HTTPRepository;
+import org.openrdf.rio.RDFFormat;
+
+public class TestResultFormats
+{
+  @Test
+  public void testFormats()
+  {
+    assertTrue(ResultFormats.getTupleFormats().contains(
+      TupleQueryResultFormat.BINARY.getName()));
+    assertTrue(ResultFormats.getTupleFormats().contains(
+      TupleQueryResultFormat.SPARQL.getName()));
+    assertTrue(ResultFormats.getGraphFormats().contains(
+      RDFFormat.TURTLE.getName()));
+
+    assertEquals(TupleQueryResultFormat.JSON,
+      ResultFormats.getTupleFormat(TupleQueryResultFormat.JSON.getName()));
+    assertEquals(RDFFormat.NTRIPLES,
+      ResultFormats.getGraphFormat(RDFFormat.NTRIPLES.getName()));
+
+    // formats which flatten values, or are unknown, are not offered
+
+    assertNull(ResultFormats.getTupleFormat(
+      TupleQueryResultFormat.CSV.getName()));
+    assertNull(ResultFormats.getTupleFormat("nonsense"));
+    assertNull(ResultFormats.getGraphFormat("nonsense"));
+  }
+
+  @Test
+  public void testConfigure()
+  {
+    HTTPRepository repository =
+      new HTTPRepository("http://localhost:8080/openrdf-sesame", "test");
+    ResultFormats.configure(repository, TupleQueryResultFormat.JSON.getName(),
+      RDFFormat.NTRIPLES.getName());
+    assertEquals(TupleQueryResultFormat.JSON,
+      repository.getPreferredTupleQueryResultFormat());
+    assertEquals(RDFFormat.NTRIPLES, repository.getPreferredRDFFormat());
+
+    // unknown formats leave the preference alone
+
+    ResultFormats.configure(repository, "nonsense", "nonsense");
+    assertEquals(TupleQueryResultFormat.JSON,
+      repository.getPreferredTupleQueryResultFormat());
+    assertEquals(RDFFormat.NTRIPLES, repository.getPreferredRDFFormat());
+  }
+}
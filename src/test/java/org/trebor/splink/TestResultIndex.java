@@ -0,0 +1,158 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestResultIndex
+{
+  private static final ResultIndex.Display DISPLAY = new ResultIndex.Display()
+  {
+    public String getText(Object value)
+    {
+      return value.toString();
+    }
+  };
+
+  @Test
+  public void testSubstring() throws IOException
+  {
+    ResultTableModel model = new ResultTableModel(Arrays.asList("a", "b"));
+    model.addRow(new Object[] {"Hello Fred", "apple"});
+    model.addRow(new Object[] {"goodbye", "Fredrick"});
+    model.addRow(new Object[] {"hello fred", null});
+    model.addRow(new Object[] {"nothing", "banana"});
+    model.publishRows();
+
+    ResultIndex index = new ResultIndex(model, DISPLAY);
+    index.update();
+    assertArrayEquals(new int[] {0, 1, 2},
+      index.filter(ResultIndex.ALL_COLUMNS, "FRED", false));
+    assertArrayEquals(new int[] {0, 2}, index.filter(0, "fred", false));
+    assertArrayEquals(new int[] {1}, index.filter(1, "fred", false));
+    assertArrayEquals(new int[] {0, 3},
+      index.filter(ResultIndex.ALL_COLUMNS, "a", false));
+    assertArrayEquals(new int[] {}, index.filter(0, "zebra", false));
+
+    // rows added later are found after an update
+
+    model.addRow(new Object[] {"more fred", "cherry"});
+    model.publishRows();
+    assertArrayEquals(new int[] {0, 2}, index.filter(0, "fred", false));
+    index.update();
+    assertArrayEquals(new int[] {0, 2, 4}, index.filter(0, "fred", false));
+  }
+
+  @Test
+  public void testRegex() throws IOException
+  {
+    ResultTableModel model = new ResultTableModel(Arrays.asList("a"));
+    for (String value : new String[] {"abc123", "abd", "xabcx", "ab", "12"})
+      model.addRow(new Object[] {value});
+    model.publishRows();
+
+    ResultIndex index = new ResultIndex(model, DISPLAY);
+    index.update();
+    assertArrayEquals(new int[] {0, 2}, index.filter(0, "ABC", true));
+    assertArrayEquals(new int[] {0}, index.filter(0, "^abc\\d+$", true));
+    assertArrayEquals(new int[] {0, 1, 2}, index.filter(0, "ab[cd]", true));
+    assertArrayEquals(new int[] {0, 1, 2, 3}, index.filter(0, "abc?", true));
+    assertArrayEquals(new int[] {0, 1, 4}, index.filter(0, "1|abd", true));
+  }
+
+  @Test
+  public void testRequiredLiteral()
+  {
+    assertEquals("hello", ResultIndex.requiredLiteral("hello"));
+    assertEquals("world", ResultIndex.requiredLiteral("^hi.*world$"));
+    assertEquals("hell", ResultIndex.requiredLiteral("hello?"));
+    assertEquals("hello", ResultIndex.requiredLiteral("hello+"));
+    assertEquals("b.c", ResultIndex.requiredLiteral("a*b\\.c"));
+    assertEquals("ab", ResultIndex.requiredLiteral("ab(cdef)?"));
+    assertEquals("xy", ResultIndex.requiredLiteral("a{3}xy"));
+    assertEquals("", ResultIndex.requiredLiteral("abc|def"));
+    assertEquals("", ResultIndex.requiredLiteral("(?x)a b c"));
+    assertEquals("tail", ResultIndex.requiredLiteral("[abc]]tail"));
+  }
+
+  @Test
+  public void testMatchesScan() throws IOException
+  {
+    // the index finds exactly what a scan of every row finds
+
+    Random random = new Random(0);
+    ResultTableModel model = new ResultTableModel(Arrays.asList("a", "b"));
+    List<String[]> rows = new ArrayList<String[]>();
+    for (int i = 0; i < 5000; ++i)
+    {
+      String[] row = {word(random), word(random)};
+      rows.add(row);
+      model.addRow(row.clone());
+    }
+    model.publishRows();
+
+    ResultIndex index = new ResultIndex(model, DISPLAY);
+    index.update();
+    String[] searches = {"ab", "abc", "cab", "bcab", "a.c", "^b", "c$"};
+    for (String search : searches)
+      for (boolean regex : new boolean[] {false, true})
+      {
+        Pattern pattern = Pattern.compile(regex
+          ? search
+          : Pattern.quote(search), Pattern.CASE_INSENSITIVE);
+        int[] expected = new int[rows.size()];
+        int count = 0;
+        for (int r = 0; r < rows.size(); ++r)
+          for (String value : rows.get(r))
+            if (pattern.matcher(value).find())
+            {
+              expected[count++] = r;
+              break;
+            }
+        assertArrayEquals(search, Arrays.copyOf(expected, count),
+          index.filter(ResultIndex.ALL_COLUMNS, search, regex));
+      }
+  }
+
+  @Test
+  public void testSorterIncludedRows() throws IOException
+  {
+    ResultTableModel model = new ResultTableModel(Arrays.asList("a"));
+    for (String value : new String[] {"d", "b", "c", "a"})
+      model.addRow(new Object[] {value});
+    model.publishRows();
+
+    ResultRowSorter sorter = new ResultRowSorter(model, null, 1);
+    sorter.setIncludedRows(new int[] {0, 1, 3});
+    assertEquals(3, sorter.getViewRowCount());
+    assertEquals(-1, sorter.convertRowIndexToView(2));
+
+    sorter.toggleSortOrder(0);
+    assertEquals(3, sorter.convertRowIndexToModel(0));
+    assertEquals(1, sorter.convertRowIndexToModel(1));
+    assertEquals(0, sorter.convertRowIndexToModel(2));
+
+    sorter.setIncludedRows(null);
+    assertEquals(4, sorter.getViewRowCount());
+    assertEquals(2, sorter.convertRowIndexToModel(2));
+  }
+
+  private static String word(Random random)
+  {
+    StringBuilder word = new StringBuilder();
+    int length = 1 + random.nextInt(8);
+    for (int i = 0; i < length; ++i)
+      word.append((char)((random.nextBoolean()
+        ? 'a'
+        : 'A') + random.nextInt(3)));
+    return word.toString();
+  }
+}
@@ -0,0 +1,185 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.swing.RowSorter.SortKey;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+
+import org.junit.Test;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+public class TestResultRowSorter
+{
+  private final ValueFactory mFactory = new ValueFactoryImpl();
+
+  @Test
+  public void testTypedOrder() throws IOException
+  {
+    ResultTableModel model = new ResultTableModel(Arrays.asList("value"));
+    add(model, mFactory.createURI("http://trebor.org/ns#foo"));
+    add(model, mFactory.createLiteral("10", XMLSchema.INT));
+    add(model, mFactory.createLiteral("banana"));
+    add(model, null);
+    add(model, mFactory.createLiteral("9", XMLSchema.INT));
+    add(model, mFactory.createLiteral("2012-01-01T00:00:00Z",
+      XMLSchema.DATETIME));
+    add(model, mFactory.createLiteral("-2.5", XMLSchema.DOUBLE));
+    add(model, mFactory.createLiteral("Apple"));
+    add(model, mFactory.createBNode("node1"));
+    add(model, mFactory.createLiteral("2011-06-01T00:00:00Z",
+      XMLSchema.DATETIME));
+    model.publishRows();
+
+    ResultRowSorter sorter = new ResultRowSorter(model, null, 1);
+    sorter.toggleSortOrder(0);
+    assertOrder(sorter, 3, 6, 4, 1, 9, 5, 7, 2, 0, 8);
+
+    sorter.toggleSortOrder(0);
+    assertEquals(SortOrder.DESCENDING, sorter.getSortKeys().get(0)
+      .getSortOrder());
+    assertOrder(sorter, 8, 0, 2, 7, 5, 9, 1, 4, 6, 3);
+
+    for (int view = 0; view < sorter.getViewRowCount(); ++view)
+      assertEquals(view,
+        sorter.convertRowIndexToView(sorter.convertRowIndexToModel(view)));
+  }
+
+  @Test
+  public void testSortKeys() throws IOException
+  {
+    ResultTableModel model = new ResultTableModel(Arrays.asList("a", "b"));
+    int[][] values = {{2, 1}, {1, 2}, {2, 0}, {1, 1}, {1, 2}};
+    for (int[] row : values)
+      model.addRow(new Object[] {integer(row[0]), integer(row[1])});
+    model.publishRows();
+
+    ResultRowSorter sorter = new ResultRowSorter(model, null, 1);
+    sorter.setSortKeys(Arrays.asList(new SortKey(0, SortOrder.ASCENDING),
+      new SortKey(1, SortOrder.DESCENDING)));
+
+    // ties keep model order
+
+    assertOrder(sorter, 1, 4, 3, 0, 2);
+
+    // rows added while sorted are sorted in
+
+    model.addRow(new Object[] {integer(0), integer(0)});
+    model.publishRows();
+    sorter.rowsInserted(5, 5);
+    assertOrder(sorter, 5, 1, 4, 3, 0, 2);
+
+    sorter.setSortKeys(null);
+    assertOrder(sorter, 0, 1, 2, 3, 4, 5);
+  }
+
+  @Test
+  public void testParallelSort() throws IOException
+  {
+    int rows = ResultRowSorter.PARALLEL_ROWS * 2;
+    ResultTableModel model = new ResultTableModel(Arrays.asList("value"));
+    Random random = new Random(0);
+    for (int i = 0; i < rows; ++i)
+      model.addRow(new Object[] {integer(random.nextInt(rows / 4))});
+    model.publishRows();
+
+    QueryExecutor executor = new QueryExecutor("sort", 4, 16);
+    try
+    {
+      ResultRowSorter sorter = new ResultRowSorter(model, executor, 4);
+      sorter.toggleSortOrder(0);
+      assertEquals(rows, sorter.getViewRowCount());
+
+      int previousValue = Integer.MIN_VALUE;
+      int previousRow = -1;
+      for (int view = 0; view < rows; ++view)
+      {
+        int row = sorter.convertRowIndexToModel(view);
+        int value = Integer.parseInt(
+          ((ResultCell)model.getValueAt(row, 0)).getLexicalForm());
+        assertTrue(value >= previousValue);
+        assertTrue(value > previousValue || row > previousRow);
+        previousValue = value;
+        previousRow = row;
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAppendedRowsSortedLater() throws Exception
+  {
+    ResultTableModel model = new ResultTableModel(Arrays.asList("value"));
+    for (int value : new int[] {3, 1, 2})
+      model.addRow(new Object[] {integer(value)});
+    model.publishRows();
+
+    QueryExecutor executor = new QueryExecutor("sort", 2, 4);
+    try
+    {
+      ResultRowSorter sorter = new ResultRowSorter(model, executor, 2);
+      sorter.toggleSortOrder(0);
+      assertOrder(sorter, 1, 2, 0);
+
+      // appended rows are shown once the background sort is done, one holds
+      // a value already ranked and one a new value
+
+      model.addRow(new Object[] {integer(2)});
+      model.addRow(new Object[] {integer(0)});
+      model.publishRows();
+      sorter.rowsInserted(3, 4);
+
+      for (int i = 0; i < 500 && 5 != sorter.getViewRowCount(); ++i)
+        flushEvents();
+      assertOrder(sorter, 4, 1, 2, 3, 0);
+      assertEquals(0, sorter.convertRowIndexToView(4));
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  private static void flushEvents()
+    throws InterruptedException, InvocationTargetException
+  {
+    Thread.sleep(10);
+    SwingUtilities.invokeAndWait(new Runnable()
+    {
+      public void run()
+      {
+      }
+    });
+  }
+
+  private void add(ResultTableModel model, Value value)
+    throws IOException
+  {
+    model.addRow(new Object[] {ResultCell.create(value)});
+  }
+
+  private ResultCell integer(int value)
+  {
+    return ResultCell.create(mFactory.createLiteral(Integer.toString(value),
+      XMLSchema.INTEGER));
+  }
+
+  private static void assertOrder(ResultRowSorter sorter, int... rows)
+  {
+    assertEquals(rows.length, sorter.getViewRowCount());
+    for (int view = 0; view < rows.length; ++view)
+      assertEquals(rows[view], sorter.convertRowIndexToModel(view));
+  }
+}
@@ -0,0 +1,154 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestResultTableModel
+{
+  public static final int ROWS = 10000;
+
+  @Test
+  public void testDictionary() throws IOException
+  {
+    ValueDictionary dictionary = new ValueDictionary();
+    assertEquals(ValueDictionary.NULL_ID, dictionary.intern(null));
+
+    for (int i = 0; i < ROWS; ++i)
+    {
+      int id = dictionary.intern(new String("value " + i % 100));
+      assertEquals("value " + i % 100, dictionary.get(id));
+    }
+
+    assertEquals(101, dictionary.size());
+  }
+
+  @Test
+  public void testSpilledDictionary() throws IOException
+  {
+    ValueDictionary dictionary = new ValueDictionary();
+    for (int i = 0; i < 50; ++i)
+      dictionary.intern("value " + i);
+
+    dictionary.spill();
+    try
+    {
+      for (int i = 0; i < ROWS; ++i)
+      {
+        int id = dictionary.intern(new String("value " + i % 100));
+        assertEquals("value " + i % 100, dictionary.get(id));
+      }
+
+      // values held before the spill are never stored again
+
+      assertEquals(7, dictionary.intern(new String("value 6")));
+    }
+    finally
+    {
+      dictionary.dispose();
+    }
+  }
+
+  @Test
+  public void testModel() throws IOException
+  {
+    ResultTableModel model =
+      new ResultTableModel(Arrays.asList("subject", "object"));
+    fillAndVerify(model);
+    assertFalse(model.isSpilled());
+  }
+
+  @Test
+  public void testSpilledModel() throws IOException
+  {
+    ResultTableModel model = new ResultTableModel(
+      Arrays.asList("subject", "object"), ROWS / 3, Long.MAX_VALUE);
+    try
+    {
+      fillAndVerify(model);
+      assertTrue(model.isSpilled());
+    }
+    finally
+    {
+      model.dispose();
+    }
+  }
+
+  @Test
+  public void testSpilledValuesAreReused() throws IOException
+  {
+    ResultTableModel model = new ResultTableModel(Arrays.asList("uri"), 0,
+      Long.MAX_VALUE, ResultCell.CODEC);
+    try
+    {
+      for (int i = 0; i < ROWS; ++i)
+        model.addRow(new ResultCell[]
+        {
+          new ResultCell(ResultCell.Kind.URI, "http://trebor.org/ns#" + i, null,
+            null)
+        });
+      model.publishRows();
+
+      // a spilled cell read twice is the same object, keeping its short form
+
+      assertTrue(model.isSpilled());
+      assertSame(model.getValueAt(ROWS - 1, 0), model.getValueAt(ROWS - 1, 0));
+      assertEquals("http://trebor.org/ns#7", model.getValueAt(7, 0).toString());
+    }
+    finally
+    {
+      model.dispose();
+    }
+  }
+
+  @Test
+  public void testDisposeWaitsForReaders() throws IOException
+  {
+    ResultTableModel model = new ResultTableModel(
+      Arrays.asList("subject", "object"), 0, Long.MAX_VALUE);
+    fillAndVerify(model);
+    assertTrue(model.acquire());
+
+    // a reader still holding the model can read its spilled rows
+
+    model.dispose();
+    model.dispose();
+    assertTrue(model.isDisposed());
+    assertFalse(model.acquire());
+    assertEquals("s" + (ROWS - 1) % 7, model.getValueAt(ROWS - 1, 0));
+    model.release();
+  }
+
+  private void fillAndVerify(ResultTableModel model) throws IOException
+  {
+    for (int i = 0; i < ROWS; ++i)
+      model.addRow(new String[]
+      {
+        "s" + i % 7, i % 3 == 0
+          ? null
+          : "o" + i
+      });
+
+    // nothing is visible until published
+
+    assertEquals(0, model.getRowCount());
+    model.publishRows();
+    assertEquals(ROWS, model.getRowCount());
+
+    for (int i = 0; i < ROWS; ++i)
+    {
+      assertEquals("s" + i % 7, model.getValueAt(i, 0));
+      if (i % 3 == 0)
+        assertNull(model.getValueAt(i, 1));
+      else
+        assertEquals("o" + i, model.getValueAt(i, 1));
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.trebor.splink.ExportFixtures.IGNORE;
+import static org.trebor.splink.ExportFixtures.addContext;
+import static org.trebor.splink.ExportFixtures.createRepository;
+import static org.trebor.splink.ExportFixtures.createTempDirectory;
+import static org.trebor.splink.ExportFixtures.delete;
+import static org.trebor.splink.ExportFixtures.read;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.rio.RDFFormat;
+
+public class TestShardedExporter
+{
+  @Test
+  public void testExport() throws Exception
+  {
+    Repository repository = createRepository();
+    RepositoryConnection connection = repository.getConnection();
+    ValueFactory factory = connection.getValueFactory();
+    URI predicate = factory.createURI("http://example.org/p");
+    for (int c = 0; c < 7; ++c)
+      addContext(connection, c, 100 * (c + 1));
+    connection.add(predicate, predicate, factory.createLiteral("default"));
+    Set<String> expected =
+      quads(connection.getStatements(null, null, null, false).asList());
+    connection.close();
+
+    File directory = createTempDirectory();
+    ConnectionPool pool = new ConnectionPool(repository, 2);
+    try
+    {
+      File file = new File(directory, "repo.nq.gz");
+      List<ShardedExporter.Shard> shards = new ShardedExporter(pool,
+        RDFFormat.NQUADS, false, new QueryControl(), IGNORE).export(file, 3);
+      assertEquals(3, shards.size());
+      assertEquals(0, pool.getBusy());
+
+      // every statement is in exactly one file, each context in one shard
+
+      Set<String> exported = new HashSet<String>();
+      Set<Resource> contexts = new HashSet<Resource>();
+      long total = 0;
+      for (ShardedExporter.Shard shard : shards)
+      {
+        assertEquals(new File(directory, String.format("repo-%03d.nq.gz",
+          shards.indexOf(shard) + 1)), shard.getFile());
+        assertEquals(shard.getSize(), shard.getStatements());
+        assertEquals(shard.getFile().length(), shard.getBytes());
+        assertEquals(checksum(shard.getFile()), shard.getChecksum());
+        List<Statement> statements = read(shard.getFile(), RDFFormat.NQUADS);
+        assertEquals(shard.getStatements(), statements.size());
+        for (Statement statement : statements)
+          assertTrue(shard.getContexts().contains(statement.getContext()));
+        for (Resource context : shard.getContexts())
+          assertTrue(contexts.add(context));
+        exported.addAll(quads(statements));
+        total += statements.size();
+      }
+      assertEquals(expected.size(), total);
+      assertEquals(expected, exported);
+      assertTrue(contexts.contains(null));
+
+      // the manifest lists each shard and context
+
+      BufferedReader manifest = new BufferedReader(new FileReader(
+        new File(directory, "repo" + ShardedExporter.MANIFEST_EXTENSION)));
+      int shardLines = 0;
+      int contextLines = 0;
+      for (String line; null != (line = manifest.readLine());)
+      {
+        if (line.startsWith("shard\t"))
+        {
+          String[] fields = line.split("\t");
+          ShardedExporter.Shard shard = shards.get(shardLines++);
+          assertEquals(shard.getFile().getName(), fields[1]);
+          assertEquals(String.format("%08x", shard.getChecksum()), fields[4]);
+        }
+        else if (line.startsWith("context\t"))
+          ++contextLines;
+      }
+      manifest.close();
+      assertEquals(3, shardLines);
+      assertEquals(8, contextLines);
+    }
+    finally
+    {
+      pool.close();
+      repository.shutDown();
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testInterruptedByCancel() throws Exception
+  {
+    Repository repository = createRepository();
+    RepositoryConnection connection = repository.getConnection();
+    for (int c = 0; c < 4; ++c)
+      addContext(connection, c, 100);
+    connection.close();
+
+    File directory = createTempDirectory();
+    ConnectionPool pool = new ConnectionPool(repository, 2);
+    try
+    {
+      // canceling interrupts the exporting thread, which is not a failure
+
+      QueryControl control = new QueryControl();
+      control.cancel();
+      Thread.currentThread().interrupt();
+      new ShardedExporter(pool, RDFFormat.NQUADS, false, control, IGNORE)
+        .export(new File(directory, "repo.nq"), 2);
+      assertTrue(Thread.interrupted());
+      assertFalse(new File(directory, "repo" +
+        ShardedExporter.MANIFEST_EXTENSION).exists());
+    }
+    finally
+    {
+      Thread.interrupted();
+      pool.close();
+      repository.shutDown();
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testBalance()
+  {
+    ValueFactory factory = new ValueFactoryImpl();
+    Map<Resource, Long> sizes = new LinkedHashMap<Resource, Long>();
+    long[] counts = {1, 9, 4, 7, 3, 6};
+    for (int i = 0; i < counts.length; ++i)
+      sizes.put(factory.createURI("http://example.org/g" + i), counts[i]);
+    List<File> files = Arrays.asList(new File("a"), new File("b"),
+      new File("c"));
+
+    List<ShardedExporter.Shard> shards = ShardedExporter.balance(sizes, files);
+    List<Long> totals = new ArrayList<Long>();
+    for (ShardedExporter.Shard shard : shards)
+      totals.add(shard.getSize());
+    assertEquals(Arrays.asList(10L, 10L, 10L), totals);
+  }
+
+  @Test
+  public void testFileNames()
+  {
+    File file = new File("/tmp/repo.ttl");
+    assertEquals(new File("/tmp/repo-002.ttl"),
+      ShardedExporter.getShardFile(file, 1, RDFFormat.TURTLE));
+    assertEquals(new File("/tmp/repo.manifest"),
+      ShardedExporter.getManifestFile(file, RDFFormat.TURTLE));
+    assertEquals(new File("/tmp/repo-001.nq.gz"), ShardedExporter
+      .getShardFile(new File("/tmp/repo.nq.gz"), 0, RDFFormat.NQUADS));
+  }
+
+  // statements are equal whatever their context, so compare them as quads
+
+  private static Set<String> quads(List<Statement> statements)
+  {
+    Set<String> quads = new HashSet<String>();
+    for (Statement statement : statements)
+      quads.add(statement + " " + statement.getContext());
+    return quads;
+  }
+
+  private static long checksum(File file) throws Exception
+  {
+    CRC32 crc = new CRC32();
+    InputStream in = new FileInputStream(file);
+    try
+    {
+      byte[] buffer = new byte[8192];
+      for (int read; (read = in.read(buffer)) > 0;)
+        crc.update(buffer, 0, read);
+    }
+    finally
+    {
+      in.close();
+    }
+    return crc.getValue();
+  }
+}
@@ -0,0 +1,162 @@
+package org.trebor.splink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestTaskGroup
+{
+  @Test
+  public void testConcurrentTasks() throws Exception
+  {
+    QueryExecutor executor = new QueryExecutor("test", 3, 3);
+    final AtomicInteger finished = new AtomicInteger();
+    final List<String> names = new ArrayList<String>();
+    final CountDownLatch done = new CountDownLatch(1);
+    TaskGroup group = new TaskGroup("group", executor, new TaskGroup.Listener()
+    {
+      public void onFinished(TaskGroup group, long elapsed,
+        Map<String, Long> timings)
+      {
+        finished.incrementAndGet();
+        names.addAll(timings.keySet());
+        done.countDown();
+      }
+    });
+
+    // the tasks only finish if they all run at the same time
+
+    final CountDownLatch running = new CountDownLatch(3);
+    for (String name : new String[] {"a", "b", "c"})
+      group.submit(name, new Runnable()
+      {
+        public void run()
+        {
+          running.countDown();
+          try
+          {
+            running.await();
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    group.close();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, finished.get());
+    assertEquals(3, names.size());
+    assertTrue(names.containsAll(Arrays.asList("a", "b", "c")));
+    executor.shutdown();
+  }
+
+  @Test
+  public void testFailureAndEmptyGroup() throws Exception
+  {
+    QueryExecutor executor = new QueryExecutor("test", 1, 1);
+    final AtomicInteger finished = new AtomicInteger();
+    TaskGroup.Listener listener = new TaskGroup.Listener()
+    {
+      public void onFinished(TaskGroup group, long elapsed,
+        Map<String, Long> timings)
+      {
+        finished.incrementAndGet();
+      }
+    };
+
+    // a failing task still ends the group
+
+    TaskGroup group = new TaskGroup("failing", executor, listener);
+    group.submit("fail", new Runnable()
+    {
+      public void run()
+      {
+        throw new IllegalStateException("expected");
+      }
+    }).get();
+    group.close();
+    assertEquals(1, finished.get());
+
+    // a group without tasks finishes when closed
+
+    new TaskGroup("empty", executor, listener).close();
+    assertEquals(2, finished.get());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testRejectedTaskNotRunHere() throws Exception
+  {
+    QueryExecutor executor = new QueryExecutor("test", 1, 1);
+    final AtomicInteger finished = new AtomicInteger();
+    TaskGroup group = new TaskGroup("full", executor, new TaskGroup.Listener()
+    {
+      public void onFinished(TaskGroup group, long elapsed,
+        Map<String, Long> timings)
+      {
+        finished.incrementAndGet();
+      }
+    });
+
+    // one task runs and one waits, so the executor has no room for a third
+
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocked = new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          release.await();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    Future<?> running = group.submit("running", blocked);
+    Future<?> waiting = group.submit("waiting", blocked);
+    final Thread caller = Thread.currentThread();
+    Future<?> rejected = group.submit("rejected", new Runnable()
+    {
+      public void run()
+      {
+        if (Thread.currentThread() == caller)
+          fail("rejected task run on the calling thread");
+      }
+    });
+    group.close();
+
+    try
+    {
+      rejected.get();
+      fail("rejected task succeeded");
+    }
+    catch (ExecutionException e)
+    {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    release.countDown();
+    running.get();
+    waiting.get();
+    assertEquals(1, finished.get());
+    executor.shutdown();
+  }
+}